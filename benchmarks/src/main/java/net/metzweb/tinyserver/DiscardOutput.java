@@ -0,0 +1,40 @@
+package net.metzweb.tinyserver;
+
+import java.io.OutputStream;
+
+/**
+ * Connection output of the benchmarks.
+ * Counts the written bytes instead of sending them, the count
+ * is consumed so the responses can't be optimized away.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class DiscardOutput extends OutputStream {
+
+  private long count;
+
+  @Override
+  public void write(int b) {
+    count++;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) {
+    count += length;
+  }
+
+  /**
+   * Byte count Getter.
+   * 
+   * @return Number of written bytes.
+   */
+  long getCount() {
+    return count;
+  }
+
+}
@@ -0,0 +1,78 @@
+package net.metzweb.tinyserver;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.metzweb.tinyserver.response.JsonResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request benchmark.
+ * Serves a complete GET request without a socket: header parsing, route lookup,
+ * query parameters, callback and JSON response. Run with -prof gc to see the
+ * allocation per request.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+  private static final byte[] REQUEST = RequestParserBenchmark.BROWSER_REQUEST;
+
+  private final RequestParser parser = new RequestParser();
+  private final DiscardOutput output = new DiscardOutput();
+  private TinyServer server;
+
+  @Setup
+  public void setup() {
+    server = new TinyServer(0);
+    server.setResponseFormat(new JsonResponse());
+    for (int i = 0; i < 20; i++) {
+      server.get("/api/resource" + i + "/[id]", new Response() {
+        @Override
+        public void callback(Request request) {
+        }
+      });
+    }
+    server.get("/search", new Response() {
+      @Override
+      public void callback(Request request) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("query", request.param("q"));
+        result.put("page", Integer.parseInt(request.param("page")));
+        result.put("hits", 42);
+        request.write(result);
+      }
+    });
+  }
+
+  @Benchmark
+  public long getRequest() throws IOException {
+    parser.reset();
+    parser.parse(REQUEST, 0, REQUEST.length);
+    Request request = new Request(parser.getRequestLine(), parser.getHeaders(), server, output);
+    request.parseGET();
+    return output.getCount();
+  }
+
+}
@@ -0,0 +1,89 @@
+package net.metzweb.tinyserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import net.metzweb.tinyserver.response.PlainResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Request parsing benchmark.
+ * Parses the header of a typical browser request and the query string of a GET request.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParserBenchmark {
+
+  static final byte[] BROWSER_REQUEST = (
+      "GET /search?q=tiny+server&page=2&sort=desc&lang=en HTTP/1.1\r\n"
+      + "Host: www.example.com\r\n"
+      + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:131.0) Gecko/20100101 Firefox/131.0\r\n"
+      + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+      + "Accept-Language: en-US,en;q=0.5\r\n"
+      + "Accept-Encoding: gzip, deflate, br\r\n"
+      + "Referer: https://www.example.com/\r\n"
+      + "Connection: keep-alive\r\n"
+      + "Cookie: session=3f8a9c2e51d04b7a; theme=dark; consent=1\r\n"
+      + "Upgrade-Insecure-Requests: 1\r\n"
+      + "Cache-Control: max-age=0\r\n"
+      + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+  private static final String[] QUERY_REQUEST_LINE = {"GET", "/search?q=tiny+server&page=2&sort=desc&lang=en", "HTTP/1.1"};
+
+  private final RequestParser parser = new RequestParser();
+  private TinyServer server;
+  private DiscardOutput output;
+
+  @Setup
+  public void setup() {
+    server = new TinyServer(0);
+    server.setResponseFormat(new PlainResponse());
+    // answers without a body, the benchmark measures the parameters
+    server.get("/search", new Response() {
+      @Override
+      public void callback(Request request) {
+      }
+    });
+    output = new DiscardOutput();
+  }
+
+  @Benchmark
+  public void header(Blackhole blackhole) throws IOException {
+    parser.reset();
+    blackhole.consume(parser.parse(BROWSER_REQUEST, 0, BROWSER_REQUEST.length));
+    blackhole.consume(parser.getRequestLine());
+    blackhole.consume(parser.getHeaders());
+  }
+
+  /**
+   * Query string parsing, incl. the lookup of its route.
+   */
+  @Benchmark
+  public Object queryString() {
+    Request request = new Request(QUERY_REQUEST_LINE, Headers.EMPTY, server, output);
+    request.parseGET();
+    return request.param("sort");
+  }
+
+}
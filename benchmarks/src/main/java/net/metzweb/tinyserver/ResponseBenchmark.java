@@ -0,0 +1,104 @@
+package net.metzweb.tinyserver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.metzweb.tinyserver.response.HtmlResponse;
+import net.metzweb.tinyserver.response.JsonResponse;
+import net.metzweb.tinyserver.response.PlainResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Response writing benchmark.
+ * Serializes JSON, HTML and plain text responses, header included,
+ * from a per-request copy of the format like a route does.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+
+  private final JsonResponse json = new JsonResponse();
+  private final HtmlResponse html = new HtmlResponse();
+  private final PlainResponse plain = new PlainResponse();
+  private final DiscardOutput output = new DiscardOutput();
+
+  private Map<String, Object> document;
+  private String page;
+
+  @Setup
+  public void setup() {
+    // a user with a list of orders, about 1 KB as JSON
+    document = new LinkedHashMap<>();
+    document.put("id", 4711);
+    document.put("name", "Christian \"Tiny\" Server");
+    document.put("email", "christian@example.com");
+    document.put("active", true);
+    document.put("score", 98.6);
+    List<Object> orders = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      Map<String, Object> order = new LinkedHashMap<>();
+      order.put("id", 1000 + i);
+      order.put("item", "Article " + i);
+      order.put("price", 9.99 * (i + 1));
+      order.put("shipped", i % 2 == 0);
+      orders.add(order);
+    }
+    document.put("orders", orders);
+
+    StringBuilder body = new StringBuilder("<ul>");
+    for (int i = 0; i < 20; i++) {
+      body.append("<li><a href=\"/articles/").append(i).append("\">Article ").append(i).append("</a></li>");
+    }
+    page = body.append("</ul>").toString();
+  }
+
+  @Benchmark
+  public long jsonResponse() {
+    JsonResponse format = (JsonResponse) json.create();
+    format.setOutputStream(output);
+    format.setKeepAlive(true);
+    format.success(document);
+    return output.getCount();
+  }
+
+  @Benchmark
+  public long htmlResponse() {
+    HtmlResponse format = (HtmlResponse) html.create();
+    format.setOutputStream(output);
+    format.setKeepAlive(true);
+    format.success(page);
+    return output.getCount();
+  }
+
+  @Benchmark
+  public long plainResponse() {
+    PlainResponse format = (PlainResponse) plain.create();
+    format.setOutputStream(output);
+    format.setKeepAlive(true);
+    format.success("Hello world. I'm your new Java server.");
+    return output.getCount();
+  }
+
+}
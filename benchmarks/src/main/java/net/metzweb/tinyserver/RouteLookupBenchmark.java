@@ -0,0 +1,106 @@
+package net.metzweb.tinyserver;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Route lookup benchmark.
+ * Finds static, parameter and wildcard routes and misses in tables of 10, 100 and 1000 routes.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteLookupBenchmark {
+
+  /**
+   * Number of paths per kind, looked up in turn.
+   */
+  private static final int PATHS = 64;
+
+  @Param({"10", "100", "1000"})
+  private int routeCount;
+
+  private TinyServer server;
+  private final String[] staticPaths = new String[PATHS];
+  private final String[] paramPaths = new String[PATHS];
+  private final String[] wildcardPaths = new String[PATHS];
+  private final String[] missingPaths = new String[PATHS];
+  private int index;
+
+  @Setup
+  public void setup() {
+    server = new TinyServer(0);
+    Response callback = new Response() {
+      @Override
+      public void callback(Request request) {
+      }
+    };
+    // a third of each kind, like the routes of a typical API
+    for (int i = 0; i < routeCount; i++) {
+      switch (i % 3) {
+        case 0:
+          server.get("/api/resource" + i + "/list", callback);
+          break;
+        case 1:
+          server.get("/api/resource" + i + "/[id]/details", callback);
+          break;
+        default:
+          server.get("/static/resource" + i + "/*", callback);
+          break;
+      }
+    }
+    for (int i = 0; i < PATHS; i++) {
+      int route = (i * 31) % routeCount;
+      staticPaths[i] = "/api/resource" + (route - route % 3) + "/list";
+      paramPaths[i] = "/api/resource" + (route - route % 3 + 1) + "/" + i + "/details";
+      wildcardPaths[i] = "/static/resource" + (route - route % 3 + 2) + "/css/site" + i + ".css";
+      missingPaths[i] = "/api/unknown" + i + "/list";
+    }
+  }
+
+  @Benchmark
+  public Object staticRoute() {
+    return server.findRoute(staticPaths[next()], false);
+  }
+
+  @Benchmark
+  public Object paramRoute() {
+    return server.findRoute(paramPaths[next()], false);
+  }
+
+  @Benchmark
+  public Object wildcardRoute() {
+    return server.findRoute(wildcardPaths[next()], false);
+  }
+
+  @Benchmark
+  public Object missingRoute() {
+    return server.findRoute(missingPaths[next()], false);
+  }
+
+  private int next() {
+    index = (index + 1) & (PATHS - 1);
+    return index;
+  }
+
+}
@@ -0,0 +1,533 @@
+package net.metzweb.tinyserver;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous access log.
+ * Requests and server messages are handed over through a lock-free ring buffer
+ * and written in batches by a background thread, so serving a request never
+ * waits for the console or the disk. If the buffer is full, entries are dropped
+ * and counted instead.
+ * 
+ * Entries are written as JSON lines to a log file, that is rotated by size,
+ * or to the console.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public class AccessLog {
+
+  /**
+   * Ring buffer capacity, a power of two.
+   */
+  private static final int CAPACITY = 8192;
+  private static final int MASK = CAPACITY - 1;
+
+  /**
+   * Entries written per batch and the time between batches.
+   */
+  private static final int BATCH_SIZE = 1024;
+  private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /**
+   * Receives server messages: the log of the last configured server, otherwise the console.
+   */
+  private static volatile AccessLog messageLog;
+  private static volatile AccessLog console;
+
+  /**
+   * Ring buffer: producers claim a position from the tail, the writer thread consumes from the head.
+   */
+  private final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(CAPACITY);
+  private final AtomicLong tail = new AtomicLong();
+  private volatile long head;
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * Log file or null for the console.
+   */
+  private final File file;
+  private volatile long maxFileSize = 10 * 1024 * 1024;
+  private volatile int maxFiles = 5;
+  private volatile double sampleRate = 1.0;
+
+  private final Thread writerThread;
+  private volatile boolean closed;
+
+  /**
+   * Output state, owned by the writer thread.
+   */
+  private Writer fileWriter;
+  private long fileSize;
+  private final StringBuilder line = new StringBuilder(256);
+  private long lastTime = -1;
+  private String lastTimeText;
+  private final StringBuilder out = new StringBuilder();
+  private final StringBuilder err = new StringBuilder();
+
+  /**
+   * Console log: requests and messages to System.out, errors to System.err.
+   */
+  public AccessLog() {
+    this((File) null);
+  }
+
+  /**
+   * Constructor with a log file.
+   * The file is appended to, its directory has to exist.
+   * 
+   * @param path Path of the log file, e.g. logs/access.log
+   */
+  public AccessLog(String path) {
+    this(new File(path));
+  }
+
+  private AccessLog(File file) {
+    this.file = file;
+    writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    }, "TinyServer-log");
+    writerThread.setDaemon(true);
+    writerThread.start();
+    // pending entries are written, before the JVM exits
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        close();
+      }
+    }));
+  }
+
+  /**
+   * Log an informational server message.
+   * 
+   * @param message The message.
+   */
+  public static void info(String message) {
+    messageLog().offer(new Entry(false, message));
+  }
+
+  /**
+   * Log a server error.
+   * 
+   * @param message The message.
+   */
+  public static void error(String message) {
+    messageLog().offer(new Entry(true, message));
+  }
+
+  /**
+   * Log, that receives server messages.
+   * 
+   * @return The configured log or the console.
+   */
+  private static AccessLog messageLog() {
+    AccessLog log = messageLog;
+    if (log != null) {
+      return log;
+    }
+    log = console;
+    if (log == null) {
+      synchronized (AccessLog.class) {
+        if (console == null) {
+          console = new AccessLog();
+        }
+        log = console;
+      }
+    }
+    return log;
+  }
+
+  /**
+   * Route server messages to a log.
+   * 
+   * @param log The log or null for the console.
+   */
+  static void setMessageLog(AccessLog log) {
+    messageLog = log;
+  }
+
+  /**
+   * Log a request, if it's sampled. Server errors (5xx) are always logged.
+   * 
+   * @param method   Request method, e.g. GET
+   * @param path     Requested path, incl. query string.
+   * @param route    Matching route pattern or null.
+   * @param status   Response status code.
+   * @param bytes    Response body bytes.
+   * @param duration Time until the response was complete, in nanoseconds.
+   */
+  void request(String method, String path, String route, int status, long bytes, long duration) {
+    double rate = sampleRate;
+    if (status < 500 && rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) {
+      return;
+    }
+    offer(new Entry(method, path, route, status, bytes, duration));
+  }
+
+  /**
+   * Sample rate Setter.
+   * 
+   * @param rate Fraction of requests, that are logged, from 0 to 1 (default: 1).
+   */
+  public void setSampleRate(double rate) {
+    if (!(rate >= 0 && rate <= 1)) {
+      throw new IllegalArgumentException("Invalid sample rate: " + rate);
+    }
+    sampleRate = rate;
+  }
+
+  /**
+   * Sample rate Getter.
+   * 
+   * @return Fraction of requests, that are logged.
+   */
+  public double getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * File size limit Setter.
+   * A full log file is renamed to access.log.1, older ones are shifted to .2, .3 and so on.
+   * 
+   * @param size Size in bytes, before the file is rotated (default: 10 MB).
+   */
+  public void setMaxFileSize(long size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Invalid file size: " + size);
+    }
+    maxFileSize = size;
+  }
+
+  /**
+   * File size limit Getter.
+   * 
+   * @return Size in bytes, before the file is rotated.
+   */
+  public long getMaxFileSize() {
+    return maxFileSize;
+  }
+
+  /**
+   * Rotated file count Setter.
+   * 
+   * @param count Number of rotated files, that are kept (default: 5).
+   */
+  public void setMaxFiles(int count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("Invalid file count: " + count);
+    }
+    maxFiles = count;
+  }
+
+  /**
+   * Rotated file count Getter.
+   * 
+   * @return Number of rotated files, that are kept.
+   */
+  public int getMaxFiles() {
+    return maxFiles;
+  }
+
+  /**
+   * Dropped entries Getter.
+   * 
+   * @return Number of entries, that were dropped since the buffer was full.
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Write the pending entries and stop the writer thread.
+   * Entries logged afterwards aren't written anymore.
+   */
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writerThread);
+    if (Thread.currentThread() != writerThread) {
+      try {
+        writerThread.join(TimeUnit.SECONDS.toMillis(2));
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Hand an entry over to the writer thread.
+   * Never blocks: the entry is dropped, if the buffer is full.
+   * 
+   * @param  entry The entry.
+   * @return       Whether it was queued.
+   */
+  private boolean offer(Entry entry) {
+    long position;
+    do {
+      position = tail.get();
+      if (position - head >= CAPACITY) {
+        dropped.incrementAndGet();
+        return false;
+      }
+    } while (!tail.compareAndSet(position, position + 1));
+    slots.lazySet((int) position & MASK, entry);
+    if (position - head >= CAPACITY / 2) {
+      // don't wait for the interval, before the buffer is full
+      LockSupport.unpark(writerThread);
+    }
+    return true;
+  }
+
+  /**
+   * Writer thread: drains the buffer in batches, until the log is closed.
+   */
+  private void write() {
+    long reportedDrops = 0;
+    while (true) {
+      boolean last = closed;
+      try {
+        while (drain() == BATCH_SIZE) {
+          // more entries are waiting
+        }
+        long drops = dropped.get();
+        if (drops > reportedDrops) {
+          append(new Entry(true, (drops - reportedDrops) + " log entries dropped, the log doesn't keep up."));
+          reportedDrops = drops;
+        }
+        flush();
+      } catch (IOException ex) {
+        System.err.println("Couldn't write access log: " + ex.getMessage());
+        closeFile();
+      }
+      if (last) {
+        break;
+      }
+      LockSupport.parkNanos(this, FLUSH_INTERVAL);
+    }
+    closeFile();
+  }
+
+  /**
+   * Write up to one batch of entries.
+   * Stops at an entry, that has been claimed but not published yet.
+   * 
+   * @return Number of written entries.
+   * @throws IOException
+   */
+  private int drain() throws IOException {
+    long position = head;
+    int count = 0;
+    while (count < BATCH_SIZE) {
+      int index = (int) position & MASK;
+      Entry entry = slots.get(index);
+      if (entry == null) {
+        break;
+      }
+      slots.lazySet(index, null);
+      position++;
+      count++;
+      append(entry);
+    }
+    // releases the slots to the producers
+    head = position;
+    return count;
+  }
+
+  /**
+   * Format an entry into the current batch.
+   * 
+   * @param  entry The entry.
+   * @throws       IOException
+   */
+  private void append(Entry entry) throws IOException {
+    if (file == null && entry.message != null) {
+      // plain messages on the console
+      (entry.error ? err : out).append(entry.message).append('\n');
+      return;
+    }
+    line.setLength(0);
+    if (entry.time != lastTime) {
+      // entries of a batch mostly share their timestamp
+      lastTime = entry.time;
+      lastTimeText = Instant.ofEpochMilli(lastTime).toString();
+    }
+    line.append("{\"time\":\"").append(lastTimeText).append('"');
+    if (entry.message != null) {
+      line.append(",\"level\":\"").append(entry.error ? "error" : "info").append('"');
+      appendString(",\"message\":", entry.message);
+    } else {
+      appendString(",\"method\":", entry.method);
+      appendString(",\"path\":", entry.path);
+      appendString(",\"route\":", entry.route);
+      line.append(",\"status\":").append(entry.status);
+      line.append(",\"bytes\":").append(entry.bytes);
+      line.append(",\"duration_us\":").append(entry.duration / 1000);
+    }
+    line.append("}\n");
+
+    if (file == null) {
+      out.append(line);
+      return;
+    }
+    if (fileWriter == null) {
+      openFile();
+    } else if (fileSize + line.length() > maxFileSize) {
+      rotate();
+    }
+    fileWriter.append(line);
+    fileSize += line.length();
+  }
+
+  /**
+   * Append a JSON string field.
+   * 
+   * @param name  The name incl. separator and colon.
+   * @param value The value or null.
+   */
+  private void appendString(String name, String value) {
+    line.append(name);
+    if (value == null) {
+      line.append("null");
+      return;
+    }
+    line.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        line.append('\\').append(c);
+      } else if (c == '\n') {
+        line.append("\\n");
+      } else if (c == '\r') {
+        line.append("\\r");
+      } else if (c == '\t') {
+        line.append("\\t");
+      } else if (c < 0x20) {
+        line.append(String.format("\\u%04x", (int) c));
+      } else {
+        line.append(c);
+      }
+    }
+    line.append('"');
+  }
+
+  /**
+   * Write the current batch.
+   * 
+   * @throws IOException
+   */
+  private void flush() throws IOException {
+    if (out.length() > 0) {
+      System.out.print(out);
+      System.out.flush();
+      out.setLength(0);
+    }
+    if (err.length() > 0) {
+      System.err.print(err);
+      System.err.flush();
+      err.setLength(0);
+    }
+    if (fileWriter != null) {
+      fileWriter.flush();
+    }
+  }
+
+  private void openFile() throws IOException {
+    fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024);
+    fileSize = file.length();
+  }
+
+  /**
+   * Rename the full log file to .1, shift the older ones and start a new file.
+   * 
+   * @throws IOException
+   */
+  private void rotate() throws IOException {
+    fileWriter.close();
+    fileWriter = null;
+    int count = maxFiles;
+    if (count == 0) {
+      Files.delete(file.toPath());
+    } else {
+      for (int i = count - 1; i >= 1; i--) {
+        File source = new File(file.getPath() + "." + i);
+        if (source.exists()) {
+          Files.move(source.toPath(), new File(file.getPath() + "." + (i + 1)).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      Files.move(file.toPath(), new File(file.getPath() + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    openFile();
+  }
+
+  private void closeFile() {
+    if (fileWriter != null) {
+      try {
+        fileWriter.close();
+      } catch (IOException ex) {
+        // nothing left to write to
+      }
+      fileWriter = null;
+    }
+  }
+
+  /**
+   * Log entry: a request or a server message.
+   */
+  private static class Entry {
+
+    private final long time = System.currentTimeMillis();
+    private final String method;
+    private final String path;
+    private final String route;
+    private final int status;
+    private final long bytes;
+    private final long duration;
+    private final String message;
+    private final boolean error;
+
+    Entry(String method, String path, String route, int status, long bytes, long duration) {
+      this.method = method;
+      this.path = path;
+      this.route = route;
+      this.status = status;
+      this.bytes = bytes;
+      this.duration = duration;
+      this.message = null;
+      this.error = false;
+    }
+
+    Entry(boolean error, String message) {
+      this.method = null;
+      this.path = null;
+      this.route = null;
+      this.status = 0;
+      this.bytes = 0;
+      this.duration = 0;
+      this.message = String.valueOf(message);
+      this.error = error;
+    }
+
+  }
+
+}
@@ -0,0 +1,29 @@
+package net.metzweb.tinyserver;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Asynchronous response callback.
+ * The response is completed and the connection released,
+ * once the returned stage completes, instead of when the callback returns.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public interface AsyncResponse {
+
+  /**
+   * Callback method.
+   * Writes the response through the request, now or when the stage completes.
+   * 
+   * @param  request Request object, containing route and request params.
+   * @return         Completes after the response has been written,
+   *                 or null if it was written synchronously.
+   */
+  public CompletionStage<?> callback(Request request);
+
+}
@@ -1,10 +1,14 @@
 package net.metzweb.tinyserver;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 
 /**
  * Server connection.
@@ -17,11 +21,45 @@ import java.net.Socket;
  * @version 1.3
  * @license BSD http://www.opensource.org/licenses/bsd-license.php
  */
-public class Connection extends Thread {
+public class Connection implements Runnable {
+
+  /**
+   * Response for connections that couldn't be served.
+   */
+  static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+      + "Content-Length: 0\r\n"
+      + "Connection: close\r\n"
+      + "Server: TinyServer MetzWeb\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Initial size of the input buffer.
+   */
+  private static final int BUFFER_SIZE = 8192;
 
   private final Socket socket;
   private final TinyServer server;
 
+  /**
+   * Received bytes, unprocessed between start and end.
+   */
+  private byte[] buffer = new byte[BUFFER_SIZE];
+  private int start;
+  private int end;
+
+  /**
+   * Connection state, kept while the connection waits for an asynchronous response.
+   */
+  private ConnectionOutput output;
+  private InputStream input;
+  private final RequestParser parser = new RequestParser();
+  private int served;
+
+  /**
+   * Request with an asynchronous response and its body, completed when the connection resumes.
+   */
+  private Request pending;
+  private RequestBody pendingBody;
+
   /**
    * Custom constructor.
    * 
@@ -34,62 +72,401 @@ public class Connection extends Thread {
   }
 
   /**
-   * Server multithreading.
+   * Serve the connection.
+   * Executed by a worker or a dedicated connection thread.
+   * Handles requests until the client or the keep-alive limits close the connection.
    */
   @Override
   public void run() {
+    boolean suspended = false;
     try {
-      // create reader and writer
-      OutputStream output = socket.getOutputStream();
-      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-      
-      // read first header line
-      String line = reader.readLine();
-      
-      // check request type (GET/POST)
-      // example: [GET, /hello/world.json, HTTP/1.1]
-      String[] requestHeader = line.split("(\\s{1,})");
-      String requestType = requestHeader[0];
-      
-      Request request = new Request(requestHeader, server, output);
+      boolean keepAlive = true;
+      if (output == null) {
+        // create reader and writer
+        output = new ConnectionOutput(socket);
+        input = socket.getInputStream();
+        
+        // idle connections are closed after the keep-alive timeout
+        socket.setSoTimeout(server.getKeepAliveTimeout());
+      } else if (pending != null) {
+        // resumed after an asynchronous response
+        keepAlive = complete(pending, pendingBody);
+        pending = null;
+        pendingBody = null;
+      }
       
-      // check request type: GET / POST
-      if (requestType.equals("GET")) {
-        request.parseGET();
-      } else if (requestType.equals("POST")) {
-        int counter = 0;
-        int contentLength = 0;
-        for (line = reader.readLine(); line != null; line = reader.readLine()) {
-          if (line.isEmpty()) {
-            counter++;
+      while (keepAlive) {
+        // read until the request header is complete
+        int headerLength = parser.parse(buffer, start, end - start);
+        while (headerLength < 0) {
+          if (!fill(input)) {
+            return;
           }
-          if (counter > 0) {
+          headerLength = parser.parse(buffer, start, end - start);
+        }
+        
+        // example: [GET, /hello/world.json, HTTP/1.1]
+        String[] requestHeader = parser.getRequestLine();
+        String requestType = requestHeader[0];
+        Headers headers = parser.getHeaders();
+        parser.reset();
+        if (server.isHttp2Enabled() && Http2Connection.isPreface(requestHeader)) {
+          // prior knowledge: the preface is read by the HTTP/2 connection
+          serveHttp2(null, null, null);
+          break;
+        }
+        start += headerLength;
+        // rejects ambiguous framing, before anything is answered
+        long contentLength = RequestParser.contentLength(headers);
+        
+        byte[] settings = server.isHttp2Enabled() ? Http2Connection.upgradeSettings(requestHeader, headers) : null;
+        if (settings != null) {
+          // the upgrade request is answered as stream 1
+          output.write(Http2Connection.SWITCHING_PROTOCOLS);
+          serveHttp2(requestHeader, headers, settings);
+          break;
+        }
+        
+        Request request = new Request(requestHeader, headers, server, output);
+        served++;
+        if (served >= server.getMaxKeepAliveRequests()) {
+          request.setKeepAlive(false);
+        }
+        
+        // check request type: GET / POST
+        RequestBody body = null;
+        if (requestType.equals("GET")) {
+          if (contentLength > 0) {
+            // not read by GET routes, skipped after the callback
+            body = new RequestBody(new BodyInput(input), contentLength);
+          }
+          request.parseGET();
+          if (request.isUpgrade()) {
+            output.commit();
+            serveWebSocket(request);
             break;
           }
-          if (line.startsWith("Content-Length:")) {
-            contentLength = Integer.parseInt(line.replace("Content-Length: ", ""));
+        } else if (requestType.equals("POST")) {
+          // refuse oversized bodies before reading them
+          RouteTree.Match match = server.findRoute(requestHeader[1], true);
+          if (RequestParser.expectsContinue(headers, contentLength, server.getMaxBodySize(match))
+              && request.getProtocol().equals("HTTP/1.1") && start == end) {
+            // the client waits for the interim response, before sending the body
+            output.write(RequestParser.CONTINUE);
+            output.commit();
           }
+          body = new RequestBody(new BodyInput(input), contentLength);
+          request.parsePOST(body, match);
+        } else {
+          AccessLog.error("Invalid request type.");
+          break;
         }
         
-        StringBuilder requestContent = new StringBuilder();
-        for (int i = 0; i < contentLength; i++) {
-          requestContent.append((char) reader.read());
+        CompletableFuture<Void> completion = request.getCompletion();
+        if (completion != null && !completion.isDone()) {
+          // release the thread, until the response is complete
+          suspended = true;
+          suspend(request, body, completion);
+          return;
         }
-        
-        request.parsePOST(requestContent.toString());
-      } else {
-        System.err.println("Invalid request type.");
+        keepAlive = complete(request, body);
       }
       
+    } catch (SocketTimeoutException ex) {
+      // idle keep-alive connection
+    } catch (RequestParser.ParseException ex) {
+      try {
+        output.write(RequestParser.errorResponse(ex.getStatus()));
+      } catch (IOException e) {
+        AccessLog.error("I/O Exception while rejecting request.");
+      }
+    } catch (IOException ex) {
+      AccessLog.error("I/O Exception while serving client.");
+    } finally {
+      if (!suspended) {
+        commit(output);
+        close();
+      }
+    }
+  }
+
+  /**
+   * Complete a served request.
+   * 
+   * @param  request The request.
+   * @param  body    Its body or null.
+   * @return         Whether the connection serves another request.
+   * @throws         IOException
+   */
+  private boolean complete(Request request, RequestBody body) throws IOException {
+    if (body != null) {
+      // skip what the callback didn't read, to get to the next request
+      body.discard();
+    }
+    
+    // answer pipelined requests together, once no further request is buffered
+    if (start == end && input.available() == 0) {
+      output.commit();
+    }
+    return request.isKeepAlive();
+  }
+
+  /**
+   * Receive WebSocket frames, until the socket is closed.
+   * Idle sockets are pinged after the keep-alive timeout and closed, if the ping isn't answered.
+   * 
+   * @param  request The upgrade request.
+   * @throws         IOException
+   */
+  private void serveWebSocket(Request request) throws IOException {
+    WebSocket webSocket = request.openWebSocket(new WebSocket.Transport() {
+      @Override
+      public void send(byte[] frame) throws IOException {
+        // called by the socket with its lock held, frames aren't interleaved
+        output.write(frame);
+        output.commit();
+      }
+
+      @Override
+      public void close() {
+        Connection.this.close();
+      }
+    });
+    WebSocketParser frames = new WebSocketParser();
+    try {
+      webSocket.opened();
+      while (webSocket.isConnected()) {
+        int frameLength;
+        Runnable message;
+        try {
+          frameLength = frames.parse(buffer, start, end - start, webSocket.getMaxMessageSize());
+          if (frameLength < 0) {
+            try {
+              if (!fill(input)) {
+                break;
+              }
+            } catch (SocketTimeoutException ex) {
+              if (!webSocket.idle()) {
+                break;
+              }
+            }
+            continue;
+          }
+          message = webSocket.receive(frames, buffer);
+        } catch (WebSocketParser.ParseException ex) {
+          webSocket.fail(ex.getCode(), ex.getMessage());
+          break;
+        }
+        start += frameLength;
+        if (message != null) {
+          message.run();
+        }
+      }
+    } catch (IOException ex) {
+      // closed by the socket, e.g. after a close frame
+      if (webSocket.isConnected()) {
+        throw ex;
+      }
+    } finally {
+      webSocket.terminated();
+    }
+  }
+
+  /**
+   * Serve the connection as HTTP/2, until it's closed.
+   * This thread reads the frames, the streams are served by workers or their own threads.
+   * 
+   * @param  requestLine Request line of an upgrade request or null (prior knowledge).
+   * @param  headers     Headers of the upgrade request.
+   * @param  settings    Client settings of the upgrade request.
+   * @throws             IOException
+   */
+  private void serveHttp2(String[] requestLine, Headers headers, byte[] settings) throws IOException {
+    final Thread reader = Thread.currentThread();
+    Http2Connection http2 = new Http2Connection(server, new Http2Connection.Transport() {
+      @Override
+      public void send(byte[] bytes, int offset, int length) throws IOException {
+        output.write(bytes, offset, length);
+      }
+
+      @Override
+      public boolean flush() throws IOException {
+        output.commit();
+        return true;
+      }
+
+      @Override
+      public void close() {
+        commit(output);
+        Connection.this.close();
+      }
+
+      @Override
+      public boolean inReader() {
+        return Thread.currentThread() == reader;
+      }
+    }, new Executor() {
+      @Override
+      public void execute(Runnable stream) {
+        server.execute(stream);
+      }
+    });
+    http2.start();
+    if (requestLine != null) {
+      http2.upgrade(requestLine, headers, settings);
+    }
+    try {
+      while (http2.isOpen()) {
+        start += http2.receive(buffer, start, end - start);
+        if (!http2.isOpen()) {
+          break;
+        }
+        try {
+          if (!fill(input)) {
+            break;
+          }
+        } catch (SocketTimeoutException ex) {
+          // closed with GOAWAY, unless streams are active
+          http2.idle();
+        }
+      }
+    } catch (IOException ex) {
+      // closed by the connection, e.g. after GOAWAY
+      if (http2.isOpen()) {
+        throw ex;
+      }
+    } finally {
+      http2.closed();
+    }
+  }
+
+  /**
+   * Wait for an asynchronous response without a thread.
+   * The connection is dispatched again, once the response is complete.
+   * 
+   * @param request    The request.
+   * @param body       Its body or null.
+   * @param completion Completes after the response has been written.
+   */
+  private void suspend(Request request, RequestBody body, CompletableFuture<Void> completion) {
+    pending = request;
+    pendingBody = body;
+    completion.whenComplete(new BiConsumer<Void, Throwable>() {
+      @Override
+      public void accept(Void result, Throwable failure) {
+        // send the response, even if no worker is free to resume
+        commit(output);
+        server.resume(Connection.this);
+      }
+    });
+  }
+
+  /**
+   * Reject the connection with 503 Service Unavailable.
+   * Used if the server is too busy to serve it.
+   */
+  public void reject() {
+    try {
+      socket.getOutputStream().write(SERVICE_UNAVAILABLE);
     } catch (IOException ex) {
-      System.out.println("I/O Exception while serving client.");
+      AccessLog.error("I/O Exception while rejecting client.");
     } finally {
+      close();
+    }
+  }
+
+  /**
+   * Close the connection socket.
+   */
+  public void close() {
+    try {
+      socket.close();
+    } catch (IOException ex) {
+      AccessLog.error("I/O Exception while closing socket.");
+    }
+  }
+
+  /**
+   * Write remaining responses, before the connection is closed.
+   * 
+   * @param output The connection output or null.
+   */
+  private void commit(ConnectionOutput output) {
+    if (output != null && !socket.isClosed()) {
       try {
-        socket.close();
+        output.commit();
       } catch (IOException ex) {
-        System.err.println("I/O Exception while closing socket.");
+        AccessLog.error("I/O Exception while writing response.");
       }
     }
   }
 
+  /**
+   * Read more bytes into the input buffer.
+   * Makes room by discarding processed bytes or growing the buffer.
+   * 
+   * @param  input The socket input.
+   * @return       False, if the stream ended.
+   * @throws       IOException
+   */
+  private boolean fill(InputStream input) throws IOException {
+    if (start == end) {
+      start = 0;
+      end = 0;
+    } else if (end == buffer.length) {
+      if (start > 0) {
+        System.arraycopy(buffer, start, buffer, 0, end - start);
+        end -= start;
+        start = 0;
+      } else {
+        // the parser enforces the header size limit
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+    }
+    int count = input.read(buffer, end, buffer.length - end);
+    if (count < 0) {
+      return false;
+    }
+    end += count;
+    return true;
+  }
+
+  /**
+   * Request body source.
+   * Returns the bytes received with the header first, then reads from the socket.
+   */
+  private class BodyInput extends InputStream {
+
+    private final InputStream input;
+
+    BodyInput(InputStream input) {
+      this.input = input;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (start < end) {
+        return buffer[start++] & 0xFF;
+      }
+      return input.read();
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (start < end) {
+        int count = Math.min(length, end - start);
+        System.arraycopy(buffer, start, bytes, offset, count);
+        start += count;
+        return count;
+      }
+      return input.read(bytes, offset, length);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (end - start) + input.available();
+    }
+
+  }
+
 }
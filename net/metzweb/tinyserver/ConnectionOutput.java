@@ -0,0 +1,261 @@
+package net.metzweb.tinyserver;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+import net.metzweb.tinyserver.response.Abortable;
+import net.metzweb.tinyserver.response.Committable;
+import net.metzweb.tinyserver.response.FileTransfer;
+
+/**
+ * Buffered connection output.
+ * Collects responses and writes them with as few socket writes as possible:
+ * flush() is deferred, until the connection commits the buffered responses.
+ * Sockets with a channel are written through the channel: the channel streams
+ * of Java 8 - 12 share a lock with timed reads, so writes from other threads
+ * (WebSocket messages, HTTP/2 streams) would wait for the reader.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class ConnectionOutput extends OutputStream implements FileTransfer, Committable, Abortable {
+
+  /**
+   * Buffer size. Larger responses are written in several parts.
+   */
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private final Socket socket;
+  private final OutputStream socketOutput;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int count;
+
+  /**
+   * Socket channel for writes and zero-copy file transfers, if available.
+   */
+  private final SocketChannel channel;
+
+  /**
+   * Longest pause, while the channel doesn't accept bytes.
+   */
+  private static final long MAX_BACKOFF_NANOS = 10_000_000;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param  socket The connection socket.
+   * @throws        IOException
+   */
+  ConnectionOutput(Socket socket) throws IOException {
+    this.socket = socket;
+    this.channel = socket.getChannel();
+    this.socketOutput = channel == null ? socket.getOutputStream() : null;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (count == buffer.length) {
+      drain();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    if (length >= buffer.length) {
+      // too large to buffer, write it directly
+      if (channel != null) {
+        gather(ByteBuffer.wrap(bytes, offset, length));
+      } else {
+        drain();
+        socketOutput.write(bytes, offset, length);
+      }
+      return;
+    }
+    if (length > buffer.length - count) {
+      drain();
+    }
+    System.arraycopy(bytes, offset, buffer, count, length);
+    count += length;
+  }
+
+  /**
+   * Send a file region with FileChannel.transferTo,
+   * or in buffer sized chunks, if the socket has no channel.
+   * 
+   * @param  file     The file.
+   * @param  position Offset of the first byte.
+   * @param  count    Number of bytes.
+   * @throws          IOException
+   */
+  @Override
+  public void transferFile(File file, long position, long count) throws IOException {
+    drain();
+    try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long end = position + count;
+      int idle = 0;
+      while (position < end) {
+        long transferred;
+        if (channel != null) {
+          transferred = fileChannel.transferTo(position, end - position, channel);
+          if (transferred == 0 && position < fileChannel.size()) {
+            // the channel doesn't accept bytes, see writeFully()
+            backoff(++idle);
+            continue;
+          }
+          idle = 0;
+        } else {
+          ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position));
+          transferred = Math.max(fileChannel.read(chunk, position), 0);
+          socketOutput.write(buffer, 0, chunk.position());
+        }
+        if (transferred <= 0) {
+          throw new EOFException("File shorter than expected: " + file);
+        }
+        position += transferred;
+      }
+    }
+  }
+
+  /**
+   * Send buffered content, through the socket channel if available.
+   * 
+   * @param  content The content (read mode).
+   * @throws         IOException
+   */
+  @Override
+  public void transferBuffer(ByteBuffer content) throws IOException {
+    ByteBuffer view = content.duplicate();
+    if (view.hasArray()) {
+      write(view.array(), view.arrayOffset() + view.position(), view.remaining());
+      return;
+    }
+    if (channel != null) {
+      gather(view);
+    } else {
+      drain();
+      while (view.hasRemaining()) {
+        int length = Math.min(buffer.length, view.remaining());
+        view.get(buffer, 0, length);
+        socketOutput.write(buffer, 0, length);
+      }
+    }
+  }
+
+  /**
+   * Deferred until commit(), so responses can be coalesced.
+   */
+  @Override
+  public void flush() {
+  }
+
+  /**
+   * Write all buffered responses to the socket.
+   * 
+   * @throws IOException
+   */
+  @Override
+  public void commit() throws IOException {
+    drain();
+    if (socketOutput != null) {
+      socketOutput.flush();
+    }
+  }
+
+  /**
+   * Commit buffered responses. The socket stays open.
+   * 
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    commit();
+  }
+
+  /**
+   * Close the socket, e.g. for a client that doesn't read.
+   * Can be called by any thread, a blocked write fails.
+   */
+  @Override
+  public void abort() {
+    try {
+      socket.close();
+    } catch (IOException ex) {
+      AccessLog.error("I/O Exception while closing socket.");
+    }
+  }
+
+  /**
+   * Write the buffer content and a large part with one gathering write,
+   * e.g. a response header and its body.
+   * 
+   * @param  content The part to send after the buffer (read mode).
+   * @throws         IOException
+   */
+  private void gather(ByteBuffer content) throws IOException {
+    ByteBuffer[] parts = {ByteBuffer.wrap(buffer, 0, count), content};
+    count = 0;
+    writeFully(parts);
+  }
+
+  /**
+   * Write buffers to the channel.
+   * Older JDKs switch a channel to non-blocking mode during timed reads,
+   * a write then may not make progress and is retried after a pause.
+   * 
+   * @param  parts The buffers (read mode).
+   * @throws       IOException
+   */
+  private void writeFully(ByteBuffer[] parts) throws IOException {
+    ByteBuffer last = parts[parts.length - 1];
+    int idle = 0;
+    while (last.hasRemaining()) {
+      if (channel.write(parts) > 0) {
+        idle = 0;
+      } else {
+        backoff(++idle);
+      }
+    }
+  }
+
+  /**
+   * Pause before the next write attempt, longer with every attempt.
+   * 
+   * @param attempt Number of attempts without progress.
+   */
+  private static void backoff(int attempt) {
+    if (attempt < 10) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(Math.min(1000L << Math.min(attempt - 10, 20), MAX_BACKOFF_NANOS));
+    }
+  }
+
+  /**
+   * Write the buffer content to the socket.
+   * 
+   * @throws IOException
+   */
+  private void drain() throws IOException {
+    if (count > 0) {
+      if (channel != null) {
+        writeFully(new ByteBuffer[] {ByteBuffer.wrap(buffer, 0, count)});
+      } else {
+        socketOutput.write(buffer, 0, count);
+      }
+      count = 0;
+    }
+  }
+
+}
@@ -0,0 +1,32 @@
+package net.metzweb.tinyserver;
+
+/**
+ * Execution mode.
+ * Defines on which kind of thread connections and their callbacks are executed.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public enum ExecutionMode {
+
+  /**
+   * Platform threads: a thread per connection or a bounded worker pool.
+   */
+  BLOCKING,
+
+  /**
+   * A virtual thread per connection (requires Java 21+).
+   */
+  VIRTUAL,
+
+  /**
+   * Non-blocking selector event loops.
+   * Callbacks run on the worker pool, if set, otherwise on the event loop.
+   */
+  NIO
+
+}
@@ -0,0 +1,149 @@
+package net.metzweb.tinyserver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request headers.
+ * Compact table over the raw header bytes of a request: names and values
+ * are only decoded when they're accessed, names are matched case-insensitively.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public final class Headers {
+
+  /**
+   * Request without headers.
+   */
+  static final Headers EMPTY = new Headers(new byte[0], new int[0], 0);
+
+  /**
+   * Raw header block.
+   */
+  private final byte[] bytes;
+
+  /**
+   * Per header: name start, name end, value start, value end.
+   */
+  private final int[] fields;
+  private final int size;
+
+  /**
+   * Decoded values, created on first access.
+   */
+  private String[] values;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param bytes  Raw header block.
+   * @param fields Per header: name start, name end, value start, value end.
+   * @param size   Number of headers.
+   */
+  Headers(byte[] bytes, int[] fields, int size) {
+    this.bytes = bytes;
+    this.fields = fields;
+    this.size = size;
+  }
+
+  /**
+   * Get a header value.
+   * Repeated headers are combined, separated by commas.
+   * 
+   * @param  name Header name, case-insensitive, e.g. Content-Length
+   * @return      The value or null, if the header is missing.
+   */
+  public String get(String name) {
+    String value = null;
+    for (int i = 0; i < size; i++) {
+      if (nameEquals(i, name)) {
+        value = (value == null) ? value(i) : value + ", " + value(i);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Whether a header is present.
+   * 
+   * @param  name Header name, case-insensitive.
+   * @return      Whether it's present.
+   */
+  public boolean contains(String name) {
+    for (int i = 0; i < size; i++) {
+      if (nameEquals(i, name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Number of header lines.
+   * 
+   * @return Header count.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Header name by position.
+   * 
+   * @param  index Position, in request order.
+   * @return       The name, as sent by the client.
+   */
+  public String name(int index) {
+    int start = fields[index * 4];
+    return new String(bytes, start, fields[index * 4 + 1] - start, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Header value by position.
+   * 
+   * @param  index Position, in request order.
+   * @return       The value.
+   */
+  public String value(int index) {
+    if (values == null) {
+      values = new String[size];
+    }
+    if (values[index] == null) {
+      int start = fields[index * 4 + 2];
+      values[index] = new String(bytes, start, fields[index * 4 + 3] - start, StandardCharsets.UTF_8);
+    }
+    return values[index];
+  }
+
+  /**
+   * Compare a header name without decoding it.
+   * 
+   * @param  index Position of the header.
+   * @param  name  Name to compare with.
+   * @return       Whether the names are equal, ignoring case.
+   */
+  private boolean nameEquals(int index, String name) {
+    int start = fields[index * 4];
+    int length = fields[index * 4 + 1] - start;
+    if (length != name.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      int a = bytes[start + i];
+      int b = name.charAt(i);
+      if (a != b && toLower(a) != toLower(b)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int toLower(int c) {
+    return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+  }
+
+}
@@ -0,0 +1,628 @@
+package net.metzweb.tinyserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * HPACK header compression (RFC 7541) for HTTP/2.
+ * The decoder reads the header blocks of a client, the encoder compresses
+ * response headers with the static table, a dynamic table and Huffman coding.
+ * Header names and values are handled as raw octets.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+final class Hpack {
+
+  /**
+   * Dynamic table size, both directions (SETTINGS_HEADER_TABLE_SIZE default).
+   */
+  static final int TABLE_SIZE = 4096;
+
+  /**
+   * Size overhead of a table entry.
+   */
+  private static final int ENTRY_OVERHEAD = 32;
+
+  /**
+   * Static table, index 1 to 61.
+   */
+  private static final String[][] STATIC_TABLE = {
+    {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+    {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+    {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+    {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+    {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+    {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+    {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+    {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+    {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+    {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+    {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+    {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+    {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+    {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+    {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+    {"www-authenticate", ""}
+  };
+
+  /**
+   * Static table entries as octets.
+   */
+  private static final byte[][] STATIC_NAMES = new byte[STATIC_TABLE.length][];
+  private static final byte[][] STATIC_VALUES = new byte[STATIC_TABLE.length][];
+
+  /**
+   * Static table lookup for the encoder: name -> first index, name + value -> index.
+   */
+  private static final HashMap<String, Integer> STATIC_NAME_INDEX = new HashMap<>();
+  private static final HashMap<String, Integer> STATIC_FIELD_INDEX = new HashMap<>();
+
+  /**
+   * Headers, whose values change with every response: not worth a table entry.
+   */
+  private static final List<String> UNINDEXED = Arrays.asList(
+      "content-length", "content-range", "date", "etag", "expires", "last-modified", "location", "set-cookie", "age");
+
+  /**
+   * Huffman code (Appendix B) of every octet and EOS (256): code and bit length.
+   */
+  private static final int[] HUFFMAN_CODES = {
+    0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+    0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+    0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+    0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+    0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+    0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+    0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+    0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+    0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+    0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+    0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+    0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+    0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+    0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+    0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+    0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+    0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+    0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+    0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+    0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+    0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+    0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+    0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+    0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+    0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+    0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+    0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+    0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+    0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+    0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+    0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+    0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+    0x3fffffff
+  };
+
+  private static final byte[] HUFFMAN_LENGTHS = {
+    13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+    28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+    6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+    5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+    13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+    7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+    15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+    6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+    20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+    24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+    22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+    21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+    26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+    19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+    20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+    26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+    30
+  };
+
+  /**
+   * Huffman decoding tree. Per node the children for bit 0 and 1:
+   * a node index or a symbol, stored as -(symbol + 1).
+   */
+  private static final int[] HUFFMAN_TREE;
+
+  static {
+    for (int i = 0; i < STATIC_TABLE.length; i++) {
+      STATIC_NAMES[i] = STATIC_TABLE[i][0].getBytes(StandardCharsets.ISO_8859_1);
+      STATIC_VALUES[i] = STATIC_TABLE[i][1].getBytes(StandardCharsets.ISO_8859_1);
+      if (!STATIC_NAME_INDEX.containsKey(STATIC_TABLE[i][0])) {
+        STATIC_NAME_INDEX.put(STATIC_TABLE[i][0], i + 1);
+      }
+      if (!STATIC_TABLE[i][1].isEmpty()) {
+        STATIC_FIELD_INDEX.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+      }
+    }
+
+    // 257 leaves need 256 inner nodes
+    int[] tree = new int[256 * 2];
+    int nodes = 1;
+    for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+      int code = HUFFMAN_CODES[symbol];
+      int node = 0;
+      for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+        int child = node * 2 + ((code >>> bit) & 1);
+        if (bit == 0) {
+          tree[child] = -(symbol + 1);
+        } else {
+          if (tree[child] == 0) {
+            tree[child] = nodes++;
+          }
+          node = tree[child];
+        }
+      }
+    }
+    HUFFMAN_TREE = tree;
+  }
+
+  private Hpack() {
+  }
+
+  /**
+   * Header block decoder of a connection.
+   * Blocks have to be decoded in the order they're received.
+   */
+  static class Decoder {
+
+    private final DynamicTable table = new DynamicTable(TABLE_SIZE);
+
+    /**
+     * Block being decoded.
+     */
+    private byte[] block;
+    private int position;
+    private int end;
+
+    /**
+     * Decode a header block.
+     * 
+     * @param  bytes  The block.
+     * @param  offset Start of the block.
+     * @param  length Block length.
+     * @return        Names and values, alternating, in block order.
+     * @throws        CompressionException If the block is malformed.
+     */
+    List<byte[]> decode(byte[] bytes, int offset, int length) throws CompressionException {
+      block = bytes;
+      position = offset;
+      end = offset + length;
+      ArrayList<byte[]> fields = new ArrayList<>();
+      boolean fieldDecoded = false;
+      while (position < end) {
+        int first = block[position] & 0xFF;
+        if ((first & 0x80) != 0) {
+          // indexed field
+          int index = readInt(7);
+          fields.add(name(index));
+          fields.add(value(index));
+          fieldDecoded = true;
+        } else if ((first & 0xE0) == 0x20) {
+          // dynamic table size update, only at the start of a block
+          int size = readInt(5);
+          if (fieldDecoded || size > TABLE_SIZE) {
+            throw new CompressionException("Invalid table size update.");
+          }
+          table.setMaxSize(size);
+        } else {
+          // literal: with incremental indexing (01), without (0000) or never indexed (0001)
+          boolean indexed = (first & 0xC0) == 0x40;
+          int index = readInt(indexed ? 6 : 4);
+          byte[] name = (index == 0) ? readString() : name(index);
+          byte[] value = readString();
+          if (indexed) {
+            table.add(name, value);
+          }
+          fields.add(name);
+          fields.add(value);
+          fieldDecoded = true;
+        }
+      }
+      block = null;
+      return fields;
+    }
+
+    private byte[] name(int index) throws CompressionException {
+      if (index > 0 && index <= STATIC_TABLE.length) {
+        return STATIC_NAMES[index - 1];
+      }
+      return table.entry(index - STATIC_TABLE.length - 1)[0];
+    }
+
+    private byte[] value(int index) throws CompressionException {
+      if (index > 0 && index <= STATIC_TABLE.length) {
+        return STATIC_VALUES[index - 1];
+      }
+      return table.entry(index - STATIC_TABLE.length - 1)[1];
+    }
+
+    /**
+     * Read an integer with an N-bit prefix.
+     * 
+     * @param  prefix Number of prefix bits.
+     * @return        The integer.
+     * @throws        CompressionException If it's truncated or too large.
+     */
+    private int readInt(int prefix) throws CompressionException {
+      int max = (1 << prefix) - 1;
+      int value = block[position++] & max;
+      if (value < max) {
+        return value;
+      }
+      for (int shift = 0; shift <= 21; shift += 7) {
+        if (position == end) {
+          throw new CompressionException("Truncated integer.");
+        }
+        int b = block[position++] & 0xFF;
+        value += (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new CompressionException("Integer too large.");
+    }
+
+    /**
+     * Read a string literal, Huffman coded or raw.
+     * 
+     * @return The octets.
+     * @throws CompressionException If it's truncated or the Huffman code is invalid.
+     */
+    private byte[] readString() throws CompressionException {
+      if (position == end) {
+        throw new CompressionException("Truncated string.");
+      }
+      boolean huffman = (block[position] & 0x80) != 0;
+      int length = readInt(7);
+      if (length > end - position) {
+        throw new CompressionException("Truncated string.");
+      }
+      int start = position;
+      position += length;
+      if (huffman) {
+        return decodeHuffman(block, start, length);
+      }
+      return Arrays.copyOfRange(block, start, start + length);
+    }
+
+  }
+
+  /**
+   * Header block encoder of a connection.
+   * Blocks have to be sent in the order they're encoded.
+   */
+  static class Encoder {
+
+    private final DynamicTable table = new DynamicTable(TABLE_SIZE);
+
+    /**
+     * Table size changes, that haven't been signaled yet, or -1.
+     */
+    private int minSizeUpdate = -1;
+    private int sizeUpdate = -1;
+
+    /**
+     * Apply the SETTINGS_HEADER_TABLE_SIZE of the client.
+     * The new size is signaled at the start of the next block.
+     * 
+     * @param size Table size in bytes, larger sizes are capped.
+     */
+    void setMaxTableSize(int size) {
+      size = Math.min(size, TABLE_SIZE);
+      minSizeUpdate = (minSizeUpdate < 0) ? size : Math.min(minSizeUpdate, size);
+      sizeUpdate = size;
+    }
+
+    /**
+     * Encode a header block.
+     * 
+     * @param  fields Names (lowercase) and values, alternating.
+     * @return        The block.
+     */
+    byte[] encode(List<String> fields) {
+      Block out = new Block();
+      if (sizeUpdate >= 0) {
+        // the smallest size in between has to be signaled first
+        if (minSizeUpdate < sizeUpdate) {
+          table.setMaxSize(minSizeUpdate);
+          out.writeInt(0x20, 5, minSizeUpdate);
+        }
+        table.setMaxSize(sizeUpdate);
+        out.writeInt(0x20, 5, sizeUpdate);
+        minSizeUpdate = -1;
+        sizeUpdate = -1;
+      }
+      for (int i = 0; i + 1 < fields.size(); i += 2) {
+        encodeField(out, fields.get(i), fields.get(i + 1));
+      }
+      return out.toByteArray();
+    }
+
+    private void encodeField(Block out, String name, String value) {
+      Integer staticIndex = STATIC_FIELD_INDEX.get(name + '\0' + value);
+      if (staticIndex != null) {
+        out.writeInt(0x80, 7, staticIndex);
+        return;
+      }
+      byte[] nameBytes = name.getBytes(StandardCharsets.ISO_8859_1);
+      byte[] valueBytes = value.getBytes(StandardCharsets.ISO_8859_1);
+      int dynamicIndex = table.find(nameBytes, valueBytes);
+      if (dynamicIndex >= 0) {
+        out.writeInt(0x80, 7, STATIC_TABLE.length + 1 + dynamicIndex);
+        return;
+      }
+
+      int nameIndex = 0;
+      Integer staticName = STATIC_NAME_INDEX.get(name);
+      if (staticName != null) {
+        nameIndex = staticName;
+      } else {
+        int dynamicName = table.find(nameBytes, null);
+        if (dynamicName >= 0) {
+          nameIndex = STATIC_TABLE.length + 1 + dynamicName;
+        }
+      }
+      if (UNINDEXED.contains(name)) {
+        out.writeInt(0x00, 4, nameIndex);
+      } else {
+        out.writeInt(0x40, 6, nameIndex);
+        table.add(nameBytes, valueBytes);
+      }
+      if (nameIndex == 0) {
+        out.writeString(nameBytes);
+      }
+      out.writeString(valueBytes);
+    }
+
+  }
+
+  /**
+   * Dynamic table: a ring of entries, the newest has index 0.
+   */
+  private static class DynamicTable {
+
+    private byte[][][] entries = new byte[16][][];
+    private int oldest;
+    private int count;
+    private int size;
+    private int maxSize;
+
+    DynamicTable(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    /**
+     * Get an entry.
+     * 
+     * @param  index 0 for the newest entry.
+     * @return       Name and value.
+     * @throws       CompressionException If there's no such entry.
+     */
+    byte[][] entry(int index) throws CompressionException {
+      if (index < 0 || index >= count) {
+        throw new CompressionException("Invalid table index.");
+      }
+      return entries[(oldest + count - 1 - index) % entries.length];
+    }
+
+    /**
+     * Find an entry.
+     * 
+     * @param  name  Entry name.
+     * @param  value Entry value or null, to match the name only.
+     * @return       Index of the newest match or -1.
+     */
+    int find(byte[] name, byte[] value) {
+      for (int i = 0; i < count; i++) {
+        byte[][] entry = entries[(oldest + count - 1 - i) % entries.length];
+        if (Arrays.equals(entry[0], name) && (value == null || Arrays.equals(entry[1], value))) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Add an entry, evicting the oldest ones as needed.
+     * 
+     * @param name  Entry name.
+     * @param value Entry value.
+     */
+    void add(byte[] name, byte[] value) {
+      int entrySize = name.length + value.length + ENTRY_OVERHEAD;
+      if (entrySize > maxSize) {
+        // an entry larger than the table empties it
+        evict(0);
+        return;
+      }
+      evict(maxSize - entrySize);
+      if (count == entries.length) {
+        byte[][][] grown = new byte[entries.length * 2][][];
+        for (int i = 0; i < count; i++) {
+          grown[i] = entries[(oldest + i) % entries.length];
+        }
+        entries = grown;
+        oldest = 0;
+      }
+      entries[(oldest + count) % entries.length] = new byte[][] {name, value};
+      count++;
+      size += entrySize;
+    }
+
+    /**
+     * Max size Setter.
+     * 
+     * @param maxSize Table size in bytes.
+     */
+    void setMaxSize(int maxSize) {
+      this.maxSize = maxSize;
+      evict(maxSize);
+    }
+
+    /**
+     * Evict the oldest entries, until the table fits.
+     * 
+     * @param limit Maximum size in bytes.
+     */
+    private void evict(int limit) {
+      while (size > limit && count > 0) {
+        byte[][] entry = entries[oldest];
+        entries[oldest] = null;
+        oldest = (oldest + 1) % entries.length;
+        count--;
+        size -= entry[0].length + entry[1].length + ENTRY_OVERHEAD;
+      }
+    }
+
+  }
+
+  /**
+   * Growing output of the encoder.
+   */
+  private static class Block {
+
+    private byte[] bytes = new byte[256];
+    private int count;
+
+    void write(int b) {
+      if (count == bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      bytes[count++] = (byte) b;
+    }
+
+    /**
+     * Write an integer with an N-bit prefix.
+     * 
+     * @param pattern Bits of the first byte above the prefix.
+     * @param prefix  Number of prefix bits.
+     * @param value   The integer.
+     */
+    void writeInt(int pattern, int prefix, int value) {
+      int max = (1 << prefix) - 1;
+      if (value < max) {
+        write(pattern | value);
+        return;
+      }
+      write(pattern | max);
+      value -= max;
+      while (value >= 0x80) {
+        write((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      write(value);
+    }
+
+    /**
+     * Write a string literal, Huffman coded if that's shorter.
+     * 
+     * @param value The octets.
+     */
+    void writeString(byte[] value) {
+      long bits = 0;
+      for (byte b : value) {
+        bits += HUFFMAN_LENGTHS[b & 0xFF];
+      }
+      int huffmanLength = (int) ((bits + 7) / 8);
+      if (huffmanLength >= value.length) {
+        writeInt(0x00, 7, value.length);
+        for (byte b : value) {
+          write(b);
+        }
+        return;
+      }
+      writeInt(0x80, 7, huffmanLength);
+      long buffer = 0;
+      int buffered = 0;
+      for (byte b : value) {
+        int symbol = b & 0xFF;
+        buffer = (buffer << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+        buffered += HUFFMAN_LENGTHS[symbol];
+        while (buffered >= 8) {
+          buffered -= 8;
+          write((int) (buffer >>> buffered));
+        }
+      }
+      if (buffered > 0) {
+        // padded with the most significant bits of EOS
+        write((int) ((buffer << (8 - buffered)) | (0xFF >>> buffered)));
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, count);
+    }
+
+  }
+
+  /**
+   * Decode a Huffman coded string.
+   * 
+   * @param  bytes  Encoded octets.
+   * @param  offset Start of the string.
+   * @param  length Encoded length.
+   * @return        The decoded octets.
+   * @throws        CompressionException If the code contains EOS or invalid padding.
+   */
+  static byte[] decodeHuffman(byte[] bytes, int offset, int length) throws CompressionException {
+    byte[] decoded = new byte[length * 8 / 5 + 1];
+    int count = 0;
+    int node = 0;
+    // bits since the last symbol, all of them 1 so far
+    int padding = 0;
+    boolean ones = true;
+    for (int i = offset; i < offset + length; i++) {
+      int b = bytes[i] & 0xFF;
+      for (int bit = 7; bit >= 0; bit--) {
+        int set = (b >>> bit) & 1;
+        int next = HUFFMAN_TREE[node * 2 + set];
+        padding++;
+        ones &= (set == 1);
+        if (next < 0) {
+          int symbol = -next - 1;
+          if (symbol == 256) {
+            throw new CompressionException("EOS in Huffman code.");
+          }
+          decoded[count++] = (byte) symbol;
+          node = 0;
+          padding = 0;
+          ones = true;
+        } else {
+          node = next;
+        }
+      }
+    }
+    if (padding > 7 || !ones) {
+      throw new CompressionException("Invalid Huffman padding.");
+    }
+    return Arrays.copyOf(decoded, count);
+  }
+
+  /**
+   * Malformed header block, a connection error.
+   */
+  static class CompressionException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    CompressionException(String message) {
+      super(message);
+    }
+
+  }
+
+}
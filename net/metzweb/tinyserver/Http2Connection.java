@@ -0,0 +1,1424 @@
+package net.metzweb.tinyserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * HTTP/2 connection (RFC 7540) over cleartext TCP (h2c).
+ * Reads frames from the receive buffer of either engine and multiplexes the streams:
+ * every complete request is dispatched as its own Http2Stream to the route callbacks,
+ * their responses are sent as interleaved frames within the flow control windows.
+ * Engine-agnostic: the bytes are written by a Transport.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class Http2Connection {
+
+  /**
+   * Client connection preface, starts with the request line "PRI * HTTP/2.0".
+   */
+  static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Response to an accepted Upgrade: h2c request.
+   */
+  static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+      + "Connection: Upgrade\r\n"
+      + "Upgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Frame types.
+   */
+  static final int DATA = 0x0;
+  static final int HEADERS = 0x1;
+  static final int PRIORITY = 0x2;
+  static final int RST_STREAM = 0x3;
+  static final int SETTINGS = 0x4;
+  static final int PUSH_PROMISE = 0x5;
+  static final int PING = 0x6;
+  static final int GOAWAY = 0x7;
+  static final int WINDOW_UPDATE = 0x8;
+  static final int CONTINUATION = 0x9;
+
+  /**
+   * Frame flags.
+   */
+  static final int END_STREAM = 0x1;
+  static final int ACK = 0x1;
+  static final int END_HEADERS = 0x4;
+  static final int PADDED = 0x8;
+  static final int PRIORITY_FLAG = 0x20;
+
+  /**
+   * Error codes of RST_STREAM and GOAWAY.
+   */
+  static final int NO_ERROR = 0x0;
+  static final int PROTOCOL_ERROR = 0x1;
+  static final int INTERNAL_ERROR = 0x2;
+  static final int FLOW_CONTROL_ERROR = 0x3;
+  static final int STREAM_CLOSED = 0x5;
+  static final int FRAME_SIZE_ERROR = 0x6;
+  static final int REFUSED_STREAM = 0x7;
+  static final int CANCEL = 0x8;
+  static final int COMPRESSION_ERROR = 0x9;
+  static final int ENHANCE_YOUR_CALM = 0xB;
+
+  /**
+   * Setting identifiers.
+   */
+  private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  private static final int SETTINGS_ENABLE_PUSH = 0x2;
+  private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+  private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+  static final int FRAME_HEADER_LENGTH = 9;
+
+  /**
+   * Largest frame accepted from clients (the protocol default).
+   */
+  static final int MAX_FRAME_SIZE = 16384;
+
+  /**
+   * Maximum number of concurrent streams per connection.
+   */
+  static final int MAX_CONCURRENT_STREAMS = 100;
+
+  /**
+   * Initial flow control window of the protocol and its maximum.
+   */
+  private static final int DEFAULT_WINDOW = 65535;
+  private static final long MAX_WINDOW = Integer.MAX_VALUE;
+
+  /**
+   * Receive window of the connection and of every stream.
+   * Consumed bytes are acknowledged with WINDOW_UPDATE, once half of it is used.
+   */
+  static final int RECEIVE_WINDOW = 1024 * 1024;
+
+  /**
+   * A response writer waits, while more than this is waiting for its stream window
+   * or has been handed to the transport without being written.
+   */
+  private static final int MAX_PENDING = 256 * 1024;
+  private static final int MAX_UNSENT = 1024 * 1024;
+
+  /**
+   * Headers, that are specific to HTTP/1.x connections and malformed in HTTP/2.
+   */
+  static final List<String> CONNECTION_HEADERS = Arrays.asList(
+      "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+  private final TinyServer server;
+  private final Transport transport;
+
+  /**
+   * Runs complete requests.
+   */
+  private final Executor executor;
+
+  private final Hpack.Decoder decoder = new Hpack.Decoder();
+  private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+  /**
+   * Open and half-closed streams, by ID.
+   */
+  private final HashMap<Integer, Http2Stream> streams = new HashMap<>();
+  private int lastStreamId;
+
+  /**
+   * Streams with data, that may be sent as soon as their window allows it (round-robin).
+   */
+  private final ArrayDeque<Http2Stream> writable = new ArrayDeque<>();
+
+  private boolean prefaceReceived;
+  private boolean open = true;
+  private boolean goingAway;
+
+  /**
+   * Header block, that is continued by CONTINUATION frames.
+   */
+  private int headerStreamId;
+  private boolean headerEndStream;
+  private byte[] headerBlock = new byte[0];
+  private int headerBlockLength;
+
+  /**
+   * Send side: connection window, initial stream window and frame size of the client.
+   */
+  private long sendWindow = DEFAULT_WINDOW;
+  private int initialSendWindow = DEFAULT_WINDOW;
+  private int peerMaxFrameSize = MAX_FRAME_SIZE;
+
+  /**
+   * Receive side: remaining connection window and bytes to acknowledge.
+   */
+  private long receiveWindow = RECEIVE_WINDOW;
+  private int receiveUnacked;
+
+  /**
+   * Bytes handed to the transport, that haven't been written yet.
+   */
+  private long unsent;
+  private boolean unflushed;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param server    TinyServer instance.
+   * @param transport Writes to the connection.
+   * @param executor  Runs complete requests, may reject them.
+   */
+  Http2Connection(TinyServer server, Transport transport, Executor executor) {
+    this.server = server;
+    this.transport = transport;
+    this.executor = executor;
+  }
+
+  /**
+   * Whether a request line starts the connection preface (prior knowledge).
+   * 
+   * @param  requestLine e.g. [PRI, *, HTTP/2.0]
+   * @return             Whether the client speaks HTTP/2.
+   */
+  static boolean isPreface(String[] requestLine) {
+    return requestLine[0].equals("PRI") && requestLine[1].equals("*") && requestLine[2].equals("HTTP/2.0");
+  }
+
+  /**
+   * Check for an upgrade to h2c.
+   * Only GET requests are upgraded, so there's no request body to receive first.
+   * 
+   * @param  requestLine The request line.
+   * @param  headers     The request headers.
+   * @return             The SETTINGS payload of the HTTP2-Settings header
+   *                     or null, if it isn't a valid upgrade request.
+   */
+  static byte[] upgradeSettings(String[] requestLine, Headers headers) {
+    String upgrade = headers.get("Upgrade");
+    String settings = headers.get("HTTP2-Settings");
+    if (upgrade == null || settings == null || !requestLine[0].equals("GET") || !requestLine[2].equals("HTTP/1.1")) {
+      return null;
+    }
+    for (String protocol : upgrade.split(",")) {
+      if (protocol.trim().equalsIgnoreCase("h2c")) {
+        try {
+          byte[] payload = Base64.getUrlDecoder().decode(settings.trim());
+          return (payload.length % 6 == 0) ? payload : null;
+        } catch (IllegalArgumentException ex) {
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Send the server preface: settings and the connection window.
+   */
+  synchronized void start() {
+    try {
+      byte[] settings = new byte[18];
+      putSetting(settings, 0, SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS);
+      putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, RECEIVE_WINDOW);
+      putSetting(settings, 12, SETTINGS_MAX_HEADER_LIST_SIZE, RequestParser.MAX_HEADER_SIZE);
+      sendFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+      sendWindowUpdate(0, RECEIVE_WINDOW - DEFAULT_WINDOW);
+      flush();
+    } catch (IOException ex) {
+      fail();
+    }
+  }
+
+  /**
+   * Serve the request of an accepted upgrade as stream 1.
+   * It's complete, the client continues with the connection preface.
+   * 
+   * @param requestLine The request line.
+   * @param headers     The request headers.
+   * @param settings    The client's settings from the HTTP2-Settings header.
+   */
+  void upgrade(String[] requestLine, Headers headers, byte[] settings) {
+    // answered on stream 1, as HTTP/2.0
+    String[] line = {requestLine[0], requestLine[1], "HTTP/2.0"};
+    Http2Stream stream = new Http2Stream(this, 1, line, headers);
+    synchronized (this) {
+      try {
+        applySettings(settings, 0, settings.length);
+      } catch (IOException ex) {
+        goAway(ex);
+        return;
+      }
+      stream.sendWindow = initialSendWindow;
+      stream.remoteClosed = true;
+      streams.put(1, stream);
+      lastStreamId = 1;
+    }
+    dispatch(stream);
+  }
+
+  /**
+   * Process received frames.
+   * Complete requests are dispatched, after all frames have been processed.
+   * 
+   * @param  bytes  Receive buffer.
+   * @param  offset Start of the unprocessed bytes.
+   * @param  length Number of unprocessed bytes.
+   * @return        Number of consumed bytes, incomplete frames are left.
+   */
+  int receive(byte[] bytes, int offset, int length) {
+    ArrayList<Http2Stream> ready = new ArrayList<>();
+    int consumed = 0;
+    synchronized (this) {
+      try {
+        if (!prefaceReceived) {
+          int count = Math.min(length, PREFACE.length);
+          for (int i = 0; i < count; i++) {
+            if (bytes[offset + i] != PREFACE[i]) {
+              throw new Http2Exception(0, PROTOCOL_ERROR, "Invalid connection preface.");
+            }
+          }
+          if (count < PREFACE.length) {
+            return 0;
+          }
+          prefaceReceived = true;
+          consumed = PREFACE.length;
+        }
+        while (open && length - consumed >= FRAME_HEADER_LENGTH) {
+          int position = offset + consumed;
+          int frameLength = readInt24(bytes, position);
+          if (frameLength > MAX_FRAME_SIZE) {
+            throw new Http2Exception(0, FRAME_SIZE_ERROR, "Frame too large.");
+          }
+          if (length - consumed < FRAME_HEADER_LENGTH + frameLength) {
+            break;
+          }
+          int type = bytes[position + 3] & 0xFF;
+          int flags = bytes[position + 4] & 0xFF;
+          int streamId = readInt31(bytes, position + 5);
+          consumed += FRAME_HEADER_LENGTH + frameLength;
+          try {
+            frame(type, flags, streamId, bytes, position + FRAME_HEADER_LENGTH, frameLength, ready);
+          } catch (Http2Exception ex) {
+            if (ex.getStreamId() == 0) {
+              throw ex;
+            }
+            resetStream(ex.getStreamId(), ex.getCode());
+          }
+        }
+        flush();
+      } catch (Http2Exception ex) {
+        goAway(ex);
+        ready.clear();
+      } catch (IOException ex) {
+        fail();
+        ready.clear();
+      }
+    }
+    for (Http2Stream stream : ready) {
+      dispatch(stream);
+    }
+    return open ? consumed : length;
+  }
+
+  /**
+   * Whether the connection is open.
+   * 
+   * @return False, once it has been closed or is going away.
+   */
+  synchronized boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Called after the keep-alive timeout without received frames.
+   * Connections without streams are closed with GOAWAY.
+   * 
+   * @return Whether the connection stays open.
+   */
+  synchronized boolean idle() {
+    if (open && streams.isEmpty()) {
+      goAway(NO_ERROR, "Idle timeout.");
+    }
+    return open;
+  }
+
+  /**
+   * Called by the engine, once the transport has written everything handed over.
+   */
+  synchronized void drained() {
+    unsent = 0;
+    notifyAll();
+  }
+
+  /**
+   * Called by the engine, once the socket has been closed.
+   * Cancels all streams.
+   */
+  synchronized void closed() {
+    open = false;
+    for (Http2Stream stream : streams.values()) {
+      stream.reset = true;
+    }
+    streams.clear();
+    writable.clear();
+    notifyAll();
+  }
+
+  /**
+   * Server Getter.
+   * 
+   * @return TinyServer instance.
+   */
+  TinyServer getServer() {
+    return server;
+  }
+
+  /**
+   * Send response headers and data of a stream.
+   * Waits, while the client doesn't keep up, unless it's called by the reading thread.
+   * 
+   * @param  stream The stream.
+   * @param  head   ":status" and response headers (names and values) or null, if they've been sent.
+   * @param  bytes  Body data.
+   * @param  offset Offset of the data.
+   * @param  length Length of the data.
+   * @param  end    Whether it completes the response.
+   * @throws        IOException If the stream has been reset or the connection has been closed.
+   */
+  synchronized void write(Http2Stream stream, List<String> head, byte[] bytes, int offset, int length, boolean end) throws IOException {
+    if (!transport.inReader()) {
+      while (open && !stream.reset && (stream.pendingSize > MAX_PENDING || unsent > MAX_UNSENT)) {
+        try {
+          wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while sending response.");
+        }
+      }
+    }
+    if (!open) {
+      throw new IOException("Connection closed.");
+    }
+    if (stream.reset || stream.localClosed || stream.pendingEnd) {
+      throw new IOException("Stream closed.");
+    }
+    try {
+      if (head != null) {
+        sendHeaders(stream, head, end && length == 0);
+        if (end && length == 0) {
+          flush();
+          return;
+        }
+      }
+      if (length > 0) {
+        stream.pending.add(Arrays.copyOfRange(bytes, offset, offset + length));
+        stream.pendingSize += length;
+      }
+      stream.pendingEnd = end;
+      if (stream.pendingSize == 0 && !end) {
+        flush();
+        return;
+      }
+      if (!stream.queued) {
+        stream.queued = true;
+        writable.add(stream);
+      }
+      flushStreams();
+      flush();
+    } catch (IOException ex) {
+      fail();
+      throw ex;
+    }
+  }
+
+  /**
+   * Process a frame.
+   * 
+   * @param  type     Frame type.
+   * @param  flags    Frame flags.
+   * @param  streamId Stream ID or 0.
+   * @param  bytes    Receive buffer.
+   * @param  offset   Start of the payload.
+   * @param  length   Payload length.
+   * @param  ready    Collects complete requests.
+   * @throws          IOException
+   */
+  private void frame(int type, int flags, int streamId, byte[] bytes, int offset, int length, List<Http2Stream> ready) throws IOException {
+    if (headerStreamId != 0 && (type != CONTINUATION || streamId != headerStreamId)) {
+      throw new Http2Exception(0, PROTOCOL_ERROR, "Header block interrupted.");
+    }
+    switch (type) {
+      case DATA:
+        data(flags, streamId, bytes, offset, length, ready);
+        break;
+      case HEADERS:
+        headers(flags, streamId, bytes, offset, length, ready);
+        break;
+      case CONTINUATION:
+        if (headerStreamId == 0) {
+          throw new Http2Exception(0, PROTOCOL_ERROR, "Unexpected CONTINUATION.");
+        }
+        appendHeaderBlock(bytes, offset, length);
+        if ((flags & END_HEADERS) != 0) {
+          headerBlock(headerBlock, 0, headerBlockLength, ready);
+        }
+        break;
+      case PRIORITY:
+        // priorities are ignored, streams are served in order
+        if (streamId == 0) {
+          throw new Http2Exception(0, PROTOCOL_ERROR, "PRIORITY without stream.");
+        }
+        if (length != 5) {
+          throw new Http2Exception(streamId, FRAME_SIZE_ERROR, "Invalid PRIORITY frame.");
+        }
+        break;
+      case RST_STREAM:
+        if (streamId == 0 || streamId > lastStreamId) {
+          throw new Http2Exception(0, PROTOCOL_ERROR, "RST_STREAM on idle stream.");
+        }
+        if (length != 4) {
+          throw new Http2Exception(0, FRAME_SIZE_ERROR, "Invalid RST_STREAM frame.");
+        }
+        Http2Stream reset = streams.remove(streamId);
+        if (reset != null) {
+          cancel(reset);
+        }
+        break;
+      case SETTINGS:
+        settings(flags, streamId, bytes, offset, length);
+        break;
+      case PUSH_PROMISE:
+        throw new Http2Exception(0, PROTOCOL_ERROR, "Clients can't push.");
+      case PING:
+        if (streamId != 0) {
+          throw new Http2Exception(0, PROTOCOL_ERROR, "PING on a stream.");
+        }
+        if (length != 8) {
+          throw new Http2Exception(0, FRAME_SIZE_ERROR, "Invalid PING frame.");
+        }
+        if ((flags & ACK) == 0) {
+          sendFrame(PING, ACK, 0, bytes, offset, length);
+        }
+        break;
+      case GOAWAY:
+        if (streamId != 0) {
+          throw new Http2Exception(0, PROTOCOL_ERROR, "GOAWAY on a stream.");
+        }
+        if (length < 8) {
+          throw new Http2Exception(0, FRAME_SIZE_ERROR, "Invalid GOAWAY frame.");
+        }
+        // running streams are completed
+        goingAway = true;
+        if (streams.isEmpty()) {
+          goAway(NO_ERROR, "");
+        }
+        break;
+      case WINDOW_UPDATE:
+        windowUpdate(streamId, bytes, offset, length);
+        break;
+      default:
+        // unknown frame types are ignored
+        break;
+    }
+  }
+
+  /**
+   * Receive request body data.
+   * 
+   * @param  flags    Frame flags.
+   * @param  streamId Stream ID.
+   * @param  bytes    Receive buffer.
+   * @param  offset   Start of the payload.
+   * @param  length   Payload length, incl. padding.
+   * @param  ready    Collects complete requests.
+   * @throws          IOException
+   */
+  private void data(int flags, int streamId, byte[] bytes, int offset, int length, List<Http2Stream> ready) throws IOException {
+    if (streamId == 0 || streamId > lastStreamId) {
+      throw new Http2Exception(0, PROTOCOL_ERROR, "DATA on idle stream.");
+    }
+    // the whole frame counts against the windows, padding included
+    receiveWindow -= length;
+    if (receiveWindow < 0) {
+      throw new Http2Exception(0, FLOW_CONTROL_ERROR, "Connection window exceeded.");
+    }
+    receiveUnacked += length;
+    if (receiveUnacked >= RECEIVE_WINDOW / 2) {
+      sendWindowUpdate(0, receiveUnacked);
+      receiveWindow += receiveUnacked;
+      receiveUnacked = 0;
+    }
+
+    Http2Stream stream = streams.get(streamId);
+    if (stream == null) {
+      // reset by the server, frames in flight are ignored
+      return;
+    }
+    if (stream.remoteClosed) {
+      throw new Http2Exception(streamId, STREAM_CLOSED, "DATA after END_STREAM.");
+    }
+    stream.receiveWindow -= length;
+    if (stream.receiveWindow < 0) {
+      throw new Http2Exception(streamId, FLOW_CONTROL_ERROR, "Stream window exceeded.");
+    }
+    int start = offset;
+    int end = offset + length;
+    if ((flags & PADDED) != 0) {
+      int padLength = (length > 0) ? bytes[offset] & 0xFF : 0;
+      if (length == 0 || padLength >= length) {
+        throw new Http2Exception(0, PROTOCOL_ERROR, "Invalid padding.");
+      }
+      start++;
+      end -= padLength;
+    }
+
+    if (stream.status == null && stream.bodyLength + (end - start) > stream.maxBodySize) {
+      stream.status = "413 Payload Too Large";
+      reject(stream, stream.status);
+    }
+    if (stream.status == null) {
+      stream.appendBody(bytes, start, end - start);
+    }
+    if ((flags & END_STREAM) != 0) {
+      remoteClosed(stream, ready);
+    } else {
+      stream.receiveUnacked += length;
+      if (stream.receiveUnacked >= RECEIVE_WINDOW / 2) {
+        sendWindowUpdate(streamId, stream.receiveUnacked);
+        stream.receiveWindow += stream.receiveUnacked;
+        stream.receiveUnacked = 0;
+      }
+    }
+  }
+
+  /**
+   * Receive a HEADERS frame: a new request or trailers.
+   * 
+   * @param  flags    Frame flags.
+   * @param  streamId Stream ID.
+   * @param  bytes    Receive buffer.
+   * @param  offset   Start of the payload.
+   * @param  length   Payload length.
+   * @param  ready    Collects complete requests.
+   * @throws          IOException
+   */
+  private void headers(int flags, int streamId, byte[] bytes, int offset, int length, List<Http2Stream> ready) throws IOException {
+    if (streamId == 0 || (streamId & 1) == 0) {
+      throw new Http2Exception(0, PROTOCOL_ERROR, "Invalid stream ID.");
+    }
+    int start = offset;
+    int end = offset + length;
+    if ((flags & PADDED) != 0) {
+      int padLength = (length > 0) ? bytes[offset] & 0xFF : 0;
+      if (length == 0 || padLength >= length) {
+        throw new Http2Exception(0, PROTOCOL_ERROR, "Invalid padding.");
+      }
+      start++;
+      end -= padLength;
+    }
+    if ((flags & PRIORITY_FLAG) != 0) {
+      if (end - start < 5) {
+        throw new Http2Exception(0, FRAME_SIZE_ERROR, "Invalid HEADERS frame.");
+      }
+      start += 5;
+    }
+
+    headerStreamId = streamId;
+    headerEndStream = (flags & END_STREAM) != 0;
+    if ((flags & END_HEADERS) != 0) {
+      // decoded right from the receive buffer
+      headerBlock(bytes, start, end - start, ready);
+    } else {
+      headerBlockLength = 0;
+      appendHeaderBlock(bytes, start, end - start);
+    }
+  }
+
+  /**
+   * Collect a header block, that spans several frames.
+   * 
+   * @param  bytes  Receive buffer.
+   * @param  offset Start of the fragment.
+   * @param  length Fragment length.
+   * @throws        Http2Exception If the block exceeds the header size limit.
+   */
+  private void appendHeaderBlock(byte[] bytes, int offset, int length) throws Http2Exception {
+    if (headerBlockLength + length > RequestParser.MAX_HEADER_SIZE) {
+      throw new Http2Exception(0, ENHANCE_YOUR_CALM, "Header block too large.");
+    }
+    if (headerBlockLength + length > headerBlock.length) {
+      headerBlock = Arrays.copyOf(headerBlock, Math.max(headerBlockLength + length, headerBlock.length * 2));
+    }
+    System.arraycopy(bytes, offset, headerBlock, headerBlockLength, length);
+    headerBlockLength += length;
+  }
+
+  /**
+   * Decode a complete header block and open its stream.
+   * 
+   * @param  bytes  The block.
+   * @param  offset Start of the block.
+   * @param  length Block length.
+   * @param  ready  Collects complete requests.
+   * @throws        IOException
+   */
+  private void headerBlock(byte[] bytes, int offset, int length, List<Http2Stream> ready) throws IOException {
+    int streamId = headerStreamId;
+    boolean endStream = headerEndStream;
+    headerStreamId = 0;
+    headerBlockLength = 0;
+    List<byte[]> fields;
+    try {
+      // always decoded, the tables of both sides have to stay in sync
+      fields = decoder.decode(bytes, offset, length);
+    } catch (Hpack.CompressionException ex) {
+      throw new Http2Exception(0, COMPRESSION_ERROR, ex.getMessage());
+    }
+
+    Http2Stream stream = streams.get(streamId);
+    if (stream != null) {
+      // trailers complete the request, their fields are ignored
+      if (stream.remoteClosed) {
+        throw new Http2Exception(streamId, STREAM_CLOSED, "HEADERS after END_STREAM.");
+      }
+      if (!endStream) {
+        throw new Http2Exception(streamId, PROTOCOL_ERROR, "Trailers without END_STREAM.");
+      }
+      remoteClosed(stream, ready);
+      return;
+    }
+    if (streamId <= lastStreamId) {
+      // reset by the server before
+      return;
+    }
+    lastStreamId = streamId;
+    if (goingAway) {
+      return;
+    }
+    if (streams.size() >= MAX_CONCURRENT_STREAMS) {
+      throw new Http2Exception(streamId, REFUSED_STREAM, "Too many streams.");
+    }
+    stream = request(streamId, fields);
+    stream.sendWindow = initialSendWindow;
+    streams.put(streamId, stream);
+    if (stream.status != null) {
+      reject(stream, stream.status);
+    }
+    if (endStream) {
+      remoteClosed(stream, ready);
+    }
+  }
+
+  /**
+   * Create a stream from the decoded header fields of a request.
+   * 
+   * @param  streamId Stream ID.
+   * @param  fields   Names and values, alternating.
+   * @return          The stream, rejected with a status, if the request can't be served.
+   * @throws          Http2Exception If the request is malformed.
+   */
+  private Http2Stream request(int streamId, List<byte[]> fields) throws Http2Exception {
+    String method = null;
+    String path = null;
+    String scheme = null;
+    String authority = null;
+    boolean regular = false;
+    int listSize = 0;
+
+    // one block for all regular headers, like the HTTP/1.1 parser creates it
+    HeaderBlock block = new HeaderBlock();
+    StringBuilder cookie = null;
+    for (int i = 0; i + 1 < fields.size(); i += 2) {
+      byte[] name = fields.get(i);
+      byte[] value = fields.get(i + 1);
+      listSize += name.length + value.length + 32;
+      String nameString = new String(name, StandardCharsets.ISO_8859_1);
+      if (nameString.startsWith(":")) {
+        String valueString = new String(value, StandardCharsets.UTF_8);
+        if (regular) {
+          throw malformed(streamId);
+        } else if (nameString.equals(":method") && method == null) {
+          method = valueString;
+        } else if (nameString.equals(":path") && path == null) {
+          path = valueString;
+        } else if (nameString.equals(":scheme") && scheme == null) {
+          scheme = valueString;
+        } else if (nameString.equals(":authority") && authority == null) {
+          authority = valueString;
+        } else {
+          throw malformed(streamId);
+        }
+        continue;
+      }
+      regular = true;
+      if (!nameString.equals(nameString.toLowerCase(Locale.ENGLISH)) || CONNECTION_HEADERS.contains(nameString)
+          || (nameString.equals("te") && !new String(value, StandardCharsets.ISO_8859_1).equals("trailers"))) {
+        throw malformed(streamId);
+      }
+      if (nameString.equals("cookie")) {
+        // split cookies are joined with semicolons, not commas
+        String crumb = new String(value, StandardCharsets.ISO_8859_1);
+        cookie = (cookie == null) ? new StringBuilder(crumb) : cookie.append("; ").append(crumb);
+      } else {
+        block.add(name, value);
+      }
+    }
+    if (method == null || scheme == null || path == null || path.isEmpty()) {
+      throw malformed(streamId);
+    }
+    if (cookie != null) {
+      block.add("cookie", cookie.toString());
+    }
+    if (authority != null && !block.contains("host")) {
+      block.add("host", authority);
+    }
+
+    // served as HTTP/2.0: responses aren't chunked, the stream ends them
+    Http2Stream stream = new Http2Stream(this, streamId, new String[] {method, path, "HTTP/2.0"}, block.headers());
+    if (listSize > RequestParser.MAX_HEADER_SIZE || block.size() > RequestParser.MAX_HEADER_COUNT) {
+      stream.status = "431 Request Header Fields Too Large";
+    } else if (!method.equals("GET") && !method.equals("POST")) {
+      AccessLog.error("Invalid request type.");
+      stream.status = "501 Not Implemented";
+    } else {
+      try {
+        stream.expectedLength = stream.getHeaders().contains("Content-Length")
+            ? RequestParser.contentLength(stream.getHeaders()) : -1;
+      } catch (RequestParser.ParseException ex) {
+        throw malformed(streamId);
+      }
+      if (method.equals("POST")) {
+        stream.route = server.findRoute(path, true);
+        stream.maxBodySize = server.getMaxBodySize(stream.route);
+      }
+      if (stream.expectedLength > stream.maxBodySize) {
+        stream.status = "413 Payload Too Large";
+      }
+    }
+    return stream;
+  }
+
+  private static Http2Exception malformed(int streamId) {
+    return new Http2Exception(streamId, PROTOCOL_ERROR, "Malformed request.");
+  }
+
+  /**
+   * The client has sent the complete request.
+   * 
+   * @param  stream The stream.
+   * @param  ready  Collects complete requests.
+   * @throws        Http2Exception If the body doesn't match its Content-Length.
+   */
+  private void remoteClosed(Http2Stream stream, List<Http2Stream> ready) throws Http2Exception {
+    if (stream.status != null) {
+      // answered already, the rest of the body was discarded
+      stream.remoteClosed = true;
+      localClosed(stream);
+      return;
+    }
+    if (stream.expectedLength >= 0 && stream.expectedLength != stream.bodyLength) {
+      throw malformed(stream.getId());
+    }
+    stream.remoteClosed = true;
+    ready.add(stream);
+  }
+
+  /**
+   * Answer a request with an error status, without serving it.
+   * The rest of its body is discarded.
+   * 
+   * @param  stream The stream.
+   * @param  status Status line, e.g. 413 Payload Too Large
+   * @throws        IOException
+   */
+  private void reject(Http2Stream stream, String status) throws IOException {
+    List<String> head = Arrays.asList(":status", status.substring(0, 3),
+        "content-length", "0", "server", "TinyServer MetzWeb");
+    sendHeaders(stream, head, true);
+  }
+
+  /**
+   * Receive settings of the client and acknowledge them.
+   * 
+   * @param  flags    Frame flags.
+   * @param  streamId Stream ID, has to be 0.
+   * @param  bytes    Receive buffer.
+   * @param  offset   Start of the payload.
+   * @param  length   Payload length.
+   * @throws          IOException
+   */
+  private void settings(int flags, int streamId, byte[] bytes, int offset, int length) throws IOException {
+    if (streamId != 0) {
+      throw new Http2Exception(0, PROTOCOL_ERROR, "SETTINGS on a stream.");
+    }
+    if ((flags & ACK) != 0) {
+      if (length != 0) {
+        throw new Http2Exception(0, FRAME_SIZE_ERROR, "Invalid SETTINGS acknowledgement.");
+      }
+      return;
+    }
+    if (length % 6 != 0) {
+      throw new Http2Exception(0, FRAME_SIZE_ERROR, "Invalid SETTINGS frame.");
+    }
+    applySettings(bytes, offset, length);
+    sendFrame(SETTINGS, ACK, 0, bytes, offset, 0);
+    flushStreams();
+  }
+
+  /**
+   * Apply settings of the client.
+   * 
+   * @param  bytes  The settings.
+   * @param  offset Start of the settings.
+   * @param  length Length, a multiple of 6.
+   * @throws        Http2Exception If a value is invalid.
+   */
+  private void applySettings(byte[] bytes, int offset, int length) throws Http2Exception {
+    for (int i = offset; i + 6 <= offset + length; i += 6) {
+      int id = ((bytes[i] & 0xFF) << 8) | (bytes[i + 1] & 0xFF);
+      long value = readInt32(bytes, i + 2);
+      switch (id) {
+        case SETTINGS_HEADER_TABLE_SIZE:
+          encoder.setMaxTableSize((int) Math.min(value, Hpack.TABLE_SIZE));
+          break;
+        case SETTINGS_ENABLE_PUSH:
+          if (value > 1) {
+            throw new Http2Exception(0, PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH.");
+          }
+          break;
+        case SETTINGS_INITIAL_WINDOW_SIZE:
+          if (value > MAX_WINDOW) {
+            throw new Http2Exception(0, FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE.");
+          }
+          // applies to all streams, the windows may become negative
+          long delta = value - initialSendWindow;
+          for (Http2Stream stream : streams.values()) {
+            if (stream.sendWindow + delta > MAX_WINDOW) {
+              throw new Http2Exception(0, FLOW_CONTROL_ERROR, "Stream window too large.");
+            }
+            stream.sendWindow += delta;
+            if (delta > 0 && stream.pendingSize > 0 && !stream.queued) {
+              stream.queued = true;
+              writable.add(stream);
+            }
+          }
+          initialSendWindow = (int) value;
+          break;
+        case SETTINGS_MAX_FRAME_SIZE:
+          if (value < MAX_FRAME_SIZE || value > 0xFFFFFF) {
+            throw new Http2Exception(0, PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE.");
+          }
+          peerMaxFrameSize = (int) value;
+          break;
+        default:
+          // concurrent streams only limit server push, header list size is advisory
+          break;
+      }
+    }
+  }
+
+  /**
+   * Receive a window increment.
+   * 
+   * @param  streamId Stream ID or 0 for the connection.
+   * @param  bytes    Receive buffer.
+   * @param  offset   Start of the payload.
+   * @param  length   Payload length.
+   * @throws          IOException
+   */
+  private void windowUpdate(int streamId, byte[] bytes, int offset, int length) throws IOException {
+    if (length != 4) {
+      throw new Http2Exception(0, FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame.");
+    }
+    int increment = readInt31(bytes, offset);
+    if (streamId == 0) {
+      if (increment == 0 || sendWindow + increment > MAX_WINDOW) {
+        throw new Http2Exception(0, (increment == 0) ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR, "Invalid window increment.");
+      }
+      sendWindow += increment;
+    } else {
+      if (streamId > lastStreamId) {
+        throw new Http2Exception(0, PROTOCOL_ERROR, "WINDOW_UPDATE on idle stream.");
+      }
+      Http2Stream stream = streams.get(streamId);
+      if (stream == null) {
+        return;
+      }
+      if (increment == 0 || stream.sendWindow + increment > MAX_WINDOW) {
+        throw new Http2Exception(streamId, (increment == 0) ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR, "Invalid window increment.");
+      }
+      stream.sendWindow += increment;
+      if ((stream.pendingSize > 0 || stream.pendingEnd) && !stream.queued) {
+        stream.queued = true;
+        writable.add(stream);
+      }
+    }
+    flushStreams();
+  }
+
+  /**
+   * Send pending data of the writable streams, as far as the windows allow.
+   * Every stream sends one frame per round, so large responses don't block small ones.
+   * 
+   * @throws IOException
+   */
+  private void flushStreams() throws IOException {
+    boolean sent = false;
+    Http2Stream stream;
+    while ((stream = writable.peekFirst()) != null) {
+      long window = Math.min(sendWindow, stream.sendWindow);
+      int length = (int) Math.max(0, Math.min(Math.min(stream.pendingSize, peerMaxFrameSize), window));
+      if (stream.pendingSize > 0 && length == 0) {
+        if (stream.sendWindow > 0) {
+          // connection window exhausted
+          break;
+        }
+        // continued by its WINDOW_UPDATE
+        writable.pollFirst();
+        stream.queued = false;
+        continue;
+      }
+      writable.pollFirst();
+      boolean end = stream.pendingEnd && length == stream.pendingSize;
+      sendData(stream, length, end);
+      sendWindow -= length;
+      stream.sendWindow -= length;
+      sent = true;
+      if (end) {
+        stream.queued = false;
+        localClosed(stream);
+      } else if (stream.pendingSize > 0) {
+        writable.addLast(stream);
+      } else {
+        stream.queued = false;
+      }
+    }
+    if (sent) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Send a DATA frame from the pending data of a stream.
+   * 
+   * @param  stream The stream.
+   * @param  length Frame length.
+   * @param  end    Whether it's the last frame.
+   * @throws        IOException
+   */
+  private void sendData(Http2Stream stream, int length, boolean end) throws IOException {
+    sendFrameHeader(length, DATA, end ? END_STREAM : 0, stream.getId());
+    int remaining = length;
+    while (remaining > 0) {
+      byte[] chunk = stream.pending.peekFirst();
+      int count = Math.min(remaining, chunk.length - stream.pendingOffset);
+      // pending chunks aren't modified, the transport may keep them
+      transport.send(chunk, stream.pendingOffset, count);
+      stream.pendingOffset += count;
+      if (stream.pendingOffset == chunk.length) {
+        stream.pending.pollFirst();
+        stream.pendingOffset = 0;
+      }
+      remaining -= count;
+    }
+    stream.pendingSize -= length;
+    unsent += length;
+  }
+
+  /**
+   * Send a header block, split into HEADERS and CONTINUATION frames as needed.
+   * 
+   * @param  stream The stream.
+   * @param  head   Names and values, alternating.
+   * @param  end    Whether the response has no body.
+   * @throws        IOException
+   */
+  private void sendHeaders(Http2Stream stream, List<String> head, boolean end) throws IOException {
+    byte[] block = encoder.encode(head);
+    int offset = 0;
+    do {
+      int length = Math.min(block.length - offset, peerMaxFrameSize);
+      int flags = (offset + length == block.length) ? END_HEADERS : 0;
+      if (offset == 0) {
+        sendFrame(HEADERS, flags | (end ? END_STREAM : 0), stream.getId(), block, offset, length);
+      } else {
+        sendFrame(CONTINUATION, flags, stream.getId(), block, offset, length);
+      }
+      offset += length;
+    } while (offset < block.length);
+    if (end) {
+      localClosed(stream);
+    }
+  }
+
+  /**
+   * The server has sent the complete response.
+   * 
+   * @param stream The stream.
+   */
+  private void localClosed(Http2Stream stream) {
+    stream.localClosed = true;
+    if (stream.remoteClosed) {
+      streams.remove(stream.getId());
+      if (goingAway && streams.isEmpty()) {
+        goAway(NO_ERROR, "");
+      }
+    }
+  }
+
+  /**
+   * Reset a stream.
+   * 
+   * @param  streamId Stream ID.
+   * @param  code     Error code.
+   * @throws          IOException
+   */
+  private void resetStream(int streamId, int code) throws IOException {
+    byte[] payload = new byte[4];
+    putInt32(payload, 0, code);
+    sendFrame(RST_STREAM, 0, streamId, payload, 0, payload.length);
+    Http2Stream stream = streams.remove(streamId);
+    if (stream != null) {
+      cancel(stream);
+    }
+  }
+
+  /**
+   * Reset a stream with CANCEL, from any thread.
+   * 
+   * @param stream The stream.
+   */
+  synchronized void abort(Http2Stream stream) {
+    if (!open || streams.get(stream.getId()) != stream) {
+      return;
+    }
+    try {
+      resetStream(stream.getId(), CANCEL);
+      flush();
+    } catch (IOException ex) {
+      fail();
+    }
+  }
+
+  /**
+   * Discard the pending data of a reset stream, its writer fails.
+   * 
+   * @param stream The stream.
+   */
+  private void cancel(Http2Stream stream) {
+    stream.reset = true;
+    stream.pending.clear();
+    stream.pendingSize = 0;
+    writable.remove(stream);
+    notifyAll();
+  }
+
+  /**
+   * Close the connection after a connection error.
+   * 
+   * @param error The error.
+   */
+  private void goAway(IOException error) {
+    if (error instanceof Http2Exception) {
+      goAway(((Http2Exception) error).getCode(), error.getMessage());
+    } else {
+      goAway(PROTOCOL_ERROR, error.getMessage());
+    }
+  }
+
+  /**
+   * Send GOAWAY and close the connection.
+   * 
+   * @param code    Error code.
+   * @param message Debug data.
+   */
+  private void goAway(int code, String message) {
+    if (!open) {
+      return;
+    }
+    try {
+      byte[] debug = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+      byte[] payload = Arrays.copyOf(new byte[8], 8 + debug.length);
+      putInt32(payload, 0, lastStreamId);
+      putInt32(payload, 4, code);
+      System.arraycopy(debug, 0, payload, 8, debug.length);
+      sendFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+      flush();
+    } catch (IOException ex) {
+      // closed anyway
+    }
+    fail();
+  }
+
+  /**
+   * Close the connection without GOAWAY, e.g. if the client is gone.
+   */
+  private void fail() {
+    if (open) {
+      closed();
+      transport.close();
+    }
+  }
+
+  /**
+   * Run a complete request.
+   * Answered with 503 Service Unavailable, if the executor rejects it.
+   * 
+   * @param stream The stream.
+   */
+  private void dispatch(Http2Stream stream) {
+    try {
+      executor.execute(stream);
+    } catch (RejectedExecutionException ex) {
+      synchronized (this) {
+        try {
+          if (open && !stream.reset) {
+            reject(stream, "503 Service Unavailable");
+            flush();
+          }
+        } catch (IOException e) {
+          fail();
+        }
+      }
+    }
+  }
+
+  /**
+   * Send a WINDOW_UPDATE frame.
+   * 
+   * @param  streamId  Stream ID or 0.
+   * @param  increment Window increment.
+   * @throws           IOException
+   */
+  private void sendWindowUpdate(int streamId, int increment) throws IOException {
+    byte[] payload = new byte[4];
+    putInt32(payload, 0, increment);
+    sendFrame(WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+  }
+
+  /**
+   * Send a frame.
+   * 
+   * @param  type     Frame type.
+   * @param  flags    Frame flags.
+   * @param  streamId Stream ID or 0.
+   * @param  payload  Payload bytes.
+   * @param  offset   Start of the payload.
+   * @param  length   Payload length.
+   * @throws          IOException
+   */
+  private void sendFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+    byte[] frame = new byte[FRAME_HEADER_LENGTH + length];
+    putFrameHeader(frame, length, type, flags, streamId);
+    System.arraycopy(payload, offset, frame, FRAME_HEADER_LENGTH, length);
+    transport.send(frame, 0, frame.length);
+    unsent += frame.length;
+    unflushed = true;
+  }
+
+  /**
+   * Send a frame header, the payload follows.
+   * 
+   * @param  length   Payload length.
+   * @param  type     Frame type.
+   * @param  flags    Frame flags.
+   * @param  streamId Stream ID.
+   * @throws          IOException
+   */
+  private void sendFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+    byte[] header = new byte[FRAME_HEADER_LENGTH];
+    putFrameHeader(header, length, type, flags, streamId);
+    transport.send(header, 0, header.length);
+    unsent += header.length;
+    unflushed = true;
+  }
+
+  /**
+   * Hand the sent frames over to the connection.
+   * 
+   * @throws IOException
+   */
+  private void flush() throws IOException {
+    if (unflushed) {
+      unflushed = false;
+      if (transport.flush()) {
+        unsent = 0;
+      }
+    }
+  }
+
+  private static void putFrameHeader(byte[] frame, int length, int type, int flags, int streamId) {
+    frame[0] = (byte) (length >>> 16);
+    frame[1] = (byte) (length >>> 8);
+    frame[2] = (byte) length;
+    frame[3] = (byte) type;
+    frame[4] = (byte) flags;
+    putInt32(frame, 5, streamId);
+  }
+
+  private static void putSetting(byte[] bytes, int offset, int id, int value) {
+    bytes[offset] = (byte) (id >>> 8);
+    bytes[offset + 1] = (byte) id;
+    putInt32(bytes, offset + 2, value);
+  }
+
+  private static void putInt32(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  private static int readInt24(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xFF) << 16) | ((bytes[offset + 1] & 0xFF) << 8) | (bytes[offset + 2] & 0xFF);
+  }
+
+  private static int readInt31(byte[] bytes, int offset) {
+    return (int) (readInt32(bytes, offset) & 0x7FFFFFFF);
+  }
+
+  private static long readInt32(byte[] bytes, int offset) {
+    return ((long) (bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+        | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+  }
+
+  /**
+   * Writes the frames to the connection.
+   * Called with the lock of the HTTP/2 connection held, so frames aren't interleaved.
+   */
+  interface Transport {
+
+    /**
+     * Queue or write frame bytes, in order.
+     * 
+     * @param  bytes  The bytes, not modified afterwards.
+     * @param  offset Offset of the first byte.
+     * @param  length Number of bytes.
+     * @throws        IOException If the connection has been closed.
+     */
+    void send(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Send the queued bytes.
+     * 
+     * @return Whether they've been written, otherwise drained() is called once they are.
+     * @throws IOException If the connection has been closed.
+     */
+    boolean flush() throws IOException;
+
+    /**
+     * Close the connection, after the queued bytes.
+     */
+    void close();
+
+    /**
+     * Whether the current thread reads from the connection.
+     * It must not wait for the client to read.
+     * 
+     * @return Whether it's the reading thread.
+     */
+    boolean inReader();
+
+  }
+
+  /**
+   * Regular request headers, collected in one block.
+   */
+  private static class HeaderBlock {
+
+    private byte[] bytes = new byte[256];
+    private int length;
+    private int[] fields = new int[32];
+    private int size;
+
+    void add(String name, String value) {
+      add(name.getBytes(StandardCharsets.ISO_8859_1), value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    void add(byte[] name, byte[] value) {
+      if (bytes.length < length + name.length + value.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + name.length + value.length));
+      }
+      if (fields.length < (size + 1) * 4) {
+        fields = Arrays.copyOf(fields, fields.length * 2);
+      }
+      fields[size * 4] = length;
+      System.arraycopy(name, 0, bytes, length, name.length);
+      length += name.length;
+      fields[size * 4 + 1] = length;
+      fields[size * 4 + 2] = length;
+      System.arraycopy(value, 0, bytes, length, value.length);
+      length += value.length;
+      fields[size * 4 + 3] = length;
+      size++;
+    }
+
+    boolean contains(String name) {
+      return headers().contains(name);
+    }
+
+    int size() {
+      return size;
+    }
+
+    Headers headers() {
+      return new Headers(bytes, fields, size);
+    }
+
+  }
+
+  /**
+   * Protocol error: a stream error, answered with RST_STREAM,
+   * or a connection error (stream 0), answered with GOAWAY.
+   */
+  static class Http2Exception extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int streamId;
+    private final int code;
+
+    Http2Exception(int streamId, int code, String message) {
+      super(message);
+      this.streamId = streamId;
+      this.code = code;
+    }
+
+    /**
+     * Stream ID Getter.
+     * 
+     * @return The stream or 0 for a connection error.
+     */
+    int getStreamId() {
+      return streamId;
+    }
+
+    /**
+     * Error code Getter.
+     * 
+     * @return e.g. PROTOCOL_ERROR
+     */
+    int getCode() {
+      return code;
+    }
+
+  }
+
+}
@@ -0,0 +1,334 @@
+package net.metzweb.tinyserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import net.metzweb.tinyserver.response.Abortable;
+import net.metzweb.tinyserver.response.Committable;
+
+/**
+ * HTTP/2 stream.
+ * Serves one request of an Http2Connection with the route callbacks, like a request
+ * of an HTTP/1.1 connection. The response formats write HTTP/1.1 responses,
+ * the stream sends their header as HEADERS frame and their body as DATA frames.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class Http2Stream implements Runnable {
+
+  /**
+   * Response data is sent in DATA frames of up to this size.
+   */
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private final Http2Connection connection;
+  private final int id;
+  private final String[] requestLine;
+  private final Headers headers;
+  private final ResponseOutput output = new ResponseOutput();
+
+  /**
+   * Request body, received before the request is served.
+   */
+  private byte[] body = new byte[0];
+  int bodyLength;
+  long expectedLength = -1;
+  long maxBodySize;
+
+  /**
+   * Route of a POST request, found with its header.
+   */
+  RouteTree.Match route;
+
+  /**
+   * Error status, if the request is answered without serving it.
+   */
+  String status;
+
+  /**
+   * Stream state and flow control, guarded by the connection.
+   */
+  boolean remoteClosed;
+  boolean localClosed;
+  boolean reset;
+  long sendWindow;
+  long receiveWindow = Http2Connection.RECEIVE_WINDOW;
+  int receiveUnacked;
+
+  /**
+   * Response data waiting for the send window, guarded by the connection.
+   */
+  final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+  int pendingOffset;
+  long pendingSize;
+  boolean pendingEnd;
+  boolean queued;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param connection  The HTTP/2 connection.
+   * @param id          Stream ID.
+   * @param requestLine The request line, e.g. [GET, /hello/world.json, HTTP/2.0]
+   * @param headers     The request headers.
+   */
+  Http2Stream(Http2Connection connection, int id, String[] requestLine, Headers headers) {
+    this.connection = connection;
+    this.id = id;
+    this.requestLine = requestLine;
+    this.headers = headers;
+  }
+
+  /**
+   * Serve the request.
+   * Executed by a worker or the connection's executor, once the request is complete.
+   */
+  @Override
+  public void run() {
+    TinyServer server = connection.getServer();
+    Request request = new Request(requestLine, headers, server, output);
+    try {
+      if (requestLine[0].equals("GET")) {
+        request.parseGET();
+      } else {
+        request.parsePOST(new RequestBody(new ByteArrayInputStream(body, 0, bodyLength), bodyLength), route);
+      }
+    } catch (RuntimeException ex) {
+      AccessLog.error("Exception in route callback: " + ex);
+    }
+
+    CompletableFuture<Void> completion = request.getCompletion();
+    if (completion != null && !completion.isDone()) {
+      // ended once the asynchronous response is complete
+      completion.whenComplete(new BiConsumer<Void, Throwable>() {
+        @Override
+        public void accept(Void result, Throwable failure) {
+          output.end();
+        }
+      });
+      return;
+    }
+    output.end();
+  }
+
+  /**
+   * Stream ID Getter.
+   * 
+   * @return The ID.
+   */
+  int getId() {
+    return id;
+  }
+
+  /**
+   * Headers Getter.
+   * 
+   * @return The request headers.
+   */
+  Headers getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Add received body data.
+   * 
+   * @param bytes  Receive buffer.
+   * @param offset Start of the data.
+   * @param length Data length.
+   */
+  void appendBody(byte[] bytes, int offset, int length) {
+    if (bodyLength + length > body.length) {
+      body = Arrays.copyOf(body, Math.max(bodyLength + length, (int) Math.min(body.length * 2L, maxBodySize)));
+    }
+    System.arraycopy(bytes, offset, body, bodyLength, length);
+    bodyLength += length;
+  }
+
+  /**
+   * Response sink, handed to the request.
+   * Parses the HTTP/1.1 header written by the response format
+   * and passes the body on in DATA frames.
+   */
+  private class ResponseOutput extends OutputStream implements Committable, Abortable {
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+
+    /**
+     * Parsed response header, until it's sent.
+     */
+    private List<String> head;
+    private boolean headParsed;
+    private boolean ended;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+      if (ended) {
+        throw new IOException("Stream closed.");
+      }
+      if (!headParsed) {
+        append(bytes, offset, length);
+        parseHead();
+        if (headParsed && count >= BUFFER_SIZE) {
+          send(false);
+        }
+        return;
+      }
+      if (count + length > BUFFER_SIZE) {
+        send(false);
+      }
+      if (length >= BUFFER_SIZE) {
+        // too large to buffer, sent right away
+        connection.write(Http2Stream.this, takeHead(), bytes, offset, length, false);
+      } else {
+        append(bytes, offset, length);
+      }
+    }
+
+    /**
+     * Send the buffered data, once it fills a frame.
+     * 
+     * @throws IOException If the stream has been reset.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+      if (headParsed && count >= BUFFER_SIZE) {
+        send(false);
+      }
+    }
+
+    /**
+     * Send the header and the buffered data now, e.g. for a streamed response.
+     * 
+     * @throws IOException If the stream has been reset.
+     */
+    @Override
+    public synchronized void commit() throws IOException {
+      if (headParsed && (head != null || count > 0)) {
+        send(false);
+      }
+    }
+
+    /**
+     * Reset the stream, e.g. for a client that doesn't read.
+     * The connection stays open for the other streams.
+     */
+    @Override
+    public void abort() {
+      connection.abort(Http2Stream.this);
+    }
+
+    /**
+     * The response formats close their streams, the stream is ended after the callback.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Complete the response with END_STREAM.
+     * Answered with 500 Internal Server Error, if no response has been written.
+     */
+    synchronized void end() {
+      if (ended) {
+        return;
+      }
+      try {
+        if (!headParsed) {
+          count = 0;
+          byte[] error = RequestParser.errorResponse("500 Internal Server Error");
+          append(error, 0, error.length);
+          parseHead();
+        }
+        send(true);
+      } catch (IOException ex) {
+        // reset by the client or the connection is gone
+      }
+      ended = true;
+    }
+
+    private void send(boolean end) throws IOException {
+      connection.write(Http2Stream.this, takeHead(), buffer, 0, count, end);
+      count = 0;
+    }
+
+    private List<String> takeHead() {
+      List<String> fields = head;
+      head = null;
+      return fields;
+    }
+
+    private void append(byte[] bytes, int offset, int length) throws IOException {
+      if (count + length > buffer.length) {
+        if (count + length > RequestParser.MAX_HEADER_SIZE + BUFFER_SIZE) {
+          throw new IOException("Invalid response header.");
+        }
+        buffer = Arrays.copyOf(buffer, Math.max(count + length, buffer.length * 2));
+      }
+      System.arraycopy(bytes, offset, buffer, count, length);
+      count += length;
+    }
+
+    /**
+     * Parse the HTTP/1.1 response header, once it's complete.
+     * The body data written with it stays in the buffer.
+     */
+    private void parseHead() {
+      int end = -1;
+      for (int i = 3; i < count; i++) {
+        if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' && buffer[i - 3] == '\r') {
+          end = i + 1;
+          break;
+        }
+      }
+      if (end < 0) {
+        return;
+      }
+      String[] lines = new String(buffer, 0, end - 4, StandardCharsets.ISO_8859_1).split("\r\n");
+      // e.g. HTTP/1.1 200 OK
+      String[] statusLine = lines[0].split(" ", 3);
+      String status = (statusLine.length > 1 && statusLine[1].length() == 3) ? statusLine[1] : "500";
+      List<String> fields = new ArrayList<>();
+      fields.add(":status");
+      fields.add(status);
+      for (int i = 1; i < lines.length; i++) {
+        int colon = lines[i].indexOf(':');
+        if (colon <= 0) {
+          continue;
+        }
+        String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+        if (!Http2Connection.CONNECTION_HEADERS.contains(name)) {
+          fields.add(name);
+          fields.add(lines[i].substring(colon + 1).trim());
+        }
+      }
+      head = fields;
+      headParsed = true;
+      System.arraycopy(buffer, end, buffer, 0, count - end);
+      count -= end;
+      if (buffer.length > BUFFER_SIZE && count <= BUFFER_SIZE) {
+        buffer = Arrays.copyOf(buffer, BUFFER_SIZE);
+      }
+    }
+
+  }
+
+}
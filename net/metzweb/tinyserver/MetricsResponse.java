@@ -0,0 +1,151 @@
+package net.metzweb.tinyserver;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metrics route callback.
+ * Renders the metrics of all routes in the Prometheus text format:
+ * a latency summary (p50, p99, p999), requests by status code
+ * and response body bytes, labeled with method and route pattern.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class MetricsResponse implements Response {
+
+  /**
+   * Reported latency quantiles.
+   */
+  private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+  private static final String[] QUANTILE_LABELS = {"0.5", "0.99", "0.999"};
+
+  private final TinyServer server;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param server The server, whose routes are reported.
+   */
+  MetricsResponse(TinyServer server) {
+    this.server = server;
+  }
+
+  @Override
+  public void callback(Request request) {
+    List<Route> getRoutes = server.getRoutes();
+    List<Route> postRoutes = server.getPostRoutes();
+    StringBuilder text = new StringBuilder(1024);
+
+    text.append("# HELP tinyserver_request_duration_seconds Request latency by route.\n");
+    text.append("# TYPE tinyserver_request_duration_seconds summary\n");
+    appendLatencies(text, "GET", getRoutes);
+    appendLatencies(text, "POST", postRoutes);
+
+    text.append("# HELP tinyserver_requests_total Requests by route and status code.\n");
+    text.append("# TYPE tinyserver_requests_total counter\n");
+    appendStatusCounts(text, "GET", getRoutes);
+    appendStatusCounts(text, "POST", postRoutes);
+
+    text.append("# HELP tinyserver_response_bytes_total Response body bytes by route.\n");
+    text.append("# TYPE tinyserver_response_bytes_total counter\n");
+    appendBytes(text, "GET", getRoutes);
+    appendBytes(text, "POST", postRoutes);
+
+    request.write(text.toString());
+  }
+
+  /**
+   * Append the latency summaries of routes.
+   * 
+   * @param text   The output.
+   * @param method GET or POST
+   * @param routes The routes.
+   */
+  private static void appendLatencies(StringBuilder text, String method, List<Route> routes) {
+    for (Route route : routes) {
+      RouteMetrics metrics = route.getMetrics();
+      if (metrics == null) {
+        continue;
+      }
+      long[] percentiles = metrics.getPercentiles(QUANTILES);
+      for (int i = 0; i < QUANTILES.length; i++) {
+        text.append("tinyserver_request_duration_seconds");
+        appendLabels(text, method, route).append(",quantile=\"").append(QUANTILE_LABELS[i]).append("\"} ");
+        text.append(percentiles[i] / 1e6).append('\n');
+      }
+      text.append("tinyserver_request_duration_seconds_sum");
+      appendLabels(text, method, route).append("} ").append(metrics.getTotalMicros() / 1e6).append('\n');
+      text.append("tinyserver_request_duration_seconds_count");
+      appendLabels(text, method, route).append("} ").append(metrics.getCount()).append('\n');
+    }
+  }
+
+  /**
+   * Append the request counts of routes, by status code.
+   * 
+   * @param text   The output.
+   * @param method GET or POST
+   * @param routes The routes.
+   */
+  private static void appendStatusCounts(StringBuilder text, String method, List<Route> routes) {
+    for (Route route : routes) {
+      RouteMetrics metrics = route.getMetrics();
+      if (metrics == null) {
+        continue;
+      }
+      for (Map.Entry<Integer, Long> status : metrics.getStatusCounts().entrySet()) {
+        text.append("tinyserver_requests_total");
+        appendLabels(text, method, route).append(",status=\"").append(status.getKey()).append("\"} ");
+        text.append(status.getValue()).append('\n');
+      }
+    }
+  }
+
+  /**
+   * Append the body bytes of routes.
+   * 
+   * @param text   The output.
+   * @param method GET or POST
+   * @param routes The routes.
+   */
+  private static void appendBytes(StringBuilder text, String method, List<Route> routes) {
+    for (Route route : routes) {
+      RouteMetrics metrics = route.getMetrics();
+      if (metrics == null) {
+        continue;
+      }
+      text.append("tinyserver_response_bytes_total");
+      appendLabels(text, method, route).append("} ").append(metrics.getBytesWritten()).append('\n');
+    }
+  }
+
+  /**
+   * Append the opening brace and the route labels, without closing them.
+   * 
+   * @param  text   The output.
+   * @param  method GET or POST
+   * @param  route  The route.
+   * @return        The output.
+   */
+  private static StringBuilder appendLabels(StringBuilder text, String method, Route route) {
+    text.append("{method=\"").append(method).append("\",route=\"");
+    String path = route.getPath();
+    for (int i = 0; i < path.length(); i++) {
+      char c = path.charAt(i);
+      if (c == '\\' || c == '"') {
+        text.append('\\').append(c);
+      } else if (c == '\n') {
+        text.append("\\n");
+      } else {
+        text.append(c);
+      }
+    }
+    return text.append('"');
+  }
+
+}
@@ -0,0 +1,1132 @@
+package net.metzweb.tinyserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import net.metzweb.tinyserver.response.Abortable;
+import net.metzweb.tinyserver.response.Committable;
+import net.metzweb.tinyserver.response.FileTransfer;
+
+/**
+ * Non-blocking server connection.
+ * Reads and parses a request with ByteBuffers on its event loop,
+ * dispatches it to the route callback and writes the response back.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class NioConnection {
+
+  /**
+   * Initial and maximum size of the request buffer.
+   */
+  private static final int BUFFER_SIZE = 8192;
+  private static final int MAX_REQUEST_SIZE = 8 * 1024 * 1024;
+
+  /**
+   * Responses of pipelined requests are collected up to this size, before they're written.
+   */
+  private static final int MAX_COALESCE_SIZE = 64 * 1024;
+
+  /**
+   * Responses streamed by a worker are handed to the event loop in parts of this size.
+   */
+  private static final int STREAM_PART_SIZE = 64 * 1024;
+
+  private final SocketChannel channel;
+  private final SelectionKey key;
+  private final NioEngine.EventLoop loop;
+  private final TinyServer server;
+
+  /**
+   * Received bytes (write mode).
+   */
+  private ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /**
+   * Parses the request header; its result is kept until the body is complete.
+   * The route of a POST request is found with the header.
+   */
+  private final RequestParser parser = new RequestParser();
+  private int headerLength = -1;
+  private RouteTree.Match route;
+
+  /**
+   * Pending responses: ByteBuffers (read mode) and FileRegions.
+   * Consecutive buffers are written with one gathering write.
+   */
+  private final ArrayDeque<Object> outputs = new ArrayDeque<>();
+  private long outputSize;
+
+  /**
+   * Whether a request is being served by its callback.
+   */
+  private boolean dispatched;
+
+  /**
+   * Whether parts of an unfinished response are being written.
+   */
+  private boolean streaming;
+
+  /**
+   * Whether a streamed part is waiting to be written.
+   * A worker waits for it, before handing over the next part.
+   */
+  private volatile boolean sendingPart;
+  private final Object partSent = new Object();
+
+  /**
+   * Length of the request being served, in bytes.
+   */
+  private int requestLength;
+
+  /**
+   * Whether the connection stays open after the pending response.
+   */
+  private boolean keepAlive;
+
+  /**
+   * WebSocket after an accepted upgrade, then frames are parsed instead of requests.
+   */
+  private WebSocket webSocket;
+  private final WebSocketParser frameParser = new WebSocketParser();
+
+  /**
+   * HTTP/2 connection after the preface or an accepted upgrade.
+   */
+  private Http2Connection http2;
+
+  /**
+   * Number of served requests and time of the last activity.
+   */
+  private int served;
+  private long lastActivity = System.currentTimeMillis();
+
+  /**
+   * Custom constructor.
+   * 
+   * @param channel Non-blocking socket channel.
+   * @param key     The channel's selection key.
+   * @param loop    The owning event loop.
+   * @param server  TinyServer instance.
+   */
+  NioConnection(SocketChannel channel, SelectionKey key, NioEngine.EventLoop loop, TinyServer server) {
+    this.channel = channel;
+    this.key = key;
+    this.loop = loop;
+    this.server = server;
+  }
+
+  /**
+   * Read available bytes and dispatch the request once it's complete.
+   */
+  void onReadable() {
+    try {
+      if (!input.hasRemaining()) {
+        if (input.capacity() >= MAX_REQUEST_SIZE) {
+          AccessLog.error("Request too large.");
+          close();
+          return;
+        }
+        input = grow(input, input.capacity() * 2);
+      }
+
+      if (channel.read(input) < 0) {
+        close();
+        return;
+      }
+      lastActivity = System.currentTimeMillis();
+      if (webSocket != null) {
+        readFrames();
+      } else if (http2 != null) {
+        readHttp2();
+      } else {
+        parse();
+      }
+    } catch (IOException ex) {
+      AccessLog.error("I/O Exception while serving client.");
+      close();
+    }
+  }
+
+  /**
+   * Write pending responses.
+   */
+  void onWritable() {
+    try {
+      while (!outputs.isEmpty()) {
+        if (outputs.peekFirst() instanceof FileRegion) {
+          if (!((FileRegion) outputs.peekFirst()).transferTo(channel)) {
+            break;
+          }
+          outputs.pollFirst();
+        } else {
+          channel.write(leadingBuffers());
+          while (outputs.peekFirst() instanceof ByteBuffer && !((ByteBuffer) outputs.peekFirst()).hasRemaining()) {
+            outputs.pollFirst();
+          }
+          if (outputs.peekFirst() instanceof ByteBuffer) {
+            break;
+          }
+        }
+      }
+      lastActivity = System.currentTimeMillis();
+      if (outputs.isEmpty()) {
+        signalPartSent();
+      }
+      
+      if (webSocket != null || http2 != null) {
+        if (outputs.isEmpty()) {
+          outputSize = 0;
+          if (http2 != null) {
+            http2.drained();
+          }
+          if (!keepAlive) {
+            // closing frame or GOAWAY sent
+            close();
+            return;
+          }
+        }
+        // full duplex, reading pauses only while a message is delivered
+        key.interestOps((outputs.isEmpty() ? 0 : SelectionKey.OP_WRITE) | (dispatched ? 0 : SelectionKey.OP_READ));
+      } else if (!outputs.isEmpty()) {
+        // socket buffer full, continue once writable
+        key.interestOps(SelectionKey.OP_WRITE);
+      } else if (streaming) {
+        // streamed part written, wait for the rest of the response
+        outputSize = 0;
+        key.interestOps(0);
+      } else if (keepAlive) {
+        outputSize = 0;
+        key.interestOps(SelectionKey.OP_READ);
+        parse();
+      } else {
+        close();
+      }
+    } catch (IOException ex) {
+      AccessLog.error("I/O Exception while serving client.");
+      close();
+    }
+  }
+
+  /**
+   * Collect the consecutive buffers at the head of the output queue.
+   * 
+   * @return Buffers for a gathering write.
+   */
+  private ByteBuffer[] leadingBuffers() {
+    ArrayList<ByteBuffer> buffers = new ArrayList<>();
+    for (Object part : outputs) {
+      if (!(part instanceof ByteBuffer)) {
+        break;
+      }
+      buffers.add((ByteBuffer) part);
+    }
+    return buffers.toArray(new ByteBuffer[buffers.size()]);
+  }
+
+  /**
+   * Parse the received bytes and dispatch the request, once it's complete.
+   * 
+   * @return Whether a request was dispatched.
+   */
+  private boolean parse() {
+    if (dispatched || !channel.isOpen()) {
+      return false;
+    }
+
+    int length = input.position();
+    long contentLength;
+    try {
+      if (headerLength < 0) {
+        headerLength = parser.parse(input.array(), 0, length);
+        if (headerLength < 0) {
+          return false;
+        }
+        if (server.isHttp2Enabled() && Http2Connection.isPreface(parser.getRequestLine())) {
+          // prior knowledge: the preface is read by the HTTP/2 connection
+          parser.reset();
+          headerLength = -1;
+          startHttp2(null, null, null);
+          return false;
+        }
+        if (checkBody(length)) {
+          sendContinue();
+        }
+      }
+      contentLength = RequestParser.contentLength(parser.getHeaders());
+    } catch (RequestParser.ParseException ex) {
+      reject(ex.getStatus());
+      return false;
+    }
+
+    if (headerLength + contentLength > MAX_REQUEST_SIZE) {
+      AccessLog.error("Request too large.");
+      close();
+      return false;
+    }
+    requestLength = headerLength + (int) contentLength;
+    if (length < requestLength) {
+      // wait for the rest of the body
+      if (input.capacity() < requestLength) {
+        input = grow(input, requestLength);
+      }
+      return false;
+    }
+
+    // the input buffer isn't changed until the request has been answered
+    RequestBody body = new RequestBody(new ByteArrayInputStream(input.array(), headerLength, (int) contentLength), contentLength);
+    String[] requestHeader = parser.getRequestLine();
+    Headers headers = parser.getHeaders();
+    RouteTree.Match match = route;
+    parser.reset();
+    headerLength = -1;
+    route = null;
+    byte[] settings = server.isHttp2Enabled() ? Http2Connection.upgradeSettings(requestHeader, headers) : null;
+    if (settings != null) {
+      consume();
+      startHttp2(requestHeader, headers, settings);
+      return false;
+    }
+    dispatched = true;
+    served++;
+    key.interestOps(0);
+    dispatch(requestHeader, headers, body, match, served >= server.getMaxKeepAliveRequests());
+    return true;
+  }
+
+  /**
+   * Check the body size of a POST request, as soon as its header is complete.
+   * Bodies are buffered, so the route limit is capped by the maximum request size.
+   * 
+   * @param  length Number of received bytes.
+   * @return        Whether the client waits for 100 Continue.
+   * @throws        RequestParser.ParseException If the body is too large.
+   */
+  private boolean checkBody(int length) throws RequestParser.ParseException {
+    String[] requestHeader = parser.getRequestLine();
+    if (!requestHeader[0].equals("POST")) {
+      return false;
+    }
+    Headers headers = parser.getHeaders();
+    route = server.findRoute(requestHeader[1], true);
+    long maxBodySize = Math.min(server.getMaxBodySize(route), MAX_REQUEST_SIZE - headerLength);
+    boolean expectsContinue = RequestParser.expectsContinue(headers, RequestParser.contentLength(headers), maxBodySize);
+    return expectsContinue && requestHeader[2].equals("HTTP/1.1") && length == headerLength;
+  }
+
+  /**
+   * Ask the client to send the body, after pending responses.
+   */
+  private void sendContinue() {
+    outputs.add(ByteBuffer.wrap(RequestParser.CONTINUE));
+    outputSize += RequestParser.CONTINUE.length;
+    if (outputs.size() == 1) {
+      // nothing else to write, read the body afterwards
+      keepAlive = true;
+      onWritable();
+    }
+  }
+
+  /**
+   * Answer a malformed request with an error status and close the connection.
+   * 
+   * @param status Status line, e.g. 400 Bad Request
+   */
+  private void reject(String status) {
+    dispatched = true;
+    key.interestOps(0);
+    byte[] response = RequestParser.errorResponse(status);
+    ResponseBuffer buffer = new ResponseBuffer(null);
+    buffer.write(response, 0, response.length);
+    respond(buffer, false);
+  }
+
+  /**
+   * Discard the served request from the input buffer.
+   */
+  private void consume() {
+    input.flip();
+    input.position(requestLength);
+    input.compact();
+    requestLength = 0;
+    dispatched = false;
+  }
+
+  /**
+   * Close the connection, if it waits for a request longer than the keep-alive timeout.
+   * 
+   * @param now Current time in milliseconds.
+   */
+  void closeIfIdle(long now) {
+    if (dispatched || now - lastActivity <= server.getKeepAliveTimeout()) {
+      return;
+    }
+    if (webSocket != null) {
+      if (outputs.isEmpty() && keepAlive && webSocket.idle()) {
+        // pinged, closed if the next timeout passes without an answer
+        lastActivity = now;
+      } else {
+        close();
+      }
+    } else if (http2 != null) {
+      // closed with GOAWAY, unless streams are active
+      http2.idle();
+    } else if (outputs.isEmpty()) {
+      close();
+    }
+  }
+
+  /**
+   * Run the route callback on a worker, if available, or on the event loop.
+   * 
+   * @param requestHeader The request line, e.g. [GET, /hello/world.json, HTTP/1.1]
+   * @param headers       The request headers.
+   * @param body          The request body.
+   * @param match         The route of a POST request.
+   * @param last          Whether it's the last request on this connection.
+   */
+  private void dispatch(final String[] requestHeader, final Headers headers, final RequestBody body,
+      final RouteTree.Match match, final boolean last) {
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        final ResponseBuffer buffer = new ResponseBuffer(NioConnection.this);
+        Request request = null;
+        try {
+          request = handle(requestHeader, headers, body, match, last, buffer);
+        } catch (RuntimeException ex) {
+          AccessLog.error("Exception in route callback: " + ex);
+        }
+        if (request != null && request.isUpgrade()) {
+          upgrade(request, buffer);
+          return;
+        }
+        
+        final CompletableFuture<Void> completion = (request != null) ? request.getCompletion() : null;
+        if (completion != null && !completion.isDone()) {
+          // answered once the asynchronous response is complete
+          final Request asyncRequest = request;
+          completion.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable failure) {
+              respondLater(buffer, asyncRequest.isKeepAlive());
+            }
+          });
+          return;
+        }
+        respondLater(buffer, request != null && request.isKeepAlive());
+      }
+    };
+
+    WorkerPool pool = server.getWorkerPool();
+    if (pool == null) {
+      task.run();
+      return;
+    }
+    try {
+      pool.execute(task);
+    } catch (RejectedExecutionException ex) {
+      if (pool.getRejectionPolicy() == WorkerPool.RejectionPolicy.DROP) {
+        close();
+      } else {
+        ResponseBuffer buffer = new ResponseBuffer(null);
+        buffer.write(Connection.SERVICE_UNAVAILABLE, 0, Connection.SERVICE_UNAVAILABLE.length);
+        respond(buffer, false);
+      }
+    }
+  }
+
+  /**
+   * Switch to the WebSocket protocol, after the handshake response.
+   * Called by the thread, that served the upgrade request.
+   * 
+   * @param request   The upgrade request.
+   * @param handshake The handshake response.
+   */
+  private void upgrade(Request request, final ResponseBuffer handshake) {
+    final WebSocket socket = request.openWebSocket(new WebSocket.Transport() {
+      @Override
+      public void send(final byte[] frame) throws IOException {
+        if (!channel.isOpen()) {
+          throw new IOException("Connection closed.");
+        }
+        onLoop(new Runnable() {
+          @Override
+          public void run() {
+            sendFrame(frame);
+          }
+        });
+      }
+
+      @Override
+      public void close() {
+        onLoop(new Runnable() {
+          @Override
+          public void run() {
+            // after the pending frames, e.g. the close frame
+            keepAlive = false;
+            if (outputs.isEmpty()) {
+              NioConnection.this.close();
+            }
+          }
+        });
+      }
+    });
+
+    // the handshake is queued before any frame, reading waits for onOpen
+    onLoop(new Runnable() {
+      @Override
+      public void run() {
+        if (!channel.isOpen()) {
+          handshake.release();
+          terminate(socket);
+          return;
+        }
+        outputSize += handshake.length();
+        outputs.addAll(handshake.parts());
+        consume();
+        webSocket = socket;
+        dispatched = true;
+        keepAlive = true;
+        onWritable();
+      }
+    });
+    socket.opened();
+    onLoop(resumeFrames);
+  }
+
+  /**
+   * Parse received frames and deliver complete messages.
+   * Has to be called on the event loop.
+   */
+  private void readFrames() {
+    byte[] bytes = input.array();
+    int offset = 0;
+    try {
+      while (!dispatched && channel.isOpen() && webSocket.isConnected()) {
+        long maxPayload = Math.min(webSocket.getMaxMessageSize(), MAX_REQUEST_SIZE - WebSocketParser.MAX_HEADER_LENGTH);
+        int frameLength = frameParser.parse(bytes, offset, input.position() - offset, maxPayload);
+        if (frameLength < 0) {
+          break;
+        }
+        Runnable message = webSocket.receive(frameParser, bytes);
+        offset += frameLength;
+        if (message != null) {
+          deliver(message);
+        }
+      }
+    } catch (WebSocketParser.ParseException ex) {
+      webSocket.fail(ex.getCode(), ex.getMessage());
+      return;
+    }
+    if (!channel.isOpen()) {
+      return;
+    }
+    input.flip();
+    input.position(offset);
+    input.compact();
+    if (outputs.isEmpty()) {
+      key.interestOps(dispatched ? 0 : SelectionKey.OP_READ);
+    }
+  }
+
+  /**
+   * Deliver a message to the callback on a worker, if available, or on the event loop.
+   * Reading pauses until the callback returns, so messages are delivered in order.
+   * 
+   * @param message Calls the callback.
+   */
+  private void deliver(final Runnable message) {
+    WorkerPool pool = server.getWorkerPool();
+    if (pool == null) {
+      message.run();
+      return;
+    }
+    dispatched = true;
+    try {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          message.run();
+          loop.execute(resumeFrames);
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      dispatched = false;
+      webSocket.fail(WebSocket.TRY_AGAIN_LATER, "Server too busy.");
+    }
+  }
+
+  /**
+   * Continue reading frames, after a callback returned.
+   */
+  private final Runnable resumeFrames = new Runnable() {
+    @Override
+    public void run() {
+      dispatched = false;
+      if (channel.isOpen()) {
+        readFrames();
+      }
+    }
+  };
+
+  /**
+   * Queue a WebSocket frame and start writing.
+   * Has to be called on the event loop.
+   * 
+   * @param frame The encoded frame.
+   */
+  private void sendFrame(byte[] frame) {
+    if (!channel.isOpen()) {
+      return;
+    }
+    outputs.add(ByteBuffer.wrap(frame));
+    outputSize += frame.length;
+    if (outputSize > MAX_REQUEST_SIZE) {
+      AccessLog.error("WebSocket client doesn't keep up, closing connection.");
+      close();
+    } else if (outputs.size() == 1) {
+      onWritable();
+    }
+  }
+
+  /**
+   * Run a task on the event loop, right away if it's the current thread.
+   * 
+   * @param task The task.
+   */
+  private void onLoop(Runnable task) {
+    if (loop.inEventLoop()) {
+      task.run();
+    } else {
+      loop.execute(task);
+    }
+  }
+
+  /**
+   * Switch to HTTP/2.
+   * Has to be called on the event loop.
+   * 
+   * @param requestLine Request line of an upgrade request or null (prior knowledge).
+   * @param headers     Headers of the upgrade request.
+   * @param settings    Client settings of the upgrade request.
+   */
+  private void startHttp2(String[] requestLine, Headers headers, byte[] settings) {
+    http2 = new Http2Connection(server, new Http2Connection.Transport() {
+      private ArrayList<ByteBuffer> frames = new ArrayList<>();
+
+      @Override
+      public void send(byte[] bytes, int offset, int length) throws IOException {
+        if (!channel.isOpen()) {
+          throw new IOException("Connection closed.");
+        }
+        frames.add(ByteBuffer.wrap(bytes, offset, length));
+      }
+
+      @Override
+      public boolean flush() {
+        if (!frames.isEmpty()) {
+          // always queued, so the frames of all threads keep their order
+          final List<ByteBuffer> batch = frames;
+          frames = new ArrayList<>();
+          loop.execute(new Runnable() {
+            @Override
+            public void run() {
+              sendFrames(batch);
+            }
+          });
+        }
+        return false;
+      }
+
+      @Override
+      public void close() {
+        loop.execute(new Runnable() {
+          @Override
+          public void run() {
+            // after the pending frames, e.g. GOAWAY
+            keepAlive = false;
+            if (outputs.isEmpty()) {
+              NioConnection.this.close();
+            }
+          }
+        });
+      }
+
+      @Override
+      public boolean inReader() {
+        return loop.inEventLoop();
+      }
+    }, new Executor() {
+      @Override
+      public void execute(Runnable stream) {
+        WorkerPool pool = server.getWorkerPool();
+        if (pool != null) {
+          pool.execute(stream);
+        } else {
+          stream.run();
+        }
+      }
+    });
+    keepAlive = true;
+    if (requestLine != null) {
+      outputs.add(ByteBuffer.wrap(Http2Connection.SWITCHING_PROTOCOLS));
+      outputSize += Http2Connection.SWITCHING_PROTOCOLS.length;
+    }
+    http2.start();
+    if (requestLine != null) {
+      // the upgrade request is answered as stream 1
+      http2.upgrade(requestLine, headers, settings);
+    }
+    if (channel.isOpen()) {
+      key.interestOps(SelectionKey.OP_READ | (outputs.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+      readHttp2();
+    }
+  }
+
+  /**
+   * Process received HTTP/2 frames.
+   * Has to be called on the event loop.
+   */
+  private void readHttp2() {
+    int consumed = http2.receive(input.array(), 0, input.position());
+    if (!channel.isOpen()) {
+      return;
+    }
+    input.flip();
+    input.position(consumed);
+    input.compact();
+  }
+
+  /**
+   * Queue HTTP/2 frames and start writing.
+   * Has to be called on the event loop.
+   * 
+   * @param frames The frames.
+   */
+  private void sendFrames(List<ByteBuffer> frames) {
+    if (!channel.isOpen()) {
+      return;
+    }
+    for (ByteBuffer frame : frames) {
+      outputSize += frame.remaining();
+      outputs.add(frame);
+    }
+    onWritable();
+  }
+
+  /**
+   * Pass the request to its route.
+   * 
+   * @param  requestHeader The request line.
+   * @param  headers       The request headers.
+   * @param  body          The request body.
+   * @param  match         The route of a POST request.
+   * @param  last          Whether it's the last request on this connection.
+   * @param  buffer        Collects the response.
+   * @return               The served request or null, if it's invalid.
+   */
+  private Request handle(String[] requestHeader, Headers headers, RequestBody body, RouteTree.Match match,
+      boolean last, ResponseBuffer buffer) {
+    String requestType = requestHeader[0];
+    Request request = new Request(requestHeader, headers, server, buffer);
+    if (last) {
+      request.setKeepAlive(false);
+    }
+
+    // check request type: GET / POST
+    if (requestType.equals("GET")) {
+      request.parseGET();
+    } else if (requestType.equals("POST")) {
+      request.parsePOST(body, match);
+    } else {
+      AccessLog.error("Invalid request type.");
+      return null;
+    }
+    return request;
+  }
+
+  /**
+   * Queue a response on the event loop.
+   * 
+   * @param response  The collected response.
+   * @param keepAlive Whether the connection stays open afterwards.
+   */
+  private void respondLater(final ResponseBuffer response, final boolean keepAlive) {
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        respond(response, keepAlive);
+      }
+    });
+  }
+
+  /**
+   * Queue a response and start writing.
+   * Has to be called on the event loop.
+   * 
+   * @param response  The collected response.
+   * @param keepAlive Whether the connection stays open afterwards.
+   */
+  private void respond(ResponseBuffer response, boolean keepAlive) {
+    if (!channel.isOpen()) {
+      response.release();
+      return;
+    }
+    outputSize += response.length();
+    outputs.addAll(response.parts());
+    this.keepAlive = keepAlive;
+    this.streaming = false;
+    
+    if (keepAlive) {
+      consume();
+      // serve pipelined requests first, so their responses share one write
+      if (outputSize < MAX_COALESCE_SIZE && parse()) {
+        return;
+      }
+    }
+    if (channel.isOpen()) {
+      onWritable();
+    }
+  }
+
+  /**
+   * Hand over a part of a streamed response.
+   * Called by the thread writing the response, waits until the previous part is written.
+   * 
+   * @param  parts  ByteBuffers (read mode) and FileRegions.
+   * @param  length Length of all parts.
+   * @throws        IOException If the connection has been closed.
+   */
+  private void sendPart(final List<Object> parts, final long length) throws IOException {
+    if (loop.inEventLoop()) {
+      // the event loop can't wait for its own writes: queued in order, sent after the callback
+      if (!channel.isOpen()) {
+        throw new IOException("Connection closed.");
+      }
+    } else {
+      synchronized (partSent) {
+        try {
+          while (sendingPart && channel.isOpen()) {
+            partSent.wait();
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while streaming response.");
+        }
+        if (!channel.isOpen()) {
+          throw new IOException("Connection closed.");
+        }
+        sendingPart = true;
+      }
+    }
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (!channel.isOpen()) {
+          for (Object part : parts) {
+            if (part instanceof FileRegion) {
+              ((FileRegion) part).close();
+            }
+          }
+          signalPartSent();
+          return;
+        }
+        streaming = true;
+        outputSize += length;
+        outputs.addAll(parts);
+        onWritable();
+      }
+    });
+  }
+
+  /**
+   * Wake up a worker waiting to stream the next part.
+   */
+  private void signalPartSent() {
+    if (sendingPart) {
+      synchronized (partSent) {
+        sendingPart = false;
+        partSent.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Close the connection from any thread.
+   */
+  private void abort() {
+    onLoop(new Runnable() {
+      @Override
+      public void run() {
+        if (channel.isOpen()) {
+          close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Close the connection channel.
+   */
+  void close() {
+    for (Object part : outputs) {
+      if (part instanceof FileRegion) {
+        ((FileRegion) part).close();
+      }
+    }
+    outputs.clear();
+    key.cancel();
+    try {
+      channel.close();
+    } catch (IOException ex) {
+      AccessLog.error("I/O Exception while closing socket.");
+    }
+    signalPartSent();
+    if (webSocket != null) {
+      terminate(webSocket);
+    }
+    if (http2 != null) {
+      http2.closed();
+    }
+  }
+
+  /**
+   * Call the close callback of a WebSocket, outside of the current callback or frame.
+   * 
+   * @param socket The socket.
+   */
+  private void terminate(final WebSocket socket) {
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        socket.terminated();
+      }
+    };
+    WorkerPool pool = server.getWorkerPool();
+    try {
+      if (pool != null) {
+        pool.execute(task);
+        return;
+      }
+    } catch (RejectedExecutionException ex) {
+      // run on the event loop instead
+    }
+    loop.execute(task);
+  }
+
+  /**
+   * Copy a buffer into a larger one.
+   * 
+   * @param  buffer   Buffer in write mode.
+   * @param  capacity New capacity.
+   * @return          The new buffer in write mode.
+   */
+  private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+    ByteBuffer grown = ByteBuffer.allocate(Math.min(capacity, MAX_REQUEST_SIZE));
+    buffer.flip();
+    grown.put(buffer);
+    return grown;
+  }
+
+  /**
+   * Response sink, handed to the request.
+   * Collects written bytes in memory and file content as regions,
+   * which the event loop transfers with FileChannel.transferTo.
+   * Large streamed responses are handed over in parts on flush.
+   */
+  private static class ResponseBuffer extends ByteArrayOutputStream implements FileTransfer, Committable, Abortable {
+
+    private final ArrayList<Object> parts = new ArrayList<>(1);
+    private long length;
+
+    /**
+     * Receives streamed parts or null, if the response is sent at once.
+     */
+    private final NioConnection connection;
+
+    ResponseBuffer(NioConnection connection) {
+      super(BUFFER_SIZE);
+      this.connection = connection;
+    }
+
+    /**
+     * Hand the collected part over to the event loop, once it's large enough.
+     * 
+     * @throws IOException If the connection has been closed.
+     */
+    @Override
+    public void flush() throws IOException {
+      if (length() >= STREAM_PART_SIZE) {
+        commit();
+      }
+    }
+
+    /**
+     * Hand the collected part over to the event loop.
+     * 
+     * @throws IOException If the connection has been closed.
+     */
+    @Override
+    public void commit() throws IOException {
+      if (connection != null && length() > 0) {
+        List<Object> part = new ArrayList<>(parts());
+        long partLength = length;
+        parts.clear();
+        length = 0;
+        connection.sendPart(part, partLength);
+      }
+    }
+
+    /**
+     * Close the connection, e.g. for a client that doesn't read.
+     * A worker waiting to stream the next part is woken up.
+     */
+    @Override
+    public void abort() {
+      if (connection != null) {
+        connection.abort();
+      }
+    }
+
+    @Override
+    public void transferFile(File file, long position, long count) throws IOException {
+      if (!file.canRead()) {
+        throw new FileNotFoundException(file.getPath());
+      }
+      cut();
+      parts.add(new FileRegion(file, position, count));
+      length += count;
+    }
+
+    @Override
+    public void transferBuffer(ByteBuffer content) throws IOException {
+      cut();
+      parts.add(content.duplicate());
+      length += content.remaining();
+    }
+
+    /**
+     * Response parts in write order.
+     * 
+     * @return ByteBuffers (read mode) and FileRegions.
+     */
+    List<Object> parts() {
+      cut();
+      return parts;
+    }
+
+    /**
+     * Response length in bytes.
+     * 
+     * @return Length of all parts.
+     */
+    long length() {
+      return length + count;
+    }
+
+    /**
+     * Close file regions of a response, that won't be sent.
+     */
+    void release() {
+      for (Object part : parts) {
+        if (part instanceof FileRegion) {
+          ((FileRegion) part).close();
+        }
+      }
+    }
+
+    /**
+     * Wrap the written bytes without copying and start a new buffer.
+     */
+    private void cut() {
+      if (count > 0) {
+        parts.add(ByteBuffer.wrap(buf, 0, count));
+        length += count;
+        buf = new byte[BUFFER_SIZE];
+        count = 0;
+      }
+    }
+
+  }
+
+  /**
+   * File content, that is sent without copying it through the heap.
+   */
+  private static class FileRegion {
+
+    private final File file;
+    private final long end;
+    private long position;
+    private FileChannel fileChannel;
+
+    FileRegion(File file, long position, long count) {
+      this.file = file;
+      this.position = position;
+      this.end = position + count;
+    }
+
+    /**
+     * Transfer as much as the socket accepts.
+     * 
+     * @param  target The socket channel.
+     * @return        Whether the region was sent completely.
+     * @throws        IOException If the file is shorter than expected.
+     */
+    boolean transferTo(SocketChannel target) throws IOException {
+      if (fileChannel == null) {
+        fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      }
+      while (position < end) {
+        long transferred = fileChannel.transferTo(position, end - position, target);
+        if (transferred <= 0) {
+          if (position >= fileChannel.size()) {
+            throw new EOFException("File shorter than expected: " + file);
+          }
+          // socket buffer full
+          return false;
+        }
+        position += transferred;
+      }
+      close();
+      return true;
+    }
+
+    /**
+     * Close the file.
+     */
+    void close() {
+      if (fileChannel != null) {
+        try {
+          fileChannel.close();
+        } catch (IOException ex) {
+          AccessLog.error("I/O Exception while closing file.");
+        }
+        fileChannel = null;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,236 @@
+package net.metzweb.tinyserver;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking server engine.
+ * Accepts connections and distributes them over a few selector event loops,
+ * which read, parse and write without blocking a thread per connection.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class NioEngine {
+
+  private final TinyServer server;
+  private final EventLoop[] loops;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param server    TinyServer instance.
+   * @param loopCount Number of event loop threads.
+   */
+  NioEngine(TinyServer server, int loopCount) {
+    this.server = server;
+    this.loops = new EventLoop[Math.max(1, loopCount)];
+  }
+
+  /**
+   * Start event loops and accept connections.
+   * Blocks the calling thread, like TinyServer.start().
+   */
+  void start() {
+    int port = server.getPort();
+    try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+      serverChannel.bind(new InetSocketAddress(port));
+
+      for (int i = 0; i < loops.length; i++) {
+        loops[i] = new EventLoop(server);
+        Thread thread = new Thread(loops[i], "TinyServer-eventloop-" + (i + 1));
+        thread.setDaemon(true);
+        thread.start();
+      }
+
+      AccessLog.info("Server started: http://127.0.0.1:" + port);
+
+      // accept connections and assign them round-robin to the event loops
+      int next = 0;
+      while (true) {
+        try {
+          SocketChannel channel = serverChannel.accept();
+          channel.configureBlocking(false);
+          channel.socket().setTcpNoDelay(true);
+          loops[next].register(channel);
+          next = (next + 1) % loops.length;
+
+          AccessLog.info("Client connected: " + channel.socket());
+        } catch (ClosedChannelException e) {
+          break;
+        } catch (IOException e) {
+          AccessLog.error("Request couldn't be accepted.");
+        }
+      }
+    } catch (BindException e) {
+      AccessLog.error("Port already in use: " + port);
+    } catch (IOException e) {
+      AccessLog.error("Server couldn't be started: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Selector event loop.
+   * Owns its selector; other threads interact with it through tasks.
+   */
+  static class EventLoop implements Runnable {
+
+    /**
+     * Interval (ms) for closing idle connections.
+     */
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+
+    private final TinyServer server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Thread running this loop.
+     */
+    private volatile Thread thread;
+
+    /**
+     * Custom constructor.
+     * 
+     * @param server TinyServer instance.
+     * @throws       IOException If the selector can't be opened.
+     */
+    EventLoop(TinyServer server) throws IOException {
+      this.server = server;
+      this.selector = Selector.open();
+    }
+
+    /**
+     * Register a new connection with this loop.
+     * 
+     * @param channel Non-blocking socket channel.
+     */
+    void register(final SocketChannel channel) {
+      execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new NioConnection(channel, key, EventLoop.this, server));
+          } catch (IOException ex) {
+            AccessLog.error("I/O Exception while registering client.");
+            try {
+              channel.close();
+            } catch (IOException e) {
+              AccessLog.error("I/O Exception while closing socket.");
+            }
+          }
+        }
+      });
+    }
+
+    /**
+     * Run a task on the event loop thread.
+     * 
+     * @param task The task.
+     */
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    /**
+     * Whether the current thread is this loop's thread.
+     * 
+     * @return Whether it's called on the event loop.
+     */
+    boolean inEventLoop() {
+      return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Select ready channels and process them.
+     */
+    @Override
+    public void run() {
+      thread = Thread.currentThread();
+      long lastIdleCheck = System.currentTimeMillis();
+      while (selector.isOpen()) {
+        try {
+          selector.select(IDLE_CHECK_INTERVAL);
+
+          // run pending tasks first, e.g. registrations and finished responses
+          Runnable task;
+          while ((task = tasks.poll()) != null) {
+            try {
+              task.run();
+            } catch (RuntimeException ex) {
+              AccessLog.error("Exception in event loop task: " + ex);
+            }
+          }
+
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+              if (key.isValid() && key.isReadable()) {
+                connection.onReadable();
+              }
+              if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+              }
+            } catch (RuntimeException ex) {
+              // e.g. CancelledKeyException, the other connections are served on
+              fail(connection, ex);
+            }
+          }
+
+          long now = System.currentTimeMillis();
+          if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL) {
+            lastIdleCheck = now;
+            for (SelectionKey key : selector.keys()) {
+              NioConnection connection = (NioConnection) key.attachment();
+              try {
+                if (key.isValid()) {
+                  connection.closeIfIdle(now);
+                }
+              } catch (RuntimeException ex) {
+                fail(connection, ex);
+              }
+            }
+          }
+        } catch (IOException ex) {
+          AccessLog.error("I/O Exception in event loop.");
+        }
+      }
+    }
+
+    /**
+     * Close a connection, that failed unexpectedly.
+     * 
+     * @param connection The connection.
+     * @param ex         Its exception.
+     */
+    private void fail(NioConnection connection, RuntimeException ex) {
+      AccessLog.error("Exception in event loop: " + ex);
+      try {
+        connection.close();
+      } catch (RuntimeException e) {
+        AccessLog.error("Exception while closing connection: " + e);
+      }
+    }
+
+  }
+
+}
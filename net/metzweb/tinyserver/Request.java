@@ -1,13 +1,23 @@
 package net.metzweb.tinyserver;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.regex.Matcher;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
 import net.metzweb.tinyserver.response.PlainResponse;
 import net.metzweb.tinyserver.response.ResponseFormat;
+import net.metzweb.tinyserver.response.ResponseFormatFactory;
 
 /**
  * Request handler.
@@ -26,6 +36,16 @@ public class Request {
   private final OutputStream outputStream;
   private final TinyServer server;
 
+  /**
+   * Request headers.
+   */
+  private final Headers headers;
+
+  /**
+   * Whether the connection may serve another request.
+   */
+  private boolean keepAlive;
+
   /**
    * Holds GET request parameters.
    */
@@ -39,10 +59,29 @@ public class Request {
   private ResponseFormat response;
 
   /**
-   * POST data.
+   * POST body, read on demand.
    */
+  private RequestBody body;
+  private ByteBuffer bodyBuffer;
   private String requestData;
 
+  /**
+   * Completes once an asynchronous response has been written, null for synchronous routes.
+   */
+  private CompletableFuture<Void> completion;
+
+  /**
+   * WebSocket route, once the upgrade has been accepted.
+   */
+  private Route upgrade;
+
+  /**
+   * Whether the request is recorded in metrics or access log, the matching route and the start of its dispatch.
+   */
+  private boolean timed;
+  private Route route;
+  private long startTime;
+
   /**
    * Custom constructor.
    * 
@@ -51,9 +90,30 @@ public class Request {
    * @param writer  The connection writer.
    */
   public Request(String[] request, TinyServer server, OutputStream outputStream) {
+    this(request, Headers.EMPTY, server, outputStream);
+  }
+
+  /**
+   * Constructor with request headers.
+   * 
+   * @param request The request line, e.g. [GET, /hello/world.json, HTTP/1.1]
+   * @param headers The request headers.
+   * @param server  The server.
+   * @param writer  The connection writer.
+   */
+  public Request(String[] request, Headers headers, TinyServer server, OutputStream outputStream) {
     this.request = request;
+    this.headers = headers;
     this.server = server;
     this.outputStream = outputStream;
+    
+    // HTTP/1.1 connections are persistent by default, HTTP/1.0 only on demand
+    String connection = header("Connection");
+    if (request.length > 2 && request[2].equals("HTTP/1.1")) {
+      keepAlive = (connection == null || !connection.toLowerCase(Locale.ENGLISH).contains("close"));
+    } else {
+      keepAlive = (connection != null && connection.toLowerCase(Locale.ENGLISH).contains("keep-alive"));
+    }
     processResponseFormat(null);
   }
 
@@ -88,15 +148,15 @@ public class Request {
             addParam(decodedKey, decodedValue);
           } else {
             // error: parameter already exists
-            System.out.println("Couldn't add parameter '" + decodedKey + "', since it already exists.");
+            AccessLog.info("Couldn't add parameter '" + decodedKey + "', since it already exists.");
           }
         } catch (Exception e) {
-          System.out.println("Couldn't decode request params: " + e.getMessage());
+          AccessLog.info("Couldn't decode request params: " + e.getMessage());
         }
       }
     }
     
-    triggerRoute(requestURL, false);
+    triggerRoute(server.findRoute(requestURL, false));
   }
 
   /**
@@ -105,19 +165,142 @@ public class Request {
    * @param data Sent POST data.
    */
   protected void parsePOST(String data) {
-    requestData = data;
-    triggerRoute(request[1], true);
+    byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+    parsePOST(new RequestBody(new ByteArrayInputStream(bytes), bytes.length));
+  }
+
+  /**
+   * Parse POST request with a body, that hasn't been read yet.
+   * 
+   * @param body The request body.
+   */
+  void parsePOST(RequestBody body) {
+    parsePOST(body, server.findRoute(request[1], true));
+  }
+
+  /**
+   * Parse POST request, whose route has been found with its header.
+   * 
+   * @param body  The request body.
+   * @param match The requested route or null.
+   */
+  void parsePOST(RequestBody body, RouteTree.Match match) {
+    this.body = body;
+    triggerRoute(match);
   }
 
   /**
    * Returns POST data.
+   * Reads the body and decodes it as UTF-8.
    * 
-   * @return The POST data.
+   * @return The POST data or null, if the body couldn't be read.
    */
   public String getData() {
+    if (requestData == null) {
+      if (getBodyBuffer() != null) {
+        requestData = new String(bodyBuffer.array(), 0, bodyBuffer.limit(), StandardCharsets.UTF_8);
+      }
+    }
     return requestData;
   }
 
+  /**
+   * Returns the POST body as bytes.
+   * Reads the rest of the body, that hasn't been read from getBody().
+   * 
+   * @return Read-only buffer or null, if the body couldn't be read.
+   */
+  public ByteBuffer getBodyBuffer() {
+    if (bodyBuffer == null) {
+      if (body == null) {
+        bodyBuffer = ByteBuffer.allocate(0);
+      } else {
+        try {
+          bodyBuffer = ByteBuffer.wrap(body.readRemaining());
+        } catch (IOException ex) {
+          AccessLog.error("I/O Exception while reading request body.");
+          setKeepAlive(false);
+          return null;
+        }
+      }
+    }
+    return bodyBuffer.asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns the POST body as stream.
+   * It's read from the connection while it's consumed,
+   * so large uploads don't have to fit into memory.
+   * 
+   * @return Body stream, limited to the Content-Length.
+   */
+  public InputStream getBody() {
+    if (body == null) {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+    return body;
+  }
+
+  /**
+   * Content-Length Getter.
+   * 
+   * @return Body length in bytes, 0 for GET requests.
+   */
+  public long getContentLength() {
+    return (body != null) ? body.getLength() : 0;
+  }
+
+  /**
+   * Get a request header by its name.
+   * 
+   * @param  name Header name (case insensitive), e.g. Content-Type
+   * @return      The header's value or null if it doesn't exist.
+   */
+  public String header(String name) {
+    if (name == null) {
+      return null;
+    }
+    return headers.get(name);
+  }
+
+  /**
+   * Get all request headers.
+   * 
+   * @return The headers.
+   */
+  public Headers headers() {
+    return headers;
+  }
+
+  /**
+   * Whether the connection can serve another request, after this one.
+   * 
+   * @return Whether keep-alive was requested and the response allows it.
+   */
+  boolean isKeepAlive() {
+    return keepAlive && response.isPersistent();
+  }
+
+  /**
+   * Keep-alive Setter.
+   * Used by the connection to close it after this request.
+   * 
+   * @param keepAlive Whether the connection may stay open.
+   */
+  void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = this.keepAlive && keepAlive;
+    response.setKeepAlive(this.keepAlive);
+  }
+
+  /**
+   * Protocol Getter.
+   * 
+   * @return The protocol version, e.g. HTTP/1.1
+   */
+  public String getProtocol() {
+    return (request.length > 2) ? request[2] : "HTTP/1.0";
+  }
+
   /**
    * Get all parameter values.
    * Used to receive all wildcard values.
@@ -151,6 +334,25 @@ public class Request {
     response.success(data);
   }
 
+  /**
+   * Stream the response body.
+   * Alternative to write(data) for large generated content.
+   * 
+   * @return Body stream, closed after the callback.
+   */
+  public OutputStream stream() {
+    return response.stream();
+  }
+
+  /**
+   * Stream the response body as UTF-8 text.
+   * 
+   * @return Body writer, closed after the callback.
+   */
+  public Writer writer() {
+    return response.streamWriter();
+  }
+
   /**
    * Get response methods.
    * 
@@ -172,66 +374,202 @@ public class Request {
     if ((key != null && key.length() > 0) && !params.containsKey(key)) {
       params.put(key, value);
     } else {
-      System.err.println("Invalid or dublicate parameter: " + key);
+      AccessLog.error("Invalid or dublicate parameter: " + key);
     }
   }
 
   /**
    * Trigger route.
    * 
-   * @param requestURL  The requested URL.
-   * @param isPostRoute Whether it's a POST route.
+   * @param match The requested route or null.
    */
-  private void triggerRoute(String requestURL, boolean isPostRoute) {
-    if (server.isRouteRegistered(requestURL, isPostRoute)) {
-      Route route = server.getRoute(requestURL, isPostRoute);
+  private void triggerRoute(RouteTree.Match match) {
+    if (server.isMetricsEnabled() || server.getAccessLog() != null) {
+      // timed until the response is complete
+      timed = true;
+      startTime = System.nanoTime();
+    }
+    if (match != null) {
+      Route route = match.getRoute();
+      this.route = route;
       
-      if (route.isParamRoute()) {
-        Matcher matcher = route.getPattern().matcher(requestURL);
-        
-        // check if route params are available
-        if (matcher.find()) {
-          for (int i = 0; i < matcher.groupCount(); i++) {
-            // add route parameter
-            String paramKey = route.getParam(i);
-            if (paramKey.startsWith("*")) {
-              wildcardParams.add(matcher.group(i+1));
-            } else {
-              addParam(paramKey, matcher.group(i+1));
-            }
-          }
+      // add route parameters
+      List<String> values = match.getValues();
+      for (int i = 0; i < values.size(); i++) {
+        String paramKey = route.getParam(i);
+        if (paramKey.startsWith("*")) {
+          wildcardParams.add(values.get(i));
+        } else {
+          addParam(paramKey, values.get(i));
         }
       }
       
       // trigger callback
       processResponseFormat(route.getResponseFormat());
-      route.getCallback().callback(this);
-      
       try {
-        outputStream.close();
-      } catch (IOException ex) {
-        System.err.println("I/O Exception while closing writer.");
+        if (route.isWebSocket()) {
+          upgrade(route);
+        } else if (route.isAsync()) {
+          respondAsync(route.getAsyncCallback());
+        } else {
+          route.getCallback().callback(this);
+          finishResponse();
+        }
+      } finally {
+        if (completion == null) {
+          record();
+        }
       }
     } else {
       // route not found
       response.notFound();
+      record();
     }
   }
 
+  /**
+   * Trigger an asynchronous callback.
+   * The response is finished, once its stage completes.
+   * 
+   * @param callback The route callback.
+   */
+  private void respondAsync(AsyncResponse callback) {
+    CompletionStage<?> stage = callback.callback(this);
+    if (stage == null) {
+      finishResponse();
+      return;
+    }
+    completion = new CompletableFuture<>();
+    stage.whenComplete(new BiConsumer<Object, Throwable>() {
+      @Override
+      public void accept(Object result, Throwable failure) {
+        try {
+          if (failure != null) {
+            AccessLog.error("Exception in async route callback: " + failure);
+            if (!response.isStarted()) {
+              response.error();
+            } else {
+              // the response is incomplete
+              setKeepAlive(false);
+            }
+          }
+          finishResponse();
+        } finally {
+          record();
+          completion.complete(null);
+        }
+      }
+    });
+  }
+
+  /**
+   * Answer the WebSocket handshake.
+   * The connection switches to the WebSocket protocol afterwards.
+   * 
+   * @param route The WebSocket route.
+   */
+  private void upgrade(Route route) {
+    byte[] handshake = WebSocket.handshake(this);
+    try {
+      if (handshake != null) {
+        outputStream.write(handshake);
+        upgrade = route;
+      } else {
+        setKeepAlive(false);
+        outputStream.write(WebSocket.UPGRADE_REQUIRED);
+      }
+      outputStream.flush();
+    } catch (IOException ex) {
+      AccessLog.error("I/O Exception while upgrading connection.");
+    }
+  }
+
+  /**
+   * Whether the connection has to switch to the WebSocket protocol.
+   * 
+   * @return Whether the upgrade has been accepted.
+   */
+  boolean isUpgrade() {
+    return (upgrade != null);
+  }
+
+  /**
+   * Create the WebSocket of an accepted upgrade.
+   * 
+   * @param  transport Writes to the connection.
+   * @return           The socket.
+   */
+  WebSocket openWebSocket(WebSocket.Transport transport) {
+    long limit = upgrade.getMaxBodySize();
+    return new WebSocket(this, upgrade.getWebSocketCallback(), (limit >= 0) ? limit : server.getMaxBodySize(), transport);
+  }
+
+  /**
+   * Record the request in the metrics of its route and the access log, once the response is complete.
+   */
+  private void record() {
+    if (!timed) {
+      return;
+    }
+    timed = false;
+    long duration = System.nanoTime() - startTime;
+    int status;
+    if (route != null && route.isWebSocket()) {
+      status = (upgrade != null) ? 101 : 426;
+    } else {
+      // no header written: the callback failed or wrote nothing
+      status = (response.getStatus() > 0) ? response.getStatus() : 500;
+    }
+    long bytes = response.getBytesWritten();
+    if (route != null && server.isMetricsEnabled()) {
+      route.metrics().record(duration, status, bytes);
+    }
+    AccessLog log = server.getAccessLog();
+    if (log != null) {
+      log.request(request[0], request[1], (route != null) ? route.getPath() : null, status, bytes, duration);
+    }
+  }
+
+  /**
+   * Complete the response, after the callback.
+   */
+  private void finishResponse() {
+    response.finish();
+    try {
+      outputStream.flush();
+    } catch (IOException ex) {
+      AccessLog.error("I/O Exception while flushing writer.");
+    }
+  }
+
+  /**
+   * Completion of an asynchronous response.
+   * 
+   * @return Completes once the response has been written,
+   *         null if it has been written synchronously.
+   */
+  CompletableFuture<Void> getCompletion() {
+    return completion;
+  }
+
   /**
    * Process response format.
+   * The request writes to its own format instance.
    * 
-   * @param format Response class, defined in a Route.
+   * @param format Response format factory, defined in a Route.
    */
-  private void processResponseFormat(ResponseFormat format) {
+  private void processResponseFormat(ResponseFormatFactory format) {
+    if (format == null) {
+      format = server.getResponseFormat();
+    }
     if (format != null) {
-      response = format;
-    } else if (server.getResponseFormat() != null) {
-      response = server.getResponseFormat();
+      response = format.create();
     } else {
       response = new PlainResponse();
     }  
     response.setOutputStream(outputStream);
+    response.setRequest(this);
+    response.setKeepAlive(keepAlive);
   }
 
 }
@@ -0,0 +1,113 @@
+package net.metzweb.tinyserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Request body.
+ * Reads exactly Content-Length bytes from the connection, on demand.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class RequestBody extends InputStream {
+
+  private final InputStream source;
+  private final long length;
+  private long remaining;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param source Connection input, positioned at the body.
+   * @param length Content-Length.
+   */
+  RequestBody(InputStream source, long length) {
+    this.source = source;
+    this.length = length;
+    this.remaining = length;
+  }
+
+  /**
+   * Content-Length Getter.
+   * 
+   * @return Body length in bytes.
+   */
+  long getLength() {
+    return length;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (remaining <= 0) {
+      return -1;
+    }
+    int b = source.read();
+    if (b < 0) {
+      throw new EOFException("Request body incomplete.");
+    }
+    remaining--;
+    return b;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int count) throws IOException {
+    if (remaining <= 0) {
+      return -1;
+    }
+    int read = source.read(bytes, offset, (int) Math.min(count, remaining));
+    if (read < 0) {
+      throw new EOFException("Request body incomplete.");
+    }
+    remaining -= read;
+    return read;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (int) Math.min(source.available(), remaining);
+  }
+
+  /**
+   * Read the rest of the body.
+   * 
+   * @return The unread bytes.
+   * @throws IOException
+   */
+  byte[] readRemaining() throws IOException {
+    if (remaining > Integer.MAX_VALUE - 8) {
+      throw new IOException("Request body too large to buffer.");
+    }
+    byte[] bytes = new byte[(int) remaining];
+    int offset = 0;
+    while (offset < bytes.length) {
+      offset += read(bytes, offset, bytes.length - offset);
+    }
+    return bytes;
+  }
+
+  /**
+   * Skip the unread rest of the body, so the next request can be read.
+   * 
+   * @throws IOException
+   */
+  void discard() throws IOException {
+    byte[] skipped = new byte[(int) Math.min(remaining, 4096)];
+    while (remaining > 0) {
+      read(skipped, 0, skipped.length);
+    }
+  }
+
+  /**
+   * The connection stays open, the rest of the body is skipped after the callback.
+   */
+  @Override
+  public void close() {
+  }
+
+}
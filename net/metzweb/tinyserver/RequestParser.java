@@ -0,0 +1,347 @@
+package net.metzweb.tinyserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP request header parser.
+ * Works on the raw bytes of a connection: parse() can be called again
+ * as more bytes arrive and continues where it stopped.
+ * Enforces limits for the line length, header size and header count.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class RequestParser {
+
+  /**
+   * Maximum length of the request line and of a single header line.
+   */
+  static final int MAX_LINE_LENGTH = 8192;
+
+  /**
+   * Maximum size of the request line and headers.
+   */
+  static final int MAX_HEADER_SIZE = 64 * 1024;
+
+  /**
+   * Maximum number of header lines.
+   */
+  static final int MAX_HEADER_COUNT = 100;
+
+  /**
+   * Frequent tokens, shared instead of decoded per request.
+   */
+  private static final String[] TOKENS = {
+    "GET", "POST", "HEAD", "PUT", "DELETE", "OPTIONS", "HTTP/1.1", "HTTP/1.0"
+  };
+
+  /**
+   * Parsing state, relative to the offset of the request.
+   */
+  private int scanned;
+  private int lineStart;
+  private int requestStart;
+  private int requestLineEnd = -1;
+
+  /**
+   * Per header: name start, name end, value start, value end.
+   */
+  private int[] fields = new int[32];
+  private int headerCount;
+
+  private String[] requestLine;
+  private Headers headers;
+
+  /**
+   * Parse the request header.
+   * The bytes up to the previous call must be unchanged.
+   * 
+   * @param  bytes  Received bytes.
+   * @param  offset Start of the request.
+   * @param  length Number of received bytes from offset.
+   * @return        Length of the request header incl. the empty line,
+   *                or -1 if it's incomplete.
+   * @throws        ParseException If the request is malformed or exceeds a limit.
+   */
+  int parse(byte[] bytes, int offset, int length) throws ParseException {
+    for (int i = scanned; i < length; i++) {
+      if (bytes[offset + i] != '\n') {
+        continue;
+      }
+      int lineEnd = (i > lineStart && bytes[offset + i - 1] == '\r') ? i - 1 : i;
+      if (lineEnd - lineStart > MAX_LINE_LENGTH) {
+        throw tooLong();
+      }
+
+      if (requestLineEnd < 0) {
+        if (lineEnd > lineStart) {
+          requestStart = lineStart;
+          requestLineEnd = lineEnd;
+        }
+        // empty lines before a request are ignored
+      } else if (lineEnd == lineStart) {
+        // empty line: header complete
+        complete(bytes, offset, i + 1);
+        return i + 1;
+      } else {
+        addHeader(bytes, offset, lineStart, lineEnd);
+      }
+      lineStart = i + 1;
+    }
+
+    scanned = length;
+    if (length - lineStart > MAX_LINE_LENGTH) {
+      throw tooLong();
+    }
+    if (requestLineEnd >= 0 && length - requestStart > MAX_HEADER_SIZE) {
+      throw new ParseException("431 Request Header Fields Too Large");
+    }
+    return -1;
+  }
+
+  /**
+   * Request line of the parsed request.
+   * 
+   * @return e.g. [GET, /hello/world.json, HTTP/1.1]
+   */
+  String[] getRequestLine() {
+    return requestLine;
+  }
+
+  /**
+   * Headers of the parsed request.
+   * 
+   * @return The headers.
+   */
+  Headers getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Prepare for the next request.
+   */
+  void reset() {
+    scanned = 0;
+    lineStart = 0;
+    requestStart = 0;
+    requestLineEnd = -1;
+    headerCount = 0;
+    requestLine = null;
+    headers = null;
+  }
+
+  /**
+   * Record a header line.
+   * 
+   * @param  bytes     Received bytes.
+   * @param  offset    Start of the request.
+   * @param  lineStart Start of the line.
+   * @param  lineEnd   End of the line, without line break.
+   * @throws           ParseException
+   */
+  private void addHeader(byte[] bytes, int offset, int lineStart, int lineEnd) throws ParseException {
+    if (headerCount >= MAX_HEADER_COUNT) {
+      throw new ParseException("431 Request Header Fields Too Large");
+    }
+    byte first = bytes[offset + lineStart];
+    if (first == ' ' || first == '\t') {
+      // obsolete line folding
+      throw new ParseException("400 Bad Request");
+    }
+    int colon = lineStart;
+    while (colon < lineEnd && bytes[offset + colon] != ':') {
+      colon++;
+    }
+    if (colon == lineStart || colon == lineEnd || isWhitespace(bytes[offset + colon - 1])) {
+      throw new ParseException("400 Bad Request");
+    }
+    int valueStart = colon + 1;
+    int valueEnd = lineEnd;
+    while (valueStart < valueEnd && isWhitespace(bytes[offset + valueStart])) {
+      valueStart++;
+    }
+    while (valueEnd > valueStart && isWhitespace(bytes[offset + valueEnd - 1])) {
+      valueEnd--;
+    }
+
+    if (fields.length < (headerCount + 1) * 4) {
+      fields = Arrays.copyOf(fields, fields.length * 2);
+    }
+    // positions relative to the request line
+    int field = headerCount * 4;
+    fields[field] = lineStart - requestStart;
+    fields[field + 1] = colon - requestStart;
+    fields[field + 2] = valueStart - requestStart;
+    fields[field + 3] = valueEnd - requestStart;
+    headerCount++;
+  }
+
+  /**
+   * Split the request line and create the header table.
+   * 
+   * @param  bytes     Received bytes.
+   * @param  offset    Start of the request.
+   * @param  headerEnd End of the header, relative to offset.
+   * @throws           ParseException
+   */
+  private void complete(byte[] bytes, int offset, int headerEnd) throws ParseException {
+    // example: GET /hello/world.json HTTP/1.1
+    String[] tokens = new String[3];
+    int count = 0;
+    int i = requestStart;
+    while (i < requestLineEnd) {
+      while (i < requestLineEnd && isWhitespace(bytes[offset + i])) {
+        i++;
+      }
+      int start = i;
+      while (i < requestLineEnd && !isWhitespace(bytes[offset + i])) {
+        i++;
+      }
+      if (i > start) {
+        if (count == tokens.length) {
+          throw new ParseException("400 Bad Request");
+        }
+        tokens[count++] = token(bytes, offset + start, i - start);
+      }
+    }
+    if (count < 3 || !tokens[2].startsWith("HTTP/")) {
+      throw new ParseException("400 Bad Request");
+    }
+    requestLine = tokens;
+
+    // one copy of the header block per request, no objects per header
+    byte[] block = Arrays.copyOfRange(bytes, offset + requestStart, offset + headerEnd);
+    headers = new Headers(block, Arrays.copyOf(fields, headerCount * 4), headerCount);
+  }
+
+  /**
+   * Decode a request line token, reusing frequent ones.
+   * 
+   * @param  bytes  Received bytes.
+   * @param  start  Token start.
+   * @param  length Token length.
+   * @return        The token.
+   */
+  private static String token(byte[] bytes, int start, int length) {
+    for (String token : TOKENS) {
+      if (token.length() == length && matches(bytes, start, token)) {
+        return token;
+      }
+    }
+    return new String(bytes, start, length, StandardCharsets.UTF_8);
+  }
+
+  private static boolean matches(byte[] bytes, int start, String token) {
+    for (int i = 0; i < token.length(); i++) {
+      if (bytes[start + i] != token.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t';
+  }
+
+  private ParseException tooLong() {
+    return new ParseException(requestLineEnd < 0 ? "414 URI Too Long" : "431 Request Header Fields Too Large");
+  }
+
+  /**
+   * Interim response, that asks the client to send the body.
+   */
+  static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Get the body length of a request.
+   * 
+   * @param  headers The request headers.
+   * @return         Content-Length or 0, if there's no body.
+   * @throws         ParseException If the length is invalid or the body has a transfer coding.
+   */
+  static long contentLength(Headers headers) throws ParseException {
+    String value = headers.get("Content-Length");
+    if (headers.get("Transfer-Encoding") != null) {
+      // bodies are only delimited by Content-Length, both together are ambiguous
+      throw new ParseException(value == null ? "501 Not Implemented" : "400 Bad Request");
+    }
+    if (value == null) {
+      return 0;
+    }
+    try {
+      long length = Long.parseLong(value);
+      if (length >= 0) {
+        return length;
+      }
+    } catch (NumberFormatException ex) {
+      // handled below
+    }
+    throw new ParseException("400 Bad Request");
+  }
+
+  /**
+   * Check the body of a request against its size limit.
+   * 
+   * @param  headers       The request headers.
+   * @param  contentLength Content-Length.
+   * @param  maxBodySize   Maximum body size of the route.
+   * @return               Whether the client waits for 100 Continue before sending the body.
+   * @throws               ParseException If the body is too large or the expectation is unknown.
+   */
+  static boolean expectsContinue(Headers headers, long contentLength, long maxBodySize) throws ParseException {
+    String expect = headers.get("Expect");
+    if (expect != null && !expect.equalsIgnoreCase("100-continue")) {
+      throw new ParseException("417 Expectation Failed");
+    }
+    if (contentLength > maxBodySize) {
+      throw new ParseException("413 Payload Too Large");
+    }
+    return expect != null && contentLength > 0;
+  }
+
+  /**
+   * Build a raw error response, that closes the connection.
+   * 
+   * @param  status Status line, e.g. 400 Bad Request
+   * @return        The response bytes.
+   */
+  static byte[] errorResponse(String status) {
+    return ("HTTP/1.1 " + status + "\r\n"
+        + "Content-Length: 0\r\n"
+        + "Connection: close\r\n"
+        + "Server: TinyServer MetzWeb\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Malformed request, answered with an error status.
+   */
+  static class ParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String status;
+
+    ParseException(String status) {
+      super(status);
+      this.status = status;
+    }
+
+    /**
+     * Status Getter.
+     * 
+     * @return Status line, e.g. 400 Bad Request
+     */
+    String getStatus() {
+      return status;
+    }
+
+  }
+
+}
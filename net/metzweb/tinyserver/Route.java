@@ -3,7 +3,7 @@ package net.metzweb.tinyserver;
 import java.util.ArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import net.metzweb.tinyserver.response.ResponseFormat;
+import net.metzweb.tinyserver.response.ResponseFormatFactory;
 
 /**
  * Represents a route.
@@ -22,8 +22,23 @@ public class Route {
   private final String routeRegex;
   private final Pattern routePattern;
   private final Response callback;
+  private final AsyncResponse asyncCallback;
+  private final WebSocketResponse webSocketCallback;
 
-  private ResponseFormat responseFormat;
+  /**
+   * May be changed while the server is running.
+   */
+  private volatile ResponseFormatFactory responseFormat;
+
+  /**
+   * Maximum POST body or WebSocket message size in bytes, -1 for the server default.
+   */
+  private volatile long maxBodySize = -1;
+
+  /**
+   * Request metrics, created by the first recorded request.
+   */
+  private volatile RouteMetrics metrics;
 
   /**
    * Precompiled route pattern.
@@ -42,6 +57,30 @@ public class Route {
    * @param callback  The callback object.
    */
   public Route(String route, Response callback) {
+    this(route, callback, null, null);
+  }
+
+  /**
+   * Constructor with an asynchronous callback.
+   * 
+   * @param route     The route path.
+   * @param callback  The callback object, returning a CompletionStage.
+   */
+  public Route(String route, AsyncResponse callback) {
+    this(route, null, callback, null);
+  }
+
+  /**
+   * Constructor with a WebSocket callback.
+   * 
+   * @param route     The route path.
+   * @param callback  The callback object, receiving the messages.
+   */
+  public Route(String route, WebSocketResponse callback) {
+    this(route, null, null, callback);
+  }
+
+  private Route(String route, Response callback, AsyncResponse asyncCallback, WebSocketResponse webSocketCallback) {
     // make sure route starts with a backslash
     if (!route.startsWith("/")) {
       route = route + "/";
@@ -49,6 +88,8 @@ public class Route {
     
     this.route = route;
     this.callback = callback;
+    this.asyncCallback = asyncCallback;
+    this.webSocketCallback = webSocketCallback;
     
     // replace route param placeholder by regex.
     this.routeRegex = route.replaceAll("\\[(.*?)\\]", "([^\\/]+)").replaceAll("\\*\\.*?", "(.*)");
@@ -106,24 +147,112 @@ public class Route {
     return callback;
   }
 
+  /**
+   * Get the asynchronous callback object.
+   * 
+   * @return The callback or null, if the route is synchronous.
+   */
+  public AsyncResponse getAsyncCallback() {
+    return asyncCallback;
+  }
+
+  /**
+   * Indicates whether the route has an asynchronous callback.
+   * 
+   * @return 
+   */
+  public boolean isAsync() {
+    return (asyncCallback != null);
+  }
+
+  /**
+   * Get the WebSocket callback object.
+   * 
+   * @return The callback or null, if it isn't a WebSocket route.
+   */
+  public WebSocketResponse getWebSocketCallback() {
+    return webSocketCallback;
+  }
+
+  /**
+   * Indicates whether the route upgrades to a WebSocket.
+   * 
+   * @return 
+   */
+  public boolean isWebSocket() {
+    return (webSocketCallback != null);
+  }
+
   /**
    * Response format Getter.
    * 
-   * @return Response format object.
+   * @return Response format factory, e.g. an HtmlResponse prototype.
    */
-  public ResponseFormat getResponseFormat() {
+  public ResponseFormatFactory getResponseFormat() {
     return responseFormat;
   }
 
   /**
    * Response format Setter.
+   * Every request gets its own format created by the factory.
    * 
-   * @param format Response format object.
+   * @param format Response format factory, e.g. new HtmlResponse()
    */
-  public void setResponseFormat(ResponseFormat format) {
+  public void setResponseFormat(ResponseFormatFactory format) {
     responseFormat = format;
   }
 
+  /**
+   * Body size limit Getter.
+   * 
+   * @return Maximum POST body or WebSocket message size in bytes or -1 for the server default.
+   */
+  public long getMaxBodySize() {
+    return maxBodySize;
+  }
+
+  /**
+   * Body size limit Setter.
+   * Larger requests are refused with 413 Payload Too Large, before their body is read.
+   * Larger WebSocket messages close the socket with 1009.
+   * HTTP/1.1 bodies and messages in ExecutionMode.NIO are buffered, which caps the limit at 8 MB.
+   * 
+   * @param size Maximum POST body or WebSocket message size in bytes or -1 for the server default.
+   */
+  public void setMaxBodySize(long size) {
+    if (size < -1) {
+      throw new IllegalArgumentException("Invalid body size limit: " + size);
+    }
+    maxBodySize = size;
+  }
+
+  /**
+   * Metrics Getter.
+   * 
+   * @return Request metrics or null, if no request has been recorded.
+   */
+  public RouteMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Metrics of the route, created on demand.
+   * 
+   * @return Request metrics.
+   */
+  RouteMetrics metrics() {
+    RouteMetrics current = metrics;
+    if (current == null) {
+      synchronized (this) {
+        if (metrics == null) {
+          metrics = new RouteMetrics();
+        }
+        current = metrics;
+      }
+    }
+    return current;
+  }
+
   /**
    * Indicates whether the route path contains parameters.
    * 
@@ -0,0 +1,183 @@
+package net.metzweb.tinyserver;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics of a route.
+ * Records the latency of every request in a log-linear histogram
+ * (microseconds, 8 buckets per power of two, i.e. at most 12.5% error),
+ * counts status codes and body bytes. Recording is lock-free,
+ * percentiles are computed when the metrics are read.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public class RouteMetrics {
+
+  /**
+   * Histogram layout: 2^SUB_BUCKET_BITS buckets per power of two, up to 2^MAX_EXPONENT microseconds (~19 hours).
+   */
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 36;
+  private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  /**
+   * Counted status codes: 100 - 599
+   */
+  private static final int MIN_STATUS = 100;
+  private static final int MAX_STATUS = 599;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLongArray statusCodes = new AtomicLongArray(MAX_STATUS - MIN_STATUS + 1);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalMicros = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+
+  /**
+   * Record a request.
+   * 
+   * @param nanos  Latency in nanoseconds.
+   * @param status Response status code, e.g. 200
+   * @param bytes  Response body bytes.
+   */
+  void record(long nanos, int status, long bytes) {
+    long micros = Math.max(nanos / 1000, 0);
+    buckets.incrementAndGet(bucket(micros));
+    if (status >= MIN_STATUS && status <= MAX_STATUS) {
+      statusCodes.incrementAndGet(status - MIN_STATUS);
+    }
+    count.increment();
+    totalMicros.add(micros);
+    bytesWritten.add(bytes);
+  }
+
+  /**
+   * Request count Getter.
+   * 
+   * @return Number of recorded requests.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Total latency Getter.
+   * 
+   * @return Sum of all latencies in microseconds.
+   */
+  public long getTotalMicros() {
+    return totalMicros.sum();
+  }
+
+  /**
+   * Body bytes Getter.
+   * 
+   * @return Number of response body bytes, after compression.
+   */
+  public long getBytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  /**
+   * Latency percentile.
+   * 
+   * @param  quantile e.g. 0.99
+   * @return          Upper bound of the latency in microseconds, 0 if nothing has been recorded.
+   */
+  public long getPercentile(double quantile) {
+    return getPercentiles(quantile)[0];
+  }
+
+  /**
+   * Latency percentiles, computed from one snapshot of the histogram.
+   * 
+   * @param  quantiles e.g. 0.5, 0.99, 0.999
+   * @return           Upper bounds of the latencies in microseconds, 0 if nothing has been recorded.
+   */
+  public long[] getPercentiles(double... quantiles) {
+    long[] snapshot = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = buckets.get(i);
+      total += snapshot[i];
+    }
+    long[] values = new long[quantiles.length];
+    if (total == 0) {
+      return values;
+    }
+    for (int q = 0; q < quantiles.length; q++) {
+      // rank of the percentile, at least the first request
+      long rank = Math.max((long) Math.ceil(quantiles[q] * total), 1);
+      long seen = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        seen += snapshot[i];
+        if (seen >= rank) {
+          values[q] = upperBound(i);
+          break;
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Status code counts Getter.
+   * 
+   * @return Number of responses by status code, only codes that occurred.
+   */
+  public Map<Integer, Long> getStatusCounts() {
+    Map<Integer, Long> counts = new TreeMap<>();
+    for (int i = 0; i < statusCodes.length(); i++) {
+      long value = statusCodes.get(i);
+      if (value > 0) {
+        counts.put(MIN_STATUS + i, value);
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Histogram bucket of a latency.
+   * Values below 2^SUB_BUCKET_BITS get a bucket each,
+   * larger ones are split into SUB_BUCKETS per power of two.
+   * 
+   * @param  micros Latency in microseconds.
+   * @return        Bucket index.
+   */
+  static int bucket(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Largest latency of a bucket.
+   * 
+   * @param  bucket Bucket index.
+   * @return        Latency in microseconds.
+   */
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int subBucket = bucket % SUB_BUCKETS;
+    int shift = exponent - SUB_BUCKET_BITS;
+    return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+  }
+
+}
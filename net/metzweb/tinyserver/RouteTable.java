@@ -0,0 +1,101 @@
+package net.metzweb.tinyserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable route table snapshot.
+ * Registering or removing a route creates a new table, which replaces the
+ * current one atomically, so lookups never need a lock.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+final class RouteTable {
+
+  /**
+   * Table without routes.
+   */
+  static final RouteTable EMPTY = new RouteTable(Collections.<Route>emptyList(), Collections.<Route>emptyList());
+
+  // registered GET and POST routes, in registration order
+  private final List<Route> getRoutes;
+  private final List<Route> postRoutes;
+
+  // GET and POST route matchers
+  private final RouteTree getTree;
+  private final RouteTree postTree;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param getRoutes  GET routes.
+   * @param postRoutes POST routes.
+   */
+  private RouteTable(List<Route> getRoutes, List<Route> postRoutes) {
+    this.getRoutes = Collections.unmodifiableList(getRoutes);
+    this.postRoutes = Collections.unmodifiableList(postRoutes);
+    this.getTree = new RouteTree(getRoutes);
+    this.postTree = new RouteTree(postRoutes);
+  }
+
+  /**
+   * Create a table with an additional route.
+   * 
+   * @param  route       The new route.
+   * @param  isPostRoute Whether it's a POST route.
+   * @return             The new table.
+   */
+  RouteTable withRoute(Route route, boolean isPostRoute) {
+    List<Route> routes = new ArrayList<>(isPostRoute ? postRoutes : getRoutes);
+    routes.add(route);
+    return isPostRoute ? new RouteTable(getRoutes, routes) : new RouteTable(routes, postRoutes);
+  }
+
+  /**
+   * Create a table without a route.
+   * 
+   * @param  route The route to remove.
+   * @return       The new table or this table, if the route isn't registered.
+   */
+  RouteTable withoutRoute(Route route) {
+    if (getRoutes.contains(route)) {
+      List<Route> routes = new ArrayList<>(getRoutes);
+      routes.remove(route);
+      return new RouteTable(routes, postRoutes);
+    }
+    if (postRoutes.contains(route)) {
+      List<Route> routes = new ArrayList<>(postRoutes);
+      routes.remove(route);
+      return new RouteTable(getRoutes, routes);
+    }
+    return this;
+  }
+
+  /**
+   * Find the route of a path, including its parameter values.
+   * 
+   * @param  path        The request path.
+   * @param  isPostRoute Whether it's a POST route.
+   * @return             The match or null.
+   */
+  RouteTree.Match find(String path, boolean isPostRoute) {
+    return (isPostRoute) ? postTree.find(path) : getTree.find(path);
+  }
+
+  /**
+   * Registered routes Getter.
+   * 
+   * @param  isPostRoute Whether to return the POST routes.
+   * @return             Unmodifiable route list.
+   */
+  List<Route> getRoutes(boolean isPostRoute) {
+    return (isPostRoute) ? postRoutes : getRoutes;
+  }
+
+}
@@ -0,0 +1,283 @@
+package net.metzweb.tinyserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Route matcher.
+ * Stores routes in a tree of path segments, so a request path is matched
+ * with a single walk instead of testing every route regex.
+ * The tree isn't modified after construction and can be shared by all connections.
+ * 
+ * Precedence per segment: static > [param] > mixed (e.g. [name].json) > wildcard (*)
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class RouteTree {
+
+  /**
+   * Placeholders within a segment.
+   */
+  private static final Pattern PLACEHOLDER = Pattern.compile("\\[(.*?)\\]|\\*");
+
+  private final Node root = new Node();
+
+  /**
+   * Custom constructor.
+   * 
+   * @param routes Routes, in registration order.
+   */
+  RouteTree(List<Route> routes) {
+    for (Route route : routes) {
+      add(route);
+    }
+  }
+
+  /**
+   * Add a route.
+   * If the same path is already registered, the first route is kept.
+   * 
+   * @param route The route.
+   */
+  private void add(Route route) {
+    Node node = root;
+    for (String segment : split(route.getPath())) {
+      node = node.child(segment);
+    }
+    if (node.route == null) {
+      node.route = route;
+    }
+  }
+
+  /**
+   * Find the route matching a request path.
+   * 
+   * @param  path The request path, e.g. /hello/world.json
+   * @return      The route and its parameter values or null.
+   */
+  Match find(String path) {
+    if (!path.startsWith("/")) {
+      return null;
+    }
+    List<String> values = new ArrayList<>(4);
+    Route route = find(root, path, 1, values);
+    return (route != null) ? new Match(route, values) : null;
+  }
+
+  /**
+   * Match the path from a segment on.
+   * 
+   * @param  node   Current tree node.
+   * @param  path   The request path.
+   * @param  start  Start index of the segment, beyond the path if all segments are matched.
+   * @param  values Collected parameter values.
+   * @return        The matching route or null.
+   */
+  private Route find(Node node, String path, int start, List<String> values) {
+    if (start > path.length()) {
+      return node.route;
+    }
+    int end = path.indexOf('/', start);
+    if (end < 0) {
+      end = path.length();
+    }
+    int size = values.size();
+    Route route;
+
+    // static segment
+    if (node.statics != null) {
+      Node child = node.statics.get(path.substring(start, end));
+      if (child != null && (route = find(child, path, end + 1, values)) != null) {
+        return route;
+      }
+    }
+
+    // [param] segment, has to be non-empty
+    if (node.param != null && end > start) {
+      values.add(path.substring(start, end));
+      if ((route = find(node.param, path, end + 1, values)) != null) {
+        return route;
+      }
+      truncate(values, size);
+    }
+
+    // mixed segment, e.g. [name].json
+    if (node.patterns != null) {
+      for (Node child : node.patterns) {
+        Matcher matcher = child.pattern.matcher(path).region(start, end);
+        if (matcher.matches()) {
+          for (int i = 1; i <= matcher.groupCount(); i++) {
+            values.add(matcher.group(i));
+          }
+          if ((route = find(child, path, end + 1, values)) != null) {
+            return route;
+          }
+          truncate(values, size);
+        }
+      }
+    }
+
+    // wildcard, spans one or more segments (longest first)
+    if (node.wildcard != null) {
+      int wildcardEnd = path.length();
+      while (wildcardEnd >= end) {
+        values.add(path.substring(start, wildcardEnd));
+        if ((route = find(node.wildcard, path, wildcardEnd + 1, values)) != null) {
+          return route;
+        }
+        truncate(values, size);
+        wildcardEnd = (wildcardEnd > end) ? path.lastIndexOf('/', wildcardEnd - 1) : -1;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Split a route path into its segments.
+   * 
+   * @param  path Route path, e.g. /hello/[name]
+   * @return      The segments, e.g. [hello, [name]]
+   */
+  private static String[] split(String path) {
+    return path.substring(path.startsWith("/") ? 1 : 0).split("/", -1);
+  }
+
+  /**
+   * Remove values added by a failed branch.
+   * 
+   * @param values Collected parameter values.
+   * @param size   Size to restore.
+   */
+  private static void truncate(List<String> values, int size) {
+    while (values.size() > size) {
+      values.remove(values.size() - 1);
+    }
+  }
+
+  /**
+   * Matched route with its parameter values.
+   * Values are ordered like the route's placeholders.
+   */
+  static class Match {
+
+    private final Route route;
+    private final List<String> values;
+
+    Match(Route route, List<String> values) {
+      this.route = route;
+      this.values = values;
+    }
+
+    Route getRoute() {
+      return route;
+    }
+
+    List<String> getValues() {
+      return values;
+    }
+
+  }
+
+  /**
+   * Tree node, represents a route segment.
+   */
+  private static class Node {
+
+    private HashMap<String, Node> statics;
+    private Node param;
+    private ArrayList<Node> patterns;
+    private Node wildcard;
+
+    /**
+     * Segment regex and source of mixed segments.
+     */
+    private Pattern pattern;
+    private String segment;
+
+    /**
+     * Route ending at this node.
+     */
+    private Route route;
+
+    /**
+     * Get or create the child node of a route segment.
+     * 
+     * @param  segment The route segment.
+     * @return         The child node.
+     */
+    Node child(String segment) {
+      if (segment.equals("*")) {
+        if (wildcard == null) {
+          wildcard = new Node();
+        }
+        return wildcard;
+      }
+      if (segment.startsWith("[") && segment.endsWith("]") && segment.indexOf(']') == segment.length() - 1) {
+        if (param == null) {
+          param = new Node();
+        }
+        return param;
+      }
+      if (!PLACEHOLDER.matcher(segment).find()) {
+        if (statics == null) {
+          statics = new HashMap<>();
+        }
+        Node child = statics.get(segment);
+        if (child == null) {
+          child = new Node();
+          statics.put(segment, child);
+        }
+        return child;
+      }
+
+      if (patterns == null) {
+        patterns = new ArrayList<>();
+      }
+      for (Node child : patterns) {
+        if (child.segment.equals(segment)) {
+          return child;
+        }
+      }
+      Node child = new Node();
+      child.segment = segment;
+      child.pattern = compile(segment);
+      patterns.add(child);
+      return child;
+    }
+
+    /**
+     * Compile a mixed segment into a regex.
+     * Placeholders never span a slash.
+     * 
+     * @param  segment Segment, e.g. [name].json
+     * @return         Regex, e.g. ([^/]+)\.json
+     */
+    private static Pattern compile(String segment) {
+      StringBuilder regex = new StringBuilder();
+      Matcher matcher = PLACEHOLDER.matcher(segment);
+      int last = 0;
+      while (matcher.find()) {
+        if (matcher.start() > last) {
+          regex.append(Pattern.quote(segment.substring(last, matcher.start())));
+        }
+        regex.append(matcher.group(1) != null ? "([^/]+)" : "([^/]*)");
+        last = matcher.end();
+      }
+      if (last < segment.length()) {
+        regex.append(Pattern.quote(segment.substring(last)));
+      }
+      return Pattern.compile(regex.toString());
+    }
+
+  }
+
+}
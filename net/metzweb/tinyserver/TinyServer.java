@@ -1,11 +1,18 @@
 package net.metzweb.tinyserver;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.BindException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.LinkedList;
-import java.util.regex.Pattern;
-import net.metzweb.tinyserver.response.ResponseFormat;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import net.metzweb.tinyserver.response.PlainResponse;
+import net.metzweb.tinyserver.response.ResponseFormatFactory;
 
 /**
  * TinyServer application logic.
@@ -20,14 +27,56 @@ public class TinyServer {
 
   private final int port;
 
-  // collected GET and POST routes
-  private LinkedList<Route> getRoutes = new LinkedList<>();
-  private LinkedList<Route> postRoutes = new LinkedList<>();
+  /**
+   * Kind of threads serving the connections.
+   */
+  private final ExecutionMode executionMode;
+  private final ThreadFactory threadFactory;
+
+  // GET and POST routes, replaced atomically on every change
+  private final AtomicReference<RouteTable> routes = new AtomicReference<>(RouteTable.EMPTY);
+
+  /**
+   * Default response format, creates a format per request.
+   */
+  private volatile ResponseFormatFactory responseFormat = null;
+
+  /**
+   * Optional bounded worker pool.
+   * Without a pool, every connection gets its own thread.
+   */
+  private WorkerPool workerPool = null;
 
   /**
-   * Route specific response format.
+   * Number of selector threads in ExecutionMode.NIO
    */
-  private ResponseFormat responseFormat = null;
+  private int eventLoopCount = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Keep-alive limits: requests per connection and idle timeout (ms).
+   */
+  private int maxKeepAliveRequests = 100;
+  private int keepAliveTimeout = 5000;
+
+  /**
+   * Default maximum POST body size in bytes, routes may override it.
+   */
+  private volatile long maxBodySize = 8 * 1024 * 1024;
+
+  /**
+   * Whether clients may switch to HTTP/2 (h2c).
+   */
+  private volatile boolean http2Enabled = false;
+
+  /**
+   * Whether requests are recorded in the metrics of their routes.
+   */
+  private volatile boolean metricsEnabled = false;
+
+  /**
+   * Request log or null.
+   */
+  private volatile AccessLog accessLog = null;
 
   /**
    * Custom constructor.
@@ -42,7 +91,24 @@ public class TinyServer {
    * @param port  The server port.
    */
   public TinyServer(int port) {
+    this(port, ExecutionMode.BLOCKING);
+  }
+
+  /**
+   * Constructor with custom port and execution mode.
+   * 
+   * @param port  The server port.
+   * @param mode  Thread model, e.g. ExecutionMode.VIRTUAL
+   * @throws      UnsupportedOperationException If virtual threads aren't available.
+   */
+  public TinyServer(int port, ExecutionMode mode) {
     this.port = port;
+    this.executionMode = (mode != null) ? mode : ExecutionMode.BLOCKING;
+    if (executionMode == ExecutionMode.VIRTUAL) {
+      this.threadFactory = VirtualThreads.factory("TinyServer-virtual-");
+    } else {
+      this.threadFactory = new ConnectionThreadFactory();
+    }
   }
 
   /**
@@ -54,7 +120,7 @@ public class TinyServer {
    */
   public Route get(String route, Response callback) {
     Route routeObj = new Route(route, callback);
-    getRoutes.add(routeObj);
+    addRoute(routeObj, false);
     return routeObj;
   }
 
@@ -67,35 +133,183 @@ public class TinyServer {
    */
   public Route post(String route, Response callback) {
     Route routeObj = new Route(route, callback);
-    postRoutes.add(routeObj);
+    addRoute(routeObj, true);
+    return routeObj;
+  }
+
+  /**
+   * Register a new GET route with an asynchronous callback.
+   * 
+   * @param  String        Route path (has to start with a backslash).
+   * @param  AsyncResponse Callback object, returning a CompletionStage.
+   * @return Route         Route object.
+   */
+  public Route getAsync(String route, AsyncResponse callback) {
+    Route routeObj = new Route(route, callback);
+    addRoute(routeObj, false);
     return routeObj;
   }
 
+  /**
+   * Register a new POST route with an asynchronous callback.
+   * 
+   * @param  String        Route path (has to start with a backslash).
+   * @param  AsyncResponse Callback object, returning a CompletionStage.
+   * @return Route         Route object.
+   */
+  public Route postAsync(String route, AsyncResponse callback) {
+    Route routeObj = new Route(route, callback);
+    addRoute(routeObj, true);
+    return routeObj;
+  }
+
+  /**
+   * Register a new WebSocket route.
+   * GET requests to the route are upgraded to a WebSocket.
+   * 
+   * @param  String            Route path (has to start with a backslash).
+   * @param  WebSocketResponse Callback object, receiving the messages.
+   * @return Route             Route object.
+   */
+  public Route webSocket(String route, WebSocketResponse callback) {
+    Route routeObj = new Route(route, callback);
+    addRoute(routeObj, false);
+    return routeObj;
+  }
+
+  /**
+   * Register the metrics route.
+   * Enables request metrics and reports them in the Prometheus text format.
+   * 
+   * @param  String Route path (has to start with a backslash), e.g. /metrics
+   * @return Route  Route object.
+   */
+  public Route metrics(String route) {
+    Route routeObj = new Route(route, new MetricsResponse(this));
+    // independent of the default format
+    routeObj.setResponseFormat(new PlainResponse());
+    metricsEnabled = true;
+    addRoute(routeObj, false);
+    return routeObj;
+  }
+
+  /**
+   * Remove a registered GET or POST route.
+   * Can be called while the server is running.
+   * 
+   * @param  route Route object, as returned by get() or post().
+   * @return       Whether the route was registered.
+   */
+  public boolean removeRoute(Route route) {
+    while (true) {
+      RouteTable table = routes.get();
+      RouteTable updated = table.withoutRoute(route);
+      if (updated == table) {
+        return false;
+      }
+      if (routes.compareAndSet(table, updated)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Publish a new route table including the route.
+   * 
+   * @param route       The new route.
+   * @param isPostRoute Whether it's a POST route.
+   */
+  private void addRoute(Route route, boolean isPostRoute) {
+    while (true) {
+      RouteTable table = routes.get();
+      if (routes.compareAndSet(table, table.withRoute(route, isPostRoute))) {
+        return;
+      }
+    }
+  }
+
   /**
    * Start server and listen for connections.
    */
   public void start() {
-    // open Server stream
-    try (ServerSocket serverSocket = new ServerSocket(port)) {      
-      System.out.println("Server started: http://127.0.0.1:" + port);
+    if (executionMode == ExecutionMode.NIO) {
+      new NioEngine(this, eventLoopCount).start();
+      return;
+    }
+    
+    // open Server stream, sockets with channels allow zero-copy file transfers
+    try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+      serverChannel.bind(new InetSocketAddress(port));
+      AccessLog.info("Server started: http://127.0.0.1:" + port);
       
       // listen for connections
       while (true) {
         try {
           // accept connection and receive socket
-          Socket socket = serverSocket.accept();
+          Socket socket = serverChannel.accept().socket();
           // establish connection
           Connection connection = new Connection(socket, this);
-          // start connection thread
-          connection.start();
+          // serve connection on a worker or its own thread
+          dispatch(connection);
           
-          System.out.println("Client connected: " + socket);
+          AccessLog.info("Client connected: " + socket);
+        } catch (ClosedChannelException e) {
+          break;
         } catch (IOException e) {
-          System.err.println("Request couldn't be accepted.");
+          AccessLog.error("Request couldn't be accepted.");
         }
       }
+    } catch (BindException e) {
+      AccessLog.error("Port already in use: " + port);
     } catch (IOException e) {
-      System.err.println("Port already in use: " + port);
+      AccessLog.error("Server couldn't be started: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Hand a connection over to the worker pool, if configured.
+   * 
+   * @param connection The accepted connection.
+   */
+  void dispatch(Connection connection) {
+    if (workerPool != null) {
+      workerPool.execute(connection);
+    } else {
+      threadFactory.newThread(connection).start();
+    }
+  }
+
+  /**
+   * Resume a connection after an asynchronous response.
+   * Its response has already been sent, so if no worker is free,
+   * it's closed instead of applying the rejection policy.
+   * 
+   * @param connection The suspended connection.
+   */
+  void resume(Connection connection) {
+    if (workerPool == null) {
+      threadFactory.newThread(connection).start();
+      return;
+    }
+    try {
+      workerPool.resume(connection);
+    } catch (RejectedExecutionException ex) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Run a task on the worker pool, if configured, or on its own thread.
+   * Used to serve the streams of HTTP/2 connections.
+   * 
+   * @param  task The task.
+   * @throws      RejectedExecutionException If the pool rejected it (REJECT or DROP policy).
+   */
+  void execute(Runnable task) {
+    if (workerPool != null) {
+      workerPool.execute(task);
+    } else {
+      threadFactory.newThread(task).start();
     }
   }
 
@@ -108,6 +322,15 @@ public class TinyServer {
     return port;
   }
 
+  /**
+   * Execution mode Getter.
+   * 
+   * @return The execution mode.
+   */
+  public ExecutionMode getExecutionMode() {
+    return executionMode;
+  }
+
   /**
    * Check whether a route path is registered.
    * 
@@ -115,13 +338,7 @@ public class TinyServer {
    * @return        Wherher route is registered.
    */
   public boolean isRouteRegistered(String route, boolean isPostRoute) {
-    LinkedList<Route> routes = (isPostRoute) ? postRoutes : getRoutes;
-    for (Route entry : routes) {
-      if (Pattern.matches(entry.getRegex(), route)) {
-        return true;
-      }
-    }
-    return false;
+    return findRoute(route, isPostRoute) != null;
   }
 
   /**
@@ -131,40 +348,253 @@ public class TinyServer {
    * @return        Response callback object, implementing the Response interface.
    */
   public Route getRoute(String route, boolean isPostRoute) {
-    LinkedList<Route> routes = (isPostRoute) ? postRoutes : getRoutes;
-    for (Route entry : routes) {
-      if (Pattern.matches(entry.getRegex(), route)) {
-        return entry;
-      }
-    }
-    return null;
+    RouteTree.Match match = findRoute(route, isPostRoute);
+    return (match != null) ? match.getRoute() : null;
+  }
+
+  /**
+   * Find the route of a path, including its parameter values.
+   * 
+   * @param route       The route path.
+   * @param isPostRoute Whether it's a POST route.
+   * @return            The match or null.
+   */
+  RouteTree.Match findRoute(String route, boolean isPostRoute) {
+    return routes.get().find(route, isPostRoute);
   }
 
   /**
    * GET route Getter.
    * 
-   * @return Map that holds registered routes and their callbacks.
+   * @return Snapshot of the registered GET routes.
    */
   public LinkedList<Route> getRoutes() {
-    return getRoutes;
+    return new LinkedList<>(routes.get().getRoutes(false));
+  }
+
+  /**
+   * POST route Getter.
+   * 
+   * @return Snapshot of the registered POST routes.
+   */
+  public LinkedList<Route> getPostRoutes() {
+    return new LinkedList<>(routes.get().getRoutes(true));
   }
 
   /**
    * Response format Setter.
+   * Every request gets its own format created by the factory.
    * 
-   * @param format Response format object e.g. HtmlResponse
+   * @param format Response format factory e.g. new HtmlResponse()
    */
-  public void setResponseFormat(ResponseFormat format) {
+  public void setResponseFormat(ResponseFormatFactory format) {
     responseFormat = format;
   }
 
   /**
    * Response format Getter.
    * 
-   * @return Response format object e.g. HtmlResponse
+   * @return Response format factory e.g. an HtmlResponse prototype.
    */
-  public ResponseFormat getResponseFormat() {
+  public ResponseFormatFactory getResponseFormat() {
     return responseFormat;
   }
 
+  /**
+   * Worker pool Setter.
+   * Has to be called before the server is started.
+   * 
+   * Only available in ExecutionMode.BLOCKING, since virtual threads don't need pooling.
+   * 
+   * @param pool Worker pool or null for a thread per connection.
+   */
+  public void setWorkerPool(WorkerPool pool) {
+    if (pool != null && executionMode == ExecutionMode.VIRTUAL) {
+      throw new IllegalStateException("Worker pools can't be used with virtual threads.");
+    }
+    workerPool = pool;
+  }
+
+  /**
+   * Worker pool Getter.
+   * 
+   * @return The worker pool or null.
+   */
+  public WorkerPool getWorkerPool() {
+    return workerPool;
+  }
+
+  /**
+   * Event loop count Setter.
+   * Only used in ExecutionMode.NIO and has to be called before the server is started.
+   * 
+   * @param count Number of selector threads (default: number of CPU cores).
+   */
+  public void setEventLoopCount(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("At least one event loop is required.");
+    }
+    eventLoopCount = count;
+  }
+
+  /**
+   * Event loop count Getter.
+   * 
+   * @return Number of selector threads.
+   */
+  public int getEventLoopCount() {
+    return eventLoopCount;
+  }
+
+  /**
+   * Keep-alive request limit Setter.
+   * A value of 1 disables keep-alive.
+   * 
+   * @param maxRequests Maximum number of requests per connection (default: 100).
+   */
+  public void setMaxKeepAliveRequests(int maxRequests) {
+    if (maxRequests < 1) {
+      throw new IllegalArgumentException("At least one request per connection is required.");
+    }
+    maxKeepAliveRequests = maxRequests;
+  }
+
+  /**
+   * Keep-alive request limit Getter.
+   * 
+   * @return Maximum number of requests per connection.
+   */
+  public int getMaxKeepAliveRequests() {
+    return maxKeepAliveRequests;
+  }
+
+  /**
+   * Keep-alive timeout Setter.
+   * 
+   * @param timeout Idle time in milliseconds, before a connection is closed (default: 5000).
+   */
+  public void setKeepAliveTimeout(int timeout) {
+    if (timeout < 1) {
+      throw new IllegalArgumentException("Invalid keep-alive timeout: " + timeout);
+    }
+    keepAliveTimeout = timeout;
+  }
+
+  /**
+   * Keep-alive timeout Getter.
+   * 
+   * @return Idle time in milliseconds.
+   */
+  public int getKeepAliveTimeout() {
+    return keepAliveTimeout;
+  }
+
+  /**
+   * Body size limit Setter.
+   * Larger requests are refused with 413 Payload Too Large, before their body is read.
+   * HTTP/1.1 requests in ExecutionMode.NIO are buffered, which caps the limit at 8 MB (including the header).
+   * 
+   * @param size Maximum POST body size in bytes (default: 8 MB).
+   */
+  public void setMaxBodySize(long size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Invalid body size limit: " + size);
+    }
+    maxBodySize = size;
+  }
+
+  /**
+   * Body size limit Getter.
+   * 
+   * @return Maximum POST body size in bytes.
+   */
+  public long getMaxBodySize() {
+    return maxBodySize;
+  }
+
+  /**
+   * HTTP/2 Setter.
+   * Enables HTTP/2 over cleartext connections (h2c), for clients with prior knowledge
+   * and for GET requests with Upgrade: h2c. Streams are served by the same routes.
+   * 
+   * @param enabled Whether HTTP/2 is accepted (default: false).
+   */
+  public void setHttp2Enabled(boolean enabled) {
+    http2Enabled = enabled;
+  }
+
+  /**
+   * HTTP/2 Getter.
+   * 
+   * @return Whether HTTP/2 is accepted.
+   */
+  public boolean isHttp2Enabled() {
+    return http2Enabled;
+  }
+
+  /**
+   * Metrics Setter.
+   * Enabled by registering the metrics route, or to read Route.getMetrics() directly.
+   * 
+   * @param enabled Whether requests are timed and counted per route (default: false).
+   */
+  public void setMetricsEnabled(boolean enabled) {
+    metricsEnabled = enabled;
+  }
+
+  /**
+   * Metrics Getter.
+   * 
+   * @return Whether requests are recorded per route.
+   */
+  public boolean isMetricsEnabled() {
+    return metricsEnabled;
+  }
+
+  /**
+   * Access log Setter.
+   * Logs every request (or a sample) and receives the server messages,
+   * which are written to the console otherwise.
+   * 
+   * @param log The log, e.g. new AccessLog("logs/access.log"), or null to disable request logging.
+   */
+  public void setAccessLog(AccessLog log) {
+    accessLog = log;
+    AccessLog.setMessageLog(log);
+  }
+
+  /**
+   * Access log Getter.
+   * 
+   * @return The request log or null.
+   */
+  public AccessLog getAccessLog() {
+    return accessLog;
+  }
+
+  /**
+   * Body size limit of a POST route.
+   * 
+   * @param  match The requested route or null.
+   * @return       The route's limit or the server default.
+   */
+  long getMaxBodySize(RouteTree.Match match) {
+    long limit = (match != null) ? match.getRoute().getMaxBodySize() : -1;
+    return (limit >= 0) ? limit : maxBodySize;
+  }
+
+  /**
+   * Creates a named platform thread per connection.
+   */
+  private static class ConnectionThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return new Thread(runnable, "TinyServer-connection-" + counter.incrementAndGet());
+    }
+
+  }
+
 }
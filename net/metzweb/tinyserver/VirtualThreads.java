@@ -0,0 +1,42 @@
+package net.metzweb.tinyserver;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual thread support.
+ * Resolved via reflection, so TinyServer still runs on older Java versions.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * Create a factory for named virtual threads.
+   * 
+   * @param  prefix Thread name prefix, followed by a counter.
+   * @return        Virtual thread factory.
+   * @throws        UnsupportedOperationException If the JVM has no virtual threads.
+   */
+  static ThreadFactory factory(String prefix) {
+    try {
+      // Thread.ofVirtual().name(prefix, 1).factory()
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Method name = builderClass.getMethod("name", String.class, long.class);
+      builder = name.invoke(builder, prefix, 1L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException ex) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or newer.", ex);
+    }
+  }
+
+}
@@ -0,0 +1,567 @@
+package net.metzweb.tinyserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * WebSocket connection.
+ * Created by a WebSocket route after the upgrade handshake. Assembles fragmented messages,
+ * answers pings and performs the closing handshake, independent of the execution mode.
+ * Messages can be sent from any thread.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public class WebSocket {
+
+  /**
+   * Close codes.
+   */
+  public static final int NORMAL_CLOSURE = 1000;
+  public static final int GOING_AWAY = 1001;
+  public static final int PROTOCOL_ERROR = 1002;
+  public static final int UNSUPPORTED_DATA = 1003;
+  public static final int NO_STATUS = 1005;
+  public static final int ABNORMAL_CLOSURE = 1006;
+  public static final int INVALID_DATA = 1007;
+  public static final int POLICY_VIOLATION = 1008;
+  public static final int MESSAGE_TOO_BIG = 1009;
+  public static final int INTERNAL_ERROR = 1011;
+  public static final int TRY_AGAIN_LATER = 1013;
+
+  /**
+   * Appended to the client key, to prove the handshake was understood.
+   */
+  private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+  /**
+   * Response to requests for a WebSocket route, that aren't a valid upgrade.
+   */
+  static final byte[] UPGRADE_REQUIRED = ("HTTP/1.1 426 Upgrade Required\r\n"
+      + "Sec-WebSocket-Version: 13\r\n"
+      + "Content-Length: 0\r\n"
+      + "Connection: close\r\n"
+      + "Server: TinyServer MetzWeb\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final Request request;
+  private final WebSocketResponse callback;
+  private final Transport transport;
+
+  /**
+   * Message size limit in bytes.
+   */
+  private final long maxMessageSize;
+
+  /**
+   * Fragmented message, that is being received.
+   */
+  private ByteArrayOutputStream fragments;
+  private int fragmentedOpcode;
+
+  /**
+   * Whether a close frame has been sent, guarded by this socket.
+   */
+  private boolean closeSent;
+
+  /**
+   * Close code and reason, reported to the callback.
+   */
+  private int closeCode = -1;
+  private String closeReason = "";
+
+  /**
+   * Whether the connection has been closed.
+   */
+  private volatile boolean disconnected;
+
+  /**
+   * Whether a heartbeat ping waits for an answer.
+   */
+  private volatile boolean pingSent;
+
+  /**
+   * Serializes the callbacks; onClose is called once and last.
+   */
+  private final Object callbackLock = new Object();
+  private boolean terminated;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param request        The upgrade request.
+   * @param callback       The route callback.
+   * @param maxMessageSize Message size limit in bytes.
+   * @param transport      Writes to the connection.
+   */
+  WebSocket(Request request, WebSocketResponse callback, long maxMessageSize, Transport transport) {
+    this.request = request;
+    this.callback = callback;
+    this.maxMessageSize = maxMessageSize;
+    this.transport = transport;
+  }
+
+  /**
+   * Upgrade request Getter.
+   * Gives access to the route parameters and headers of the handshake.
+   * 
+   * @return The request.
+   */
+  public Request getRequest() {
+    return request;
+  }
+
+  /**
+   * Send a text message.
+   * 
+   * @param  message The message.
+   * @return         Whether it was sent, false if the socket is closed.
+   */
+  public boolean send(String message) {
+    return sendFrame(WebSocketParser.TEXT, ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Send a binary message.
+   * 
+   * @param  message The message.
+   * @return         Whether it was sent, false if the socket is closed.
+   */
+  public boolean send(byte[] message) {
+    return sendFrame(WebSocketParser.BINARY, ByteBuffer.wrap(message));
+  }
+
+  /**
+   * Send a binary message.
+   * 
+   * @param  message The message, from its position to its limit.
+   * @return         Whether it was sent, false if the socket is closed.
+   */
+  public boolean send(ByteBuffer message) {
+    return sendFrame(WebSocketParser.BINARY, message);
+  }
+
+  /**
+   * Close the socket normally.
+   */
+  public void close() {
+    close(NORMAL_CLOSURE, "");
+  }
+
+  /**
+   * Start the closing handshake.
+   * The connection is closed, once the client answers.
+   * 
+   * @param code   Close code, e.g. 1000 or 4000-4999 for application codes.
+   * @param reason Close reason, up to 123 bytes.
+   */
+  public void close(int code, String reason) {
+    byte[] text = (reason != null) ? reason.getBytes(StandardCharsets.UTF_8) : EMPTY;
+    if (!isValidCloseCode(code) || text.length > 123) {
+      throw new IllegalArgumentException("Invalid close code or reason: " + code);
+    }
+    record(code, reason);
+    sendClose(code, text);
+  }
+
+  /**
+   * Whether messages can be sent.
+   * 
+   * @return False, once the socket is closing.
+   */
+  public synchronized boolean isOpen() {
+    return !closeSent && !disconnected;
+  }
+
+  /**
+   * Call the open callback.
+   */
+  void opened() {
+    synchronized (callbackLock) {
+      if (terminated) {
+        return;
+      }
+      try {
+        callback.onOpen(this);
+      } catch (RuntimeException ex) {
+        AccessLog.error("Exception in WebSocket callback: " + ex);
+        fail(INTERNAL_ERROR, "");
+      }
+    }
+  }
+
+  /**
+   * Process a received frame.
+   * Control frames are answered right away, data frames are collected until their message is complete.
+   * 
+   * @param  frame The parsed frame.
+   * @param  bytes Receive buffer, holding the unmasked payload.
+   * @return       Delivers the complete message to the callback, or null.
+   * @throws       WebSocketParser.ParseException If the frame violates the protocol.
+   */
+  Runnable receive(WebSocketParser frame, byte[] bytes) throws WebSocketParser.ParseException {
+    pingSent = false;
+    int opcode = frame.getOpcode();
+    int offset = frame.getPayloadOffset();
+    int length = frame.getPayloadLength();
+    switch (opcode) {
+      case WebSocketParser.PING:
+        sendFrame(WebSocketParser.PONG, ByteBuffer.wrap(bytes, offset, length));
+        return null;
+      case WebSocketParser.PONG:
+        return null;
+      case WebSocketParser.CLOSE:
+        receiveClose(bytes, offset, length);
+        return null;
+      default:
+        break;
+    }
+
+    if (opcode == WebSocketParser.CONTINUATION) {
+      if (fragments == null) {
+        throw new WebSocketParser.ParseException(PROTOCOL_ERROR, "Unexpected continuation frame.");
+      }
+      if (fragments.size() + (long) length > maxMessageSize) {
+        throw new WebSocketParser.ParseException(MESSAGE_TOO_BIG, "Message too large.");
+      }
+      fragments.write(bytes, offset, length);
+      if (!frame.isFinal()) {
+        return null;
+      }
+      byte[] message = fragments.toByteArray();
+      fragments = null;
+      return message(fragmentedOpcode, message, 0, message.length);
+    }
+    if (fragments != null) {
+      throw new WebSocketParser.ParseException(PROTOCOL_ERROR, "Expected continuation frame.");
+    }
+    if (!frame.isFinal()) {
+      fragments = new ByteArrayOutputStream(Math.max(length * 2, 256));
+      fragmentedOpcode = opcode;
+      fragments.write(bytes, offset, length);
+      return null;
+    }
+    return message(opcode, bytes, offset, length);
+  }
+
+  /**
+   * Close the connection after a protocol violation.
+   * 
+   * @param code   Close code.
+   * @param reason Close reason.
+   */
+  void fail(int code, String reason) {
+    record(code, reason);
+    sendClose(code, reason.getBytes(StandardCharsets.UTF_8));
+    disconnect();
+  }
+
+  /**
+   * Keep an idle connection alive.
+   * Sends a ping, which has to be answered before the connection is idle again.
+   * 
+   * @return False, if the connection should be closed.
+   */
+  boolean idle() {
+    if (pingSent || !isOpen()) {
+      return false;
+    }
+    pingSent = true;
+    return sendFrame(WebSocketParser.PING, ByteBuffer.wrap(EMPTY));
+  }
+
+  /**
+   * Whether the connection is still open.
+   * 
+   * @return False, once the connection has been closed.
+   */
+  boolean isConnected() {
+    return !disconnected;
+  }
+
+  /**
+   * Message size limit Getter.
+   * 
+   * @return Maximum message size in bytes.
+   */
+  long getMaxMessageSize() {
+    return maxMessageSize;
+  }
+
+  /**
+   * Call the close callback, after the connection has been closed.
+   * Called by the connection, only the first call has an effect.
+   */
+  void terminated() {
+    disconnected = true;
+    record(ABNORMAL_CLOSURE, "");
+    synchronized (callbackLock) {
+      if (terminated) {
+        return;
+      }
+      terminated = true;
+      try {
+        callback.onClose(this, closeCode, closeReason);
+      } catch (RuntimeException ex) {
+        AccessLog.error("Exception in WebSocket callback: " + ex);
+      }
+    }
+  }
+
+  /**
+   * Answer a close frame and close the connection.
+   * 
+   * @param  bytes  Receive buffer.
+   * @param  offset Start of the payload.
+   * @param  length Payload length.
+   * @throws        WebSocketParser.ParseException If the close frame is invalid.
+   */
+  private void receiveClose(byte[] bytes, int offset, int length) throws WebSocketParser.ParseException {
+    int code = NO_STATUS;
+    String reason = "";
+    if (length == 1) {
+      throw new WebSocketParser.ParseException(PROTOCOL_ERROR, "Invalid close frame.");
+    }
+    if (length >= 2) {
+      code = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+      if (!isValidCloseCode(code)) {
+        throw new WebSocketParser.ParseException(PROTOCOL_ERROR, "Invalid close code.");
+      }
+      reason = decode(bytes, offset + 2, length - 2);
+    }
+    record(code, reason);
+    // echo the code, the connection is closed afterwards
+    sendClose(code, EMPTY);
+    disconnect();
+  }
+
+  /**
+   * Prepare the delivery of a complete message.
+   * The payload is copied, since the receive buffer is reused.
+   * 
+   * @param  opcode TEXT or BINARY.
+   * @param  bytes  Payload buffer.
+   * @param  offset Start of the payload.
+   * @param  length Payload length.
+   * @return        Calls the callback.
+   * @throws        WebSocketParser.ParseException If a text message isn't valid UTF-8.
+   */
+  private Runnable message(int opcode, byte[] bytes, int offset, int length) throws WebSocketParser.ParseException {
+    final String text = (opcode == WebSocketParser.TEXT) ? decode(bytes, offset, length) : null;
+    final ByteBuffer data = (opcode == WebSocketParser.TEXT) ? null : ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length));
+    return new Runnable() {
+      @Override
+      public void run() {
+        synchronized (callbackLock) {
+          if (terminated) {
+            return;
+          }
+          try {
+            if (text != null) {
+              callback.onMessage(WebSocket.this, text);
+            } else {
+              callback.onMessage(WebSocket.this, data);
+            }
+          } catch (RuntimeException ex) {
+            AccessLog.error("Exception in WebSocket callback: " + ex);
+            fail(INTERNAL_ERROR, "");
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Send a data or control frame.
+   * 
+   * @param  opcode  Frame opcode.
+   * @param  payload The payload, from its position to its limit.
+   * @return         Whether it was sent.
+   */
+  private synchronized boolean sendFrame(int opcode, ByteBuffer payload) {
+    if (closeSent || disconnected) {
+      return false;
+    }
+    return write(frame(opcode, payload));
+  }
+
+  /**
+   * Send a close frame, unless one has been sent.
+   * 
+   * @param code   Close code or NO_STATUS, to send an empty frame.
+   * @param reason Encoded close reason.
+   */
+  private synchronized void sendClose(int code, byte[] reason) {
+    if (closeSent || disconnected) {
+      return;
+    }
+    closeSent = true;
+    ByteBuffer payload = ByteBuffer.allocate((code != NO_STATUS) ? 2 + reason.length : 0);
+    if (code != NO_STATUS) {
+      payload.putShort((short) code).put(reason).flip();
+    }
+    write(frame(WebSocketParser.CLOSE, payload));
+  }
+
+  /**
+   * Write a frame, the connection is closed if it fails.
+   * 
+   * @param  frame The encoded frame.
+   * @return       Whether it was written.
+   */
+  private boolean write(byte[] frame) {
+    try {
+      transport.send(frame);
+      return true;
+    } catch (IOException ex) {
+      record(ABNORMAL_CLOSURE, "");
+      disconnect();
+      return false;
+    }
+  }
+
+  /**
+   * Close the connection.
+   */
+  private void disconnect() {
+    if (!disconnected) {
+      disconnected = true;
+      transport.close();
+    }
+  }
+
+  /**
+   * Keep the first close code, reported to the callback.
+   * 
+   * @param code   Close code.
+   * @param reason Close reason.
+   */
+  private synchronized void record(int code, String reason) {
+    if (closeCode < 0) {
+      closeCode = code;
+      closeReason = (reason != null) ? reason : "";
+    }
+  }
+
+  /**
+   * Answer a WebSocket upgrade request.
+   * 
+   * @param  request The request.
+   * @return         The 101 Switching Protocols response or null, if it isn't a valid upgrade request.
+   */
+  static byte[] handshake(Request request) {
+    String upgrade = request.header("Upgrade");
+    String connection = request.header("Connection");
+    String version = request.header("Sec-WebSocket-Version");
+    String key = request.header("Sec-WebSocket-Key");
+    if (upgrade == null || !upgrade.trim().equalsIgnoreCase("websocket")
+        || connection == null || !connection.toLowerCase(Locale.ENGLISH).contains("upgrade")
+        || version == null || !version.trim().equals("13")
+        || key == null || !request.getProtocol().equals("HTTP/1.1")) {
+      return null;
+    }
+
+    String accept;
+    try {
+      MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+      accept = Base64.getEncoder().encodeToString(sha1.digest((key.trim() + GUID).getBytes(StandardCharsets.US_ASCII)));
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-1 not available.", ex);
+    }
+    return ("HTTP/1.1 101 Switching Protocols\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Sec-WebSocket-Accept: " + accept + "\r\n"
+        + "Server: TinyServer MetzWeb\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Encode an unmasked server frame.
+   * 
+   * @param  opcode  Frame opcode.
+   * @param  payload The payload, from its position to its limit.
+   * @return         The frame.
+   */
+  private static byte[] frame(int opcode, ByteBuffer payload) {
+    int length = payload.remaining();
+    int headerLength = (length < 126) ? 2 : (length <= 0xFFFF) ? 4 : 10;
+    byte[] frame = new byte[headerLength + length];
+    frame[0] = (byte) (0x80 | opcode);
+    if (length < 126) {
+      frame[1] = (byte) length;
+    } else if (length <= 0xFFFF) {
+      frame[1] = 126;
+      frame[2] = (byte) (length >>> 8);
+      frame[3] = (byte) length;
+    } else {
+      frame[1] = 127;
+      for (int i = 0; i < 8; i++) {
+        frame[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+      }
+    }
+    payload.duplicate().get(frame, headerLength, length);
+    return frame;
+  }
+
+  /**
+   * Decode strict UTF-8.
+   * 
+   * @param  bytes  Payload buffer.
+   * @param  offset Start of the text.
+   * @param  length Text length in bytes.
+   * @return        The text.
+   * @throws        WebSocketParser.ParseException If it isn't valid UTF-8.
+   */
+  private static String decode(byte[] bytes, int offset, int length) throws WebSocketParser.ParseException {
+    try {
+      return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes, offset, length)).toString();
+    } catch (CharacterCodingException ex) {
+      throw new WebSocketParser.ParseException(INVALID_DATA, "Invalid UTF-8.");
+    }
+  }
+
+  /**
+   * Whether a close code may be sent in a close frame.
+   * 
+   * @param  code Close code.
+   * @return      Whether it's a defined or an application code.
+   */
+  private static boolean isValidCloseCode(int code) {
+    return (code >= 1000 && code <= 1014 && code != 1004 && code != NO_STATUS && code != ABNORMAL_CLOSURE)
+        || (code >= 3000 && code <= 4999);
+  }
+
+  /**
+   * Writes frames to the connection, implemented by each execution mode.
+   */
+  interface Transport {
+
+    /**
+     * Send a frame, frames are sent in call order.
+     * 
+     * @param  frame The encoded frame.
+     * @throws       IOException If the connection has been closed.
+     */
+    void send(byte[] frame) throws IOException;
+
+    /**
+     * Close the connection.
+     */
+    void close();
+
+  }
+
+}
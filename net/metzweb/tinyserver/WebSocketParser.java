@@ -0,0 +1,200 @@
+package net.metzweb.tinyserver;
+
+import java.io.IOException;
+
+/**
+ * Incremental WebSocket frame parser.
+ * Parses a client frame directly from the receive buffer, once it's complete,
+ * and unmasks its payload in place.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class WebSocketParser {
+
+  /**
+   * Frame opcodes.
+   */
+  static final int CONTINUATION = 0x0;
+  static final int TEXT = 0x1;
+  static final int BINARY = 0x2;
+  static final int CLOSE = 0x8;
+  static final int PING = 0x9;
+  static final int PONG = 0xA;
+
+  /**
+   * Largest frame header: 2 bytes, 8 bytes extended length and 4 bytes mask.
+   */
+  static final int MAX_HEADER_LENGTH = 14;
+
+  /**
+   * The last parsed frame.
+   */
+  private boolean fin;
+  private int opcode;
+  private int payloadOffset;
+  private int payloadLength;
+
+  /**
+   * Parse a frame.
+   * 
+   * @param  bytes      Receive buffer.
+   * @param  offset     Start of the frame.
+   * @param  length     Number of received bytes from offset.
+   * @param  maxPayload Payload size limit in bytes.
+   * @return            Frame length in bytes or -1, if it's incomplete.
+   * @throws            ParseException If the frame violates the protocol or the limit.
+   */
+  int parse(byte[] bytes, int offset, int length, long maxPayload) throws ParseException {
+    if (length < 2) {
+      return -1;
+    }
+    int first = bytes[offset] & 0xFF;
+    int second = bytes[offset + 1] & 0xFF;
+    if ((first & 0x70) != 0) {
+      throw new ParseException(WebSocket.PROTOCOL_ERROR, "Reserved bits set.");
+    }
+    int code = first & 0x0F;
+    if ((code > BINARY && code < CLOSE) || code > PONG) {
+      throw new ParseException(WebSocket.PROTOCOL_ERROR, "Unknown opcode.");
+    }
+    if ((second & 0x80) == 0) {
+      throw new ParseException(WebSocket.PROTOCOL_ERROR, "Client frames have to be masked.");
+    }
+
+    // payload length: 7 bits, 16 or 64 bit extended
+    int position = 2;
+    long payload = second & 0x7F;
+    if (payload == 126) {
+      if (length < 4) {
+        return -1;
+      }
+      payload = ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+      position = 4;
+    } else if (payload == 127) {
+      if (length < 10) {
+        return -1;
+      }
+      payload = 0;
+      for (int i = 2; i < 10; i++) {
+        payload = (payload << 8) | (bytes[offset + i] & 0xFF);
+      }
+      if (payload < 0) {
+        throw new ParseException(WebSocket.PROTOCOL_ERROR, "Invalid payload length.");
+      }
+      position = 10;
+    }
+    boolean isFinal = (first & 0x80) != 0;
+    if (code >= CLOSE && (payload > 125 || !isFinal)) {
+      throw new ParseException(WebSocket.PROTOCOL_ERROR, "Invalid control frame.");
+    }
+    if (payload > maxPayload) {
+      throw new ParseException(WebSocket.MESSAGE_TOO_BIG, "Message too large.");
+    }
+
+    int mask = offset + position;
+    position += 4;
+    if (length < position + payload) {
+      return -1;
+    }
+    fin = isFinal;
+    opcode = code;
+    payloadOffset = offset + position;
+    payloadLength = (int) payload;
+    unmask(bytes, mask, payloadOffset, payloadLength);
+    return position + payloadLength;
+  }
+
+  /**
+   * Whether the last frame completes its message.
+   * 
+   * @return The FIN bit.
+   */
+  boolean isFinal() {
+    return fin;
+  }
+
+  /**
+   * Opcode Getter.
+   * 
+   * @return Opcode of the last frame.
+   */
+  int getOpcode() {
+    return opcode;
+  }
+
+  /**
+   * Payload offset Getter.
+   * 
+   * @return Start of the unmasked payload in the receive buffer.
+   */
+  int getPayloadOffset() {
+    return payloadOffset;
+  }
+
+  /**
+   * Payload length Getter.
+   * 
+   * @return Payload length in bytes.
+   */
+  int getPayloadLength() {
+    return payloadLength;
+  }
+
+  /**
+   * XOR the payload with the 4 byte masking key.
+   * 
+   * @param bytes  Receive buffer.
+   * @param mask   Offset of the masking key.
+   * @param offset Start of the payload.
+   * @param length Payload length.
+   */
+  private static void unmask(byte[] bytes, int mask, int offset, int length) {
+    byte m0 = bytes[mask];
+    byte m1 = bytes[mask + 1];
+    byte m2 = bytes[mask + 2];
+    byte m3 = bytes[mask + 3];
+    int i = offset;
+    int end = offset + length;
+    // unrolled, one key byte per position
+    for (int aligned = offset + (length & ~3); i < aligned; i += 4) {
+      bytes[i] ^= m0;
+      bytes[i + 1] ^= m1;
+      bytes[i + 2] ^= m2;
+      bytes[i + 3] ^= m3;
+    }
+    for (int k = 0; i < end; i++, k++) {
+      bytes[i] ^= bytes[mask + k];
+    }
+  }
+
+  /**
+   * Protocol violation, answered with a close frame.
+   */
+  static class ParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+
+    ParseException(int code, String message) {
+      super(message);
+      this.code = code;
+    }
+
+    /**
+     * Close code Getter.
+     * 
+     * @return Status code of the close frame, e.g. 1002
+     */
+    int getCode() {
+      return code;
+    }
+
+  }
+
+}
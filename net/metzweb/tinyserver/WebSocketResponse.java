@@ -0,0 +1,56 @@
+package net.metzweb.tinyserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * WebSocket callback.
+ * Receives the messages of a WebSocket route. The callbacks of one socket
+ * are never called concurrently, messages arrive in order.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public interface WebSocketResponse {
+
+  /**
+   * Text message callback.
+   * 
+   * @param socket  The socket, used to answer.
+   * @param message The complete message.
+   */
+  public void onMessage(WebSocket socket, String message);
+
+  /**
+   * Binary message callback.
+   * Closes the socket with 1003 Unsupported Data, unless it's overridden.
+   * 
+   * @param socket  The socket, used to answer.
+   * @param message The complete message.
+   */
+  default void onMessage(WebSocket socket, ByteBuffer message) {
+    socket.close(WebSocket.UNSUPPORTED_DATA, "Binary messages not supported.");
+  }
+
+  /**
+   * Called after the handshake, before the first message.
+   * 
+   * @param socket The socket.
+   */
+  default void onOpen(WebSocket socket) {
+  }
+
+  /**
+   * Called once, after the connection has been closed.
+   * 
+   * @param socket The socket.
+   * @param code   Close code, e.g. 1000, or 1006 if the connection was lost.
+   * @param reason Close reason, may be empty.
+   */
+  default void onClose(WebSocket socket, int code, String reason) {
+  }
+
+}
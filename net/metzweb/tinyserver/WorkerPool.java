@@ -0,0 +1,215 @@
+package net.metzweb.tinyserver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded worker pool.
+ * Executes connections on a fixed set of worker threads,
+ * instead of starting a new thread per connection.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public class WorkerPool {
+
+  /**
+   * Idle time (in seconds), before surplus workers are terminated.
+   */
+  private static final long KEEP_ALIVE = 60;
+
+  /**
+   * What happens to a connection, if all workers are busy and the queue is full.
+   */
+  public enum RejectionPolicy {
+    /** Respond with 503 Service Unavailable and close the connection. */
+    REJECT,
+    /** Serve the connection on the accepting thread (slows down accepting). */
+    CALLER_RUNS,
+    /** Close the connection without a response. */
+    DROP
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final RejectionPolicy rejectionPolicy;
+
+  /**
+   * Custom constructor.
+   * Rejected connections receive a 503 response.
+   * 
+   * @param coreWorkers Number of workers kept alive.
+   * @param maxWorkers  Maximum number of workers.
+   * @param queueSize   Maximum number of waiting connections.
+   */
+  public WorkerPool(int coreWorkers, int maxWorkers, int queueSize) {
+    this(coreWorkers, maxWorkers, queueSize, RejectionPolicy.REJECT);
+  }
+
+  /**
+   * Constructor with custom rejection policy.
+   * 
+   * @param coreWorkers     Number of workers kept alive.
+   * @param maxWorkers      Maximum number of workers.
+   * @param queueSize       Maximum number of waiting connections.
+   * @param rejectionPolicy Applied, if workers and queue are exhausted.
+   */
+  public WorkerPool(int coreWorkers, int maxWorkers, int queueSize, RejectionPolicy rejectionPolicy) {
+    if (coreWorkers < 0 || maxWorkers < 1 || maxWorkers < coreWorkers || queueSize < 1) {
+      throw new IllegalArgumentException("Invalid worker pool size: " + coreWorkers + "/" + maxWorkers + "/" + queueSize);
+    }
+    this.rejectionPolicy = (rejectionPolicy != null) ? rejectionPolicy : RejectionPolicy.REJECT;
+    this.executor = new ThreadPoolExecutor(coreWorkers, maxWorkers, KEEP_ALIVE, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), new WorkerFactory(), new RejectionHandler());
+  }
+
+  /**
+   * Execute a connection on the next free worker.
+   * 
+   * @param connection The accepted connection.
+   */
+  public void execute(Connection connection) {
+    executor.execute(connection);
+  }
+
+  /**
+   * Execute a task on the next free worker.
+   * Used by the NIO engine to run route callbacks off the event loop.
+   * 
+   * @param  task The task.
+   * @throws      RejectedExecutionException If the task was rejected (REJECT or DROP policy).
+   */
+  void execute(Runnable task) {
+    executor.execute(task);
+  }
+
+  /**
+   * Continue a connection after an asynchronous response on the next free worker.
+   * Never runs on the calling thread, the rejection policy doesn't apply.
+   * 
+   * @param  connection The suspended connection.
+   * @throws            RejectedExecutionException If workers and queue are exhausted.
+   */
+  void resume(Connection connection) {
+    executor.execute(new Resumption(connection));
+  }
+
+  /**
+   * Stop accepting new connections.
+   * Already queued connections will still be served.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Rejection policy Getter.
+   * 
+   * @return The rejection policy.
+   */
+  public RejectionPolicy getRejectionPolicy() {
+    return rejectionPolicy;
+  }
+
+  /**
+   * Number of workers currently serving a connection.
+   * 
+   * @return Active worker count.
+   */
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * Number of connections waiting for a worker.
+   * 
+   * @return Queued connection count.
+   */
+  public int getQueueSize() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Creates named worker threads.
+   */
+  private static class WorkerFactory implements ThreadFactory {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "TinyServer-worker-" + counter.incrementAndGet());
+      thread.setDaemon(false);
+      return thread;
+    }
+
+  }
+
+  /**
+   * A resumed connection, kept apart from newly accepted ones.
+   */
+  private static class Resumption implements Runnable {
+
+    private final Connection connection;
+
+    Resumption(Connection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public void run() {
+      connection.run();
+    }
+
+  }
+
+  /**
+   * Applies the rejection policy to connections that couldn't be queued.
+   */
+  private class RejectionHandler implements RejectedExecutionHandler {
+
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor pool) {
+      if (runnable instanceof Resumption) {
+        // closed by the server
+        throw new RejectedExecutionException("Worker pool exhausted.");
+      }
+      if (!(runnable instanceof Connection)) {
+        // let the submitter apply the policy
+        if (rejectionPolicy == RejectionPolicy.CALLER_RUNS && !pool.isShutdown()) {
+          runnable.run();
+          return;
+        }
+        throw new RejectedExecutionException("Worker pool exhausted.");
+      }
+      
+      Connection connection = (Connection) runnable;
+      switch (rejectionPolicy) {
+        case CALLER_RUNS:
+          if (!pool.isShutdown()) {
+            connection.run();
+          } else {
+            connection.reject();
+          }
+          break;
+        case DROP:
+          connection.close();
+          break;
+        default:
+        case REJECT:
+          connection.reject();
+          break;
+      }
+    }
+
+  }
+
+}
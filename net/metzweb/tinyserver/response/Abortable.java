@@ -0,0 +1,22 @@
+package net.metzweb.tinyserver.response;
+
+/**
+ * Connection output, that can be closed by its response.
+ * Used to drop clients, that don't read a long-lived response.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public interface Abortable {
+
+  /**
+   * Close the connection (HTTP/2: reset the stream).
+   * Blocked and further writes fail.
+   */
+  void abort();
+
+}
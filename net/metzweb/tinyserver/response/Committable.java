@@ -0,0 +1,25 @@
+package net.metzweb.tinyserver.response;
+
+import java.io.IOException;
+
+/**
+ * Connection output, that defers flush() to coalesce responses.
+ * Streamed responses commit to send their data immediately.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public interface Committable {
+
+  /**
+   * Send all written data to the client.
+   * 
+   * @throws IOException
+   */
+  void commit() throws IOException;
+
+}
@@ -0,0 +1,158 @@
+package net.metzweb.tinyserver.response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response compression settings.
+ * Negotiates gzip or deflate with the client's Accept-Encoding header.
+ * Instances are immutable and can be shared by several response formats.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public class Compression {
+
+  /**
+   * Smaller bodies aren't worth compressing (bytes).
+   */
+  public static final int DEFAULT_MIN_SIZE = 1024;
+
+  /**
+   * Compressed by default; images, audio and video are compressed already.
+   */
+  private static final String[] DEFAULT_MIME_TYPES = {
+    "text/html", "text/plain", "text/css", "text/csv", "text/xml",
+    "application/json", "application/javascript", "application/xml", "image/svg+xml"
+  };
+
+  public static final String GZIP = "gzip";
+  public static final String DEFLATE = "deflate";
+
+  private final int minSize;
+  private final Set<String> mimeTypes;
+
+  /**
+   * Default constructor.
+   * Compresses text based bodies of at least 1 KB.
+   */
+  public Compression() {
+    this(DEFAULT_MIN_SIZE, DEFAULT_MIME_TYPES);
+  }
+
+  /**
+   * Custom constructor.
+   * 
+   * @param minSize   Minimum body size (bytes).
+   * @param mimeTypes Compressed MIME types, e.g. application/json
+   */
+  public Compression(int minSize, String... mimeTypes) {
+    this.minSize = Math.max(0, minSize);
+    this.mimeTypes = new HashSet<>(Arrays.asList(mimeTypes));
+  }
+
+  /**
+   * Minimum size Getter.
+   * 
+   * @return Minimum body size (bytes).
+   */
+  public int getMinSize() {
+    return minSize;
+  }
+
+  /**
+   * Whether bodies of a MIME type are compressed.
+   * 
+   * @param  mimeType MIME type, parameters are ignored.
+   * @return          Whether it's enabled.
+   */
+  public boolean isCompressible(String mimeType) {
+    if (mimeType == null) {
+      return false;
+    }
+    int semicolon = mimeType.indexOf(';');
+    if (semicolon >= 0) {
+      mimeType = mimeType.substring(0, semicolon);
+    }
+    return mimeTypes.contains(mimeType.trim().toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Choose a content coding from an Accept-Encoding header.
+   * gzip is preferred over deflate with the same quality.
+   * 
+   * @param  acceptEncoding Header value, e.g. gzip, deflate;q=0.5
+   * @return                GZIP, DEFLATE or null for an uncompressed body.
+   */
+  public static String negotiate(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    float gzip = -1;
+    float deflate = -1;
+    float any = -1;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      float quality = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String parameter = parts[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            quality = Float.parseFloat(parameter.substring(2));
+          } catch (NumberFormatException ex) {
+            quality = 0;
+          }
+        }
+      }
+      if (name.equals(GZIP) || name.equals("x-gzip")) {
+        gzip = quality;
+      } else if (name.equals(DEFLATE)) {
+        deflate = quality;
+      } else if (name.equals("*")) {
+        any = quality;
+      }
+    }
+    // codings not listed are covered by the wildcard
+    if (gzip < 0) {
+      gzip = any;
+    }
+    if (deflate < 0) {
+      deflate = any;
+    }
+    if (gzip > 0 && gzip >= deflate) {
+      return GZIP;
+    }
+    return (deflate > 0) ? DEFLATE : null;
+  }
+
+  /**
+   * Compress a body.
+   * 
+   * @param  data   The uncompressed body.
+   * @param  coding GZIP or DEFLATE.
+   * @return        The compressed body.
+   */
+  static byte[] compress(byte[] data, String coding) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+    try (OutputStream stream = coding.equals(GZIP) ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed)) {
+      stream.write(data);
+    } catch (IOException ex) {
+      // not thrown by in-memory streams
+      throw new IllegalStateException(ex);
+    }
+    return compressed.toByteArray();
+  }
+
+}
@@ -0,0 +1,448 @@
+package net.metzweb.tinyserver.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server-Sent Events response.
+ * Keeps the connection open as text/event-stream and pushes events to the client.
+ * Used with asynchronous routes: the stream stays open until the returned stage completes,
+ * without holding a thread. Events of topics are queued per stream and written by
+ * event threads, so a client, that doesn't read, never blocks the publisher.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public class EventStreamResponse extends ResponseFormat<String> {
+
+  /**
+   * Comment line, keeps idle connections alive.
+   */
+  static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * Write the queued events of all streams, created on first use.
+   */
+  private static ExecutorService writers;
+
+  /**
+   * Reconnection time in milliseconds sent to clients or -1.
+   */
+  private volatile long retry = -1;
+
+  /**
+   * Event stream of the current response, guarded by writeLock.
+   */
+  private OutputStream events;
+  private Object writeLock = new Object();
+
+  /**
+   * Completes, once the stream is closed or the client is gone.
+   */
+  private CompletableFuture<Void> closed;
+
+  /**
+   * Queued events and their size, written by an event thread.
+   */
+  private ArrayDeque<byte[]> pending = new ArrayDeque<>();
+  private long pendingBytes;
+  private boolean draining;
+
+  /**
+   * Whether the stream is closed once the queue is written, or has been aborted.
+   */
+  private boolean closing;
+
+  /**
+   * Start of the write in progress (System.nanoTime()) or 0.
+   */
+  private long writeStarted;
+
+  /**
+   * Custom constructor that sets MIME type.
+   */
+  public EventStreamResponse() {
+    super("text/event-stream");
+    setCacheControl("no-cache");
+  }
+
+  @Override
+  public ResponseFormat<String> create() {
+    EventStreamResponse format = (EventStreamResponse) super.create();
+    format.events = null;
+    format.writeLock = new Object();
+    format.closed = null;
+    format.pending = new ArrayDeque<>();
+    format.pendingBytes = 0;
+    format.draining = false;
+    format.closing = false;
+    format.writeStarted = 0;
+    return format;
+  }
+
+  /**
+   * Retry Getter.
+   * 
+   * @return Reconnection time in milliseconds or -1.
+   */
+  public long getRetry() {
+    return retry;
+  }
+
+  /**
+   * Retry Setter.
+   * 
+   * @param retry Reconnection time in milliseconds, sent to clients
+   *              when the stream is opened, or -1 for the client default.
+   */
+  public void setRetry(long retry) {
+    this.retry = retry;
+  }
+
+  /**
+   * 200 OK.
+   * Sends a single event and completes the response.
+   * 
+   * @param data Event data.
+   */
+  @Override
+  public void success(String data) {
+    write(STATUS_CODE.SUCCESS.getHeader(), format(null, null, data));
+  }
+
+  /**
+   * Open the event stream.
+   * The header is sent right away. Return the stage from an asynchronous route.
+   * 
+   * @return Completes, once the stream is closed or the client is gone.
+   */
+  public CompletionStage<Void> open() {
+    synchronized (writeLock) {
+      CompletableFuture<Void> stage;
+      synchronized (this) {
+        if (closed != null) {
+          return closed;
+        }
+        stage = closed = new CompletableFuture<>();
+      }
+      try {
+        events = stream();
+        if (retry >= 0) {
+          events.write(("retry: " + retry + "\n\n").getBytes(StandardCharsets.UTF_8));
+        }
+        events.flush();
+      } catch (IOException | IllegalStateException ex) {
+        stage.complete(null);
+      }
+      return stage;
+    }
+  }
+
+  /**
+   * Subscribe to a topic.
+   * Events missed since the client's Last-Event-ID are sent first.
+   * 
+   * @param  topic The topic.
+   * @return       Completes, once the stream is closed or the client is gone.
+   */
+  public CompletionStage<Void> subscribe(EventTopic topic) {
+    return topic.subscribe(this);
+  }
+
+  /**
+   * Send an event.
+   * 
+   * @param  data Event data, may contain line breaks.
+   * @return      Whether it was sent, false if the stream is closed.
+   */
+  public boolean send(String data) {
+    return send(null, null, data);
+  }
+
+  /**
+   * Send an event.
+   * 
+   * @param  event Event type or null for "message".
+   * @param  id    Event ID or null.
+   * @param  data  Event data, may contain line breaks.
+   * @return       Whether it was sent, false if the stream is closed.
+   */
+  public boolean send(String event, String id, String data) {
+    return sendFrame(frame(event, id, data));
+  }
+
+  /**
+   * Close the event stream and complete the response.
+   * Queued events are written first.
+   */
+  public void close() {
+    CompletableFuture<Void> stage = (CompletableFuture<Void>) open();
+    synchronized (this) {
+      closing = true;
+      if (draining) {
+        // completed by the event thread
+        return;
+      }
+    }
+    stage.complete(null);
+  }
+
+  /**
+   * Whether the stream is closed.
+   * 
+   * @return Whether events can't be sent anymore.
+   */
+  public synchronized boolean isClosed() {
+    return closed != null && (closing || closed.isDone());
+  }
+
+  /**
+   * ID of the last event the client received, sent when it reconnects.
+   * 
+   * @return The numeric Last-Event-ID or -1.
+   */
+  public long getLastEventId() {
+    String lastEventId = (request != null) ? request.header("Last-Event-ID") : null;
+    if (lastEventId != null) {
+      try {
+        return Long.parseLong(lastEventId.trim());
+      } catch (NumberFormatException ex) {
+        // not one of ours
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Complete the response, after a write in progress.
+   */
+  @Override
+  public void finish() {
+    synchronized (writeLock) {
+      super.finish();
+    }
+  }
+
+  /**
+   * Send an encoded event, on the calling thread.
+   * The stream is closed, if the client is gone.
+   * 
+   * @param  frame The event.
+   * @return       Whether it was sent.
+   */
+  boolean sendFrame(byte[] frame) {
+    open();
+    if (isClosed()) {
+      return false;
+    }
+    return write(new byte[][] {frame});
+  }
+
+  /**
+   * Queue an encoded event, it's written by an event thread.
+   * A stream, whose client doesn't keep up, is aborted.
+   * 
+   * @param  frame           The event.
+   * @param  maxPendingBytes Maximum size of the queue, exceeded by a single event though.
+   * @return                 Whether it was queued, false if the stream is closed.
+   */
+  boolean queueFrame(byte[] frame, long maxPendingBytes) {
+    synchronized (this) {
+      if (closed == null || closing || closed.isDone()) {
+        return false;
+      }
+      if (pendingBytes > 0 && pendingBytes + frame.length > maxPendingBytes) {
+        abort();
+        return false;
+      }
+      pending.addLast(frame);
+      pendingBytes += frame.length;
+      if (draining) {
+        return true;
+      }
+      draining = true;
+    }
+    writers().execute(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Queue a heartbeat, unless events are on their way.
+   * A stream, whose write has been blocked too long, is aborted.
+   * 
+   * @param  maxWriteNanos Longest time a write may take.
+   * @return               Whether the stream is open.
+   */
+  boolean heartbeat(long maxWriteNanos) {
+    synchronized (this) {
+      if (closed == null || closing || closed.isDone()) {
+        return false;
+      }
+      if (draining) {
+        if (writeStarted != 0 && System.nanoTime() - writeStarted > maxWriteNanos) {
+          abort();
+          return false;
+        }
+        return true;
+      }
+    }
+    return queueFrame(HEARTBEAT, Long.MAX_VALUE);
+  }
+
+  /**
+   * Write the queued events, until the queue is empty.
+   * Executed by an event thread.
+   */
+  private void drain() {
+    while (true) {
+      byte[][] frames = null;
+      boolean complete = false;
+      synchronized (this) {
+        writeStarted = 0;
+        if (pending.isEmpty() || closed.isDone()) {
+          pending.clear();
+          pendingBytes = 0;
+          draining = false;
+          complete = closing;
+        } else {
+          frames = pending.toArray(new byte[pending.size()][]);
+          pending.clear();
+          pendingBytes = 0;
+          // 0 means idle
+          writeStarted = System.nanoTime() | 1;
+        }
+      }
+      if (frames == null) {
+        if (complete) {
+          closed.complete(null);
+        }
+        return;
+      }
+      write(frames);
+    }
+  }
+
+  /**
+   * Write encoded events and send them to the client.
+   * 
+   * @param  frames The events.
+   * @return        Whether they were sent, false if the client is gone.
+   */
+  private boolean write(byte[][] frames) {
+    synchronized (writeLock) {
+      try {
+        for (byte[] frame : frames) {
+          events.write(frame);
+        }
+        events.flush();
+        return true;
+      } catch (IOException ex) {
+        // handled below
+      }
+    }
+    setKeepAlive(false);
+    closed.complete(null);
+    return false;
+  }
+
+  /**
+   * Drop a client, that doesn't read its events: the connection is closed,
+   * so a blocked write fails. Called with the lock held, done by an event thread.
+   */
+  private void abort() {
+    closing = true;
+    pending.clear();
+    pendingBytes = 0;
+    final OutputStream connection = output;
+    final CompletableFuture<Void> stage = closed;
+    writers().execute(new Runnable() {
+      @Override
+      public void run() {
+        setKeepAlive(false);
+        if (connection instanceof Abortable) {
+          ((Abortable) connection).abort();
+        }
+        stage.complete(null);
+      }
+    });
+  }
+
+  /**
+   * Shared event threads, created on first use.
+   * Threads are only busy while they write, idle ones are terminated.
+   * 
+   * @return The executor.
+   */
+  private static synchronized ExecutorService writers() {
+    if (writers == null) {
+      writers = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "TinyServer-events-" + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return writers;
+  }
+
+  /**
+   * Encode an event.
+   * 
+   * @param  event Event type or null.
+   * @param  id    Event ID or null.
+   * @param  data  Event data.
+   * @return       UTF-8 bytes of the event.
+   */
+  static byte[] frame(String event, String id, String data) {
+    return format(event, id, data).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Format an event.
+   * 
+   * @param  event Event type or null.
+   * @param  id    Event ID or null.
+   * @param  data  Event data.
+   * @return       The event in text/event-stream format.
+   */
+  private static String format(String event, String id, String data) {
+    StringBuilder frame = new StringBuilder();
+    if (id != null) {
+      frame.append("id: ").append(singleLine(id)).append('\n');
+    }
+    if (event != null) {
+      frame.append("event: ").append(singleLine(event)).append('\n');
+    }
+    // every line of the data gets its own field
+    for (String line : String.valueOf(data).split("\r\n|\r|\n", -1)) {
+      frame.append("data: ").append(line).append('\n');
+    }
+    return frame.append('\n').toString();
+  }
+
+  private static String singleLine(String value) {
+    return value.replace('\r', ' ').replace('\n', ' ');
+  }
+
+}
@@ -0,0 +1,285 @@
+package net.metzweb.tinyserver.response;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-Sent Events topic.
+ * Broadcasts events to all subscribed event streams. Events are encoded once,
+ * numbered and kept in a short history, so reconnecting clients get what they missed.
+ * Publishing only queues the event per stream, event threads write it. Streams, whose
+ * client doesn't keep up, are closed. Heartbeats keep idle streams open and detect
+ * clients, that are gone or blocked.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public class EventTopic {
+
+  /**
+   * Sends the heartbeats of all topics.
+   */
+  private static ScheduledExecutorService heartbeats;
+
+  private final CopyOnWriteArraySet<EventStreamResponse> subscribers = new CopyOnWriteArraySet<>();
+
+  /**
+   * Recent events, oldest first.
+   */
+  private final ArrayDeque<Event> history = new ArrayDeque<>();
+  private final int historySize;
+  private long lastId;
+
+  private long heartbeatInterval = 15000;
+  private ScheduledFuture<?> heartbeat;
+
+  /**
+   * Maximum size of the events queued for a stream.
+   */
+  private volatile long maxPendingBytes = 1024 * 1024;
+
+  /**
+   * Custom constructor.
+   * Keeps the last 100 events.
+   */
+  public EventTopic() {
+    this(100);
+  }
+
+  /**
+   * Constructor with history size.
+   * 
+   * @param historySize Number of events kept for reconnecting clients.
+   */
+  public EventTopic(int historySize) {
+    if (historySize < 0) {
+      throw new IllegalArgumentException("Invalid history size: " + historySize);
+    }
+    this.historySize = historySize;
+  }
+
+  /**
+   * Publish an event to all subscribers.
+   * 
+   * @param  data Event data.
+   * @return      The event ID.
+   */
+  public long publish(String data) {
+    return publish(null, data);
+  }
+
+  /**
+   * Publish an event to all subscribers.
+   * Doesn't wait for the clients. Subscribers, whose client is gone, are removed.
+   * 
+   * @param  event Event type or null for "message".
+   * @param  data  Event data.
+   * @return       The event ID.
+   */
+  public synchronized long publish(String event, String data) {
+    long id = ++lastId;
+    byte[] frame = EventStreamResponse.frame(event, Long.toString(id), data);
+    if (historySize > 0) {
+      if (history.size() == historySize) {
+        history.pollFirst();
+      }
+      history.addLast(new Event(id, frame));
+    }
+    deliver(frame);
+    return id;
+  }
+
+  /**
+   * Number of subscribed event streams.
+   * 
+   * @return Subscriber count.
+   */
+  public int getSubscriberCount() {
+    return subscribers.size();
+  }
+
+  /**
+   * Heartbeat interval Getter.
+   * 
+   * @return Interval in milliseconds or 0, if disabled.
+   */
+  public synchronized long getHeartbeatInterval() {
+    return heartbeatInterval;
+  }
+
+  /**
+   * Heartbeat interval Setter.
+   * 
+   * @param interval Interval in milliseconds (default: 15000) or 0 to disable heartbeats.
+   */
+  public synchronized void setHeartbeatInterval(long interval) {
+    if (interval < 0) {
+      throw new IllegalArgumentException("Invalid heartbeat interval: " + interval);
+    }
+    heartbeatInterval = interval;
+    if (heartbeat != null) {
+      heartbeat.cancel(false);
+      heartbeat = null;
+      startHeartbeat();
+    }
+  }
+
+  /**
+   * Queue size Getter.
+   * 
+   * @return Maximum size of the events queued for a stream, in bytes.
+   */
+  public long getMaxPendingBytes() {
+    return maxPendingBytes;
+  }
+
+  /**
+   * Queue size Setter.
+   * A stream, whose client doesn't read fast enough to stay below it, is closed.
+   * 
+   * @param maxPendingBytes Maximum size of the events queued for a stream (default: 1 MB).
+   */
+  public void setMaxPendingBytes(long maxPendingBytes) {
+    if (maxPendingBytes <= 0) {
+      throw new IllegalArgumentException("Invalid queue size: " + maxPendingBytes);
+    }
+    this.maxPendingBytes = maxPendingBytes;
+  }
+
+  /**
+   * Close all subscribed event streams.
+   * Their queued events are written first.
+   */
+  public void close() {
+    List<EventStreamResponse> closing;
+    synchronized (this) {
+      closing = new ArrayList<>(subscribers);
+      subscribers.clear();
+      if (heartbeat != null) {
+        heartbeat.cancel(false);
+        heartbeat = null;
+      }
+    }
+    for (EventStreamResponse subscriber : closing) {
+      subscriber.close();
+    }
+  }
+
+  /**
+   * Subscribe an event stream.
+   * Replays the events after the client's Last-Event-ID, before new events are delivered.
+   * 
+   * @param  subscriber The event stream.
+   * @return            Completes, once the stream is closed or the client is gone.
+   */
+  CompletionStage<Void> subscribe(final EventStreamResponse subscriber) {
+    // the header is sent before, without the lock
+    CompletionStage<Void> closed = subscriber.open();
+    synchronized (this) {
+      long lastEventId = subscriber.getLastEventId();
+      if (lastEventId >= 0) {
+        for (Event event : history) {
+          // the replay is limited by the history size
+          if (event.id > lastEventId && !subscriber.queueFrame(event.frame, Long.MAX_VALUE)) {
+            return closed;
+          }
+        }
+      }
+      if (!subscriber.isClosed()) {
+        subscribers.add(subscriber);
+        closed.thenRun(new Runnable() {
+          @Override
+          public void run() {
+            subscribers.remove(subscriber);
+          }
+        });
+        startHeartbeat();
+      }
+    }
+    return closed;
+  }
+
+  /**
+   * Queue an encoded event for all subscribers.
+   * Called with the lock held, so all streams get the events in order.
+   * 
+   * @param frame The event.
+   */
+  private void deliver(byte[] frame) {
+    long maxPending = maxPendingBytes;
+    for (EventStreamResponse subscriber : subscribers) {
+      if (!subscriber.queueFrame(frame, maxPending)) {
+        subscribers.remove(subscriber);
+      }
+    }
+  }
+
+  /**
+   * Schedule the heartbeat, if it's enabled and not running.
+   */
+  private void startHeartbeat() {
+    if (heartbeat != null || heartbeatInterval <= 0) {
+      return;
+    }
+    final long maxWriteNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatInterval);
+    heartbeat = heartbeats().scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        // doesn't wait for clients, streams blocked for an interval are aborted
+        for (EventStreamResponse subscriber : subscribers) {
+          if (!subscriber.heartbeat(maxWriteNanos)) {
+            subscribers.remove(subscriber);
+          }
+        }
+      }
+    }, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Shared heartbeat thread, created on first use.
+   * Only queues heartbeats, the event threads write them.
+   * 
+   * @return The scheduler.
+   */
+  private static synchronized ScheduledExecutorService heartbeats() {
+    if (heartbeats == null) {
+      heartbeats = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "TinyServer-events");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return heartbeats;
+  }
+
+  /**
+   * Published event.
+   */
+  private static class Event {
+
+    private final long id;
+    private final byte[] frame;
+
+    Event(long id, byte[] frame) {
+      this.id = id;
+      this.frame = frame;
+    }
+
+  }
+
+}
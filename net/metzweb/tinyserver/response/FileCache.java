@@ -0,0 +1,272 @@
+package net.metzweb.tinyserver.response;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import net.metzweb.tinyserver.AccessLog;
+
+/**
+ * In-memory file cache for FileResponse.
+ * Keeps recently requested files up to a byte budget and evicts the
+ * least recently used ones. Cached files are revalidated by their
+ * modification time and length, at most once per revalidation interval.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public class FileCache {
+
+  /**
+   * Cached files in access order (least recently used first).
+   */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+  /**
+   * Byte budget and currently used bytes.
+   */
+  private final long maxSize;
+  private long size;
+
+  private volatile long maxFileSize;
+  private volatile long revalidateInterval = 1000;
+  private volatile boolean directBuffers;
+
+  // statistics
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Custom constructor.
+   * Files larger than an eighth of the budget aren't cached.
+   * 
+   * @param maxSize Byte budget for all cached files.
+   */
+  public FileCache(long maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Invalid cache size: " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.maxFileSize = maxSize / 8;
+  }
+
+  /**
+   * Get a file's content, load it if necessary.
+   * 
+   * @param  file The requested file.
+   * @return      The cached file or null, if it doesn't exist or is too large.
+   */
+  Entry get(File file) {
+    String key = file.getPath();
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    
+    if (entry != null) {
+      long now = System.currentTimeMillis();
+      if (now - entry.checked < revalidateInterval) {
+        hits.incrementAndGet();
+        return entry;
+      }
+      // revalidate
+      if (file.lastModified() == entry.lastModified && file.length() == entry.length) {
+        entry.checked = now;
+        hits.incrementAndGet();
+        return entry;
+      }
+      remove(key, entry);
+    }
+    
+    misses.incrementAndGet();
+    if (!file.isFile() || !file.canRead() || file.length() > maxFileSize) {
+      return null;
+    }
+    try {
+      entry = load(file);
+    } catch (IOException ex) {
+      AccessLog.error("Couldn't cache file: " + file);
+      return null;
+    }
+    put(key, entry);
+    return entry;
+  }
+
+  /**
+   * Remove all cached files.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    size = 0;
+  }
+
+  /**
+   * Maximum file size Setter.
+   * 
+   * @param maxFileSize Larger files are served from disk (default: an eighth of the budget).
+   */
+  public void setMaxFileSize(long maxFileSize) {
+    this.maxFileSize = maxFileSize;
+  }
+
+  /**
+   * Revalidation interval Setter.
+   * 
+   * @param interval Milliseconds between modification checks of a cached file (default: 1000).
+   */
+  public void setRevalidateInterval(long interval) {
+    this.revalidateInterval = interval;
+  }
+
+  /**
+   * Direct buffer Setter.
+   * 
+   * @param direct Whether files are cached off-heap, in direct buffers (default: false).
+   */
+  public void setDirectBuffers(boolean direct) {
+    this.directBuffers = direct;
+  }
+
+  /**
+   * Number of requests served from the cache.
+   * 
+   * @return Cache hits.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Number of requests that had to read the file.
+   * 
+   * @return Cache misses.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Number of files removed to stay within the budget.
+   * 
+   * @return Evictions.
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Bytes currently cached.
+   * 
+   * @return Cache size.
+   */
+  public synchronized long getSize() {
+    return size;
+  }
+
+  /**
+   * Read a file into a buffer.
+   * 
+   * @param  file The file.
+   * @return      The cache entry.
+   * @throws      IOException
+   */
+  private Entry load(File file) throws IOException {
+    long lastModified = file.lastModified();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      int length = (int) channel.size();
+      ByteBuffer content = directBuffers ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+      while (content.hasRemaining()) {
+        if (channel.read(content) < 0) {
+          throw new IOException("File changed while reading: " + file);
+        }
+      }
+      content.flip();
+      return new Entry(content, lastModified);
+    }
+  }
+
+  /**
+   * Add an entry and evict least recently used entries.
+   * 
+   * @param key   The file path.
+   * @param entry The entry.
+   */
+  private synchronized void put(String key, Entry entry) {
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      size -= previous.length;
+    }
+    size += entry.length;
+    
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (size > maxSize && eldest.hasNext()) {
+      Entry evicted = eldest.next().getValue();
+      eldest.remove();
+      size -= evicted.length;
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Remove an outdated entry.
+   * 
+   * @param key   The file path.
+   * @param entry The outdated entry.
+   */
+  private synchronized void remove(String key, Entry entry) {
+    if (entries.get(key) == entry) {
+      entries.remove(key);
+      size -= entry.length;
+    }
+  }
+
+  /**
+   * Cached file content.
+   */
+  static class Entry {
+
+    private final ByteBuffer content;
+    private final long lastModified;
+    private final long length;
+
+    /**
+     * Time of the last modification check.
+     */
+    private volatile long checked = System.currentTimeMillis();
+
+    Entry(ByteBuffer content, long lastModified) {
+      this.content = content;
+      this.lastModified = lastModified;
+      this.length = content.remaining();
+    }
+
+    /**
+     * Content for a single response.
+     * 
+     * @return Independent view of the cached content (read mode).
+     */
+    ByteBuffer getContent() {
+      return content.duplicate();
+    }
+
+    long getLastModified() {
+      return lastModified;
+    }
+
+    long getLength() {
+      return length;
+    }
+
+  }
+
+}
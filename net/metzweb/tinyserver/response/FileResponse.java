@@ -1,10 +1,16 @@
 package net.metzweb.tinyserver.response;
 
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import net.metzweb.tinyserver.AccessLog;
 
 /**
  * File response.
@@ -18,6 +24,21 @@ import java.util.HashMap;
  */
 public class FileResponse extends ResponseFormat<String> {
 
+  /**
+   * Chunk size for copying files to plain output streams.
+   */
+  private static final int CHUNK_SIZE = 16 * 1024;
+
+  /**
+   * Range requests with more ranges are answered with the whole file.
+   */
+  private static final int MAX_RANGES = 16;
+
+  /**
+   * Separates the parts of multi-range responses.
+   */
+  private static final String BOUNDARY = "TinyServer" + Long.toHexString(new SecureRandom().nextLong());
+
   /**
    * Mapping file extension -> MIME type
    */
@@ -41,12 +62,61 @@ public class FileResponse extends ResponseFormat<String> {
     put("binary", "application/octet-stream");
   }};
 
+  /**
+   * Optional in-memory cache.
+   */
+  private final FileCache cache;
+
+  /**
+   * Whether gzipped siblings (e.g. app.js.gz) are served.
+   */
+  private volatile boolean precompressed;
+
   /**
    * Custom constructor.
    * Defines no MIME type, since it depends on the file extension.
    */
   public FileResponse() {
+    this(null);
+  }
+
+  /**
+   * Constructor with file cache.
+   * 
+   * @param cache Cache for frequently requested files.
+   */
+  public FileResponse(FileCache cache) {
     super(null);
+    this.cache = cache;
+  }
+
+  /**
+   * File cache Getter.
+   * 
+   * @return The cache or null.
+   */
+  public FileCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Precompressed Getter.
+   * 
+   * @return Whether gzipped siblings are served.
+   */
+  public boolean isPrecompressed() {
+    return precompressed;
+  }
+
+  /**
+   * Precompressed Setter.
+   * If enabled and the client accepts gzip, a sibling file with .gz extension
+   * is sent instead of the requested file, without compressing at request time.
+   * 
+   * @param precompressed Whether gzipped siblings are served.
+   */
+  public void setPrecompressed(boolean precompressed) {
+    this.precompressed = precompressed;
   }
 
   /**
@@ -68,6 +138,8 @@ public class FileResponse extends ResponseFormat<String> {
 
   /**
    * Write file content to the open socket.
+   * The content is transferred without loading the file into memory.
+   * Successful responses honor conditional and Range requests.
    * 
    * @param code The response STATUS_CODE.
    * @param path The file path.
@@ -75,29 +147,278 @@ public class FileResponse extends ResponseFormat<String> {
   @Override
   protected void write(String code, String path) {
     File file = new File(path);
-    if (file.exists() && file.canRead()) {
-      try (FileInputStream fileInput = new FileInputStream(file);
-           DataOutputStream out = new DataOutputStream(output)) {
-        
+    if (precompressed) {
+      addHeader("Vary", "Accept-Encoding");
+      File gzipped = new File(path + ".gz");
+      if (request != null && Compression.GZIP.equals(Compression.negotiate(request.header("Accept-Encoding")))
+          && gzipped.isFile() && gzipped.canRead()) {
+        // sent as is, the MIME type still belongs to the original file
+        file = gzipped;
+        addHeader("Content-Encoding", Compression.GZIP);
+      }
+    }
+    FileCache.Entry cached = (cache != null) ? cache.get(file) : null;
+    if (cached == null && !(file.isFile() && file.canRead())) {
+      AccessLog.error("Couldn't load file, since it's damaged.");
+      return;
+    }
+    
+    long length = (cached != null) ? cached.getLength() : file.length();
+    long lastModified = (cached != null) ? cached.getLastModified() : file.lastModified();
+    String etag = etag(length, lastModified);
+    try {
+      addHeader("Accept-Ranges", "bytes");
+      addHeader("ETag", etag);
+      addHeader("Last-Modified", HttpDate.format(lastModified));
+      List<long[]> ranges = null;
+      if (code.equals(STATUS_CODE.SUCCESS.getHeader())) {
+        if (isNotModified(etag, lastModified)) {
+          writeHeader(STATUS_CODE.NOT_MODIFIED.getHeader());
+          output.flush();
+          return;
+        }
+        ranges = requestedRanges(length, lastModified, etag);
+      }
+      
+      if (ranges == null) {
         // write header with status code
-        writeHeader(code);
-        
-        int length = (int) file.length();
-        byte[] array = new byte[length];
-        int offset = 0;
-        while (offset < length) {
-          int count = fileInput.read(array, offset, (length - offset));
-          offset += count;
+        writeHeader(code, length);
+        send(file, cached, 0, length);
+      } else if (ranges.isEmpty()) {
+        addHeader("Content-Range", "bytes */" + length);
+        writeHeader(STATUS_CODE.RANGE_NOT_SATISFIABLE.getHeader(), 0);
+      } else if (ranges.size() == 1) {
+        long[] range = ranges.get(0);
+        addHeader("Content-Range", contentRange(range, length));
+        writeHeader(STATUS_CODE.PARTIAL_CONTENT.getHeader(), range[1] - range[0] + 1);
+        send(file, cached, range[0], range[1] - range[0] + 1);
+      } else {
+        writeMultipart(file, cached, ranges, length);
+      }
+      output.flush();
+    } catch (IOException ex) {
+      // the announced length can't be trusted anymore
+      setKeepAlive(false);
+      AccessLog.error("I/O Exception while sending file.");
+    }
+  }
+
+  /**
+   * Write several ranges as multipart/byteranges.
+   * 
+   * @param  file   The file.
+   * @param  cached The cached file or null.
+   * @param  ranges The ranges, [first byte, last byte].
+   * @param  length The file length.
+   * @throws        IOException
+   */
+  private void writeMultipart(File file, FileCache.Entry cached, List<long[]> ranges, long length) throws IOException {
+    String partType = getMimeType();
+    List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+    byte[] closing = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    
+    long contentLength = closing.length;
+    for (long[] range : ranges) {
+      String partHeader = "\r\n--" + BOUNDARY + "\r\n"
+          + "Content-Type: " + partType + "\r\n"
+          + "Content-Range: " + contentRange(range, length) + "\r\n\r\n";
+      byte[] bytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+      partHeaders.add(bytes);
+      contentLength += bytes.length + range[1] - range[0] + 1;
+    }
+    
+    setMimeType("multipart/byteranges; boundary=" + BOUNDARY);
+    writeHeader(STATUS_CODE.PARTIAL_CONTENT.getHeader(), contentLength);
+    for (int i = 0; i < ranges.size(); i++) {
+      long[] range = ranges.get(i);
+      output.write(partHeaders.get(i));
+      send(file, cached, range[0], range[1] - range[0] + 1);
+    }
+    output.write(closing);
+  }
+
+  /**
+   * Whether the client's copy is still valid.
+   * If-None-Match takes precedence over If-Modified-Since.
+   * 
+   * @param  etag         The file's entity tag.
+   * @param  lastModified The file's modification time.
+   * @return              Whether 304 Not Modified can be sent.
+   */
+  private boolean isNotModified(String etag, long lastModified) {
+    if (request == null) {
+      return false;
+    }
+    String ifNoneMatch = request.header("If-None-Match");
+    if (ifNoneMatch != null) {
+      // weak comparison, e.g. "abc", W/"abc" or *
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        if (tag.equals("*") || tag.equals(etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    String ifModifiedSince = request.header("If-Modified-Since");
+    if (ifModifiedSince != null) {
+      long date = HttpDate.parse(ifModifiedSince);
+      return date >= 0 && lastModified / 1000 <= date / 1000;
+    }
+    return false;
+  }
+
+  /**
+   * Parse the Range header of the request.
+   * 
+   * @param  length       The file length.
+   * @param  lastModified The file's modification time.
+   * @param  etag         The file's entity tag.
+   * @return              The satisfiable ranges (empty if none is),
+   *                      or null, if the whole file has to be sent.
+   */
+  private List<long[]> requestedRanges(long length, long lastModified, String etag) {
+    String header = (request != null) ? request.header("Range") : null;
+    if (header == null || !header.startsWith("bytes=")) {
+      return null;
+    }
+    
+    // If-Range: only send ranges of an unchanged file
+    String ifRange = request.header("If-Range");
+    if (ifRange != null) {
+      ifRange = ifRange.trim();
+      if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+        // strong comparison, weak tags never match
+        if (!ifRange.equals(etag)) {
+          return null;
+        }
+      } else {
+        long date = HttpDate.parse(ifRange);
+        if (date < 0 || date / 1000 != lastModified / 1000) {
+          return null;
+        }
+      }
+    }
+    
+    // example: bytes=0-499,1000-,-500
+    String[] specs = header.substring(6).split(",");
+    if (specs.length > MAX_RANGES) {
+      return null;
+    }
+    List<long[]> ranges = new ArrayList<>(specs.length);
+    for (String spec : specs) {
+      spec = spec.trim();
+      int dash = spec.indexOf('-');
+      if (dash < 0) {
+        return null;
+      }
+      long first;
+      long last;
+      try {
+        if (dash == 0) {
+          // suffix range: last n bytes
+          long suffix = Long.parseLong(spec.substring(1));
+          first = Math.max(length - suffix, 0);
+          last = length - 1;
+          if (suffix == 0) {
+            continue;
+          }
+        } else {
+          first = Long.parseLong(spec.substring(0, dash));
+          last = (dash == spec.length() - 1) ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+          if (last < first) {
+            return null;
+          }
+        }
+      } catch (NumberFormatException ex) {
+        return null;
+      }
+      if (first < length) {
+        ranges.add(new long[] {first, Math.min(last, length - 1)});
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Send a region of the file.
+   * 
+   * @param  file     The file.
+   * @param  cached   The cached file or null.
+   * @param  position Offset of the first byte.
+   * @param  count    Number of bytes.
+   * @throws          IOException
+   */
+  private void send(File file, FileCache.Entry cached, long position, long count) throws IOException {
+    if (cached != null) {
+      ByteBuffer content = cached.getContent();
+      content.position((int) position);
+      content.limit((int) (position + count));
+      if (output instanceof FileTransfer) {
+        ((FileTransfer) output).transferBuffer(content);
+      } else {
+        byte[] chunk = new byte[Math.min(CHUNK_SIZE, content.remaining())];
+        while (content.hasRemaining()) {
+          int length = Math.min(chunk.length, content.remaining());
+          content.get(chunk, 0, length);
+          output.write(chunk, 0, length);
         }
-        
-        out.write(array);
-        out.flush();
-      } catch (IOException ex) {
-        ex.printStackTrace();
       }
+    } else if (output instanceof FileTransfer) {
+      ((FileTransfer) output).transferFile(file, position, count);
     } else {
-      System.err.println("Couldn't load file, since it's damaged.");
+      copy(file, position, count);
+    }
+  }
+
+  /**
+   * Copy file content in chunks, for outputs without file transfer support.
+   * 
+   * @param  file     The file.
+   * @param  position Offset of the first byte.
+   * @param  length   Number of bytes to copy.
+   * @throws          IOException
+   */
+  private void copy(File file, long position, long length) throws IOException {
+    try (FileInputStream fileInput = new FileInputStream(file)) {
+      if (fileInput.skip(position) < position) {
+        throw new EOFException("File shorter than expected: " + file);
+      }
+      byte[] chunk = new byte[CHUNK_SIZE];
+      while (length > 0) {
+        int count = fileInput.read(chunk, 0, (int) Math.min(chunk.length, length));
+        if (count < 0) {
+          throw new EOFException("File shorter than expected: " + file);
+        }
+        output.write(chunk, 0, count);
+        length -= count;
+      }
     }
   }
 
+  /**
+   * Entity tag of a file version.
+   * 
+   * @param  length       The file length.
+   * @param  lastModified The file's modification time.
+   * @return              e.g. "4d2-18f3a1c2b40"
+   */
+  private static String etag(long length, long lastModified) {
+    return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+  }
+
+  /**
+   * Format a Content-Range header value.
+   * 
+   * @param  range  The range, [first byte, last byte].
+   * @param  length The file length.
+   * @return        e.g. bytes 0-499/1234
+   */
+  private static String contentRange(long[] range, long length) {
+    return "bytes " + range[0] + "-" + range[1] + "/" + length;
+  }
+
 }
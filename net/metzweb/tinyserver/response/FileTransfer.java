@@ -0,0 +1,41 @@
+package net.metzweb.tinyserver.response;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Output, that sends file content without copying it through the heap,
+ * e.g. with FileChannel.transferTo (sendfile).
+ * Implemented by the connection outputs of TinyServer.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public interface FileTransfer {
+
+  /**
+   * Send a region of a file.
+   * Previously written data is sent first.
+   * 
+   * @param  file     The file.
+   * @param  position Offset of the first byte.
+   * @param  count    Number of bytes.
+   * @throws          IOException If the file can't be read or is shorter than expected.
+   */
+  public void transferFile(File file, long position, long count) throws IOException;
+
+  /**
+   * Send buffered content, e.g. a cached file.
+   * The buffer isn't modified and may be shared by concurrent responses.
+   * 
+   * @param  content The content (read mode).
+   * @throws         IOException
+   */
+  public void transferBuffer(ByteBuffer content) throws IOException;
+
+}
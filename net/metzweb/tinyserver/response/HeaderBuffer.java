@@ -0,0 +1,140 @@
+package net.metzweb.tinyserver.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable buffer for response headers.
+ * Collects pre-encoded header lines and dynamic values as bytes,
+ * so a header is written with a single call and without a text encoder.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class HeaderBuffer {
+
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  /**
+   * One buffer per thread, the header is copied by the output when it's written.
+   */
+  private static final ThreadLocal<HeaderBuffer> BUFFERS = new ThreadLocal<HeaderBuffer>() {
+    @Override
+    protected HeaderBuffer initialValue() {
+      return new HeaderBuffer();
+    }
+  };
+
+  private byte[] bytes = new byte[512];
+  private int count;
+
+  /**
+   * Get the empty buffer of the current thread.
+   * 
+   * @return The buffer.
+   */
+  static HeaderBuffer get() {
+    HeaderBuffer buffer = BUFFERS.get();
+    buffer.count = 0;
+    return buffer;
+  }
+
+  /**
+   * Append pre-encoded bytes.
+   * 
+   * @param  encoded e.g. a constant header line.
+   * @return         This buffer.
+   */
+  HeaderBuffer append(byte[] encoded) {
+    ensureCapacity(encoded.length);
+    System.arraycopy(encoded, 0, bytes, count, encoded.length);
+    count += encoded.length;
+    return this;
+  }
+
+  /**
+   * Append a text value.
+   * 
+   * @param  text Header name or value.
+   * @return      This buffer.
+   */
+  HeaderBuffer append(String text) {
+    int length = text.length();
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c >= 0x80) {
+        // rare: non-ASCII value
+        return append(text.substring(i).getBytes(StandardCharsets.UTF_8));
+      }
+      bytes[count++] = (byte) c;
+    }
+    return this;
+  }
+
+  /**
+   * Append a decimal number.
+   * 
+   * @param  number e.g. a Content-Length.
+   * @return        This buffer.
+   */
+  HeaderBuffer append(long number) {
+    if (number < 0) {
+      return append(Long.toString(number));
+    }
+    int digits = 1;
+    for (long rest = number / 10; rest > 0; rest /= 10) {
+      digits++;
+    }
+    ensureCapacity(digits);
+    for (int i = count + digits - 1; i >= count; i--) {
+      bytes[i] = (byte) ('0' + number % 10);
+      number /= 10;
+    }
+    count += digits;
+    return this;
+  }
+
+  /**
+   * Terminate a header line.
+   * 
+   * @return This buffer.
+   */
+  HeaderBuffer endLine() {
+    return append(CRLF);
+  }
+
+  /**
+   * Write the collected header.
+   * 
+   * @param  output The connection output.
+   * @throws        IOException
+   */
+  void writeTo(OutputStream output) throws IOException {
+    output.write(bytes, 0, count);
+    count = 0;
+  }
+
+  /**
+   * Encode a constant.
+   * 
+   * @param  text Header line or fragment.
+   * @return      Its bytes.
+   */
+  static byte[] encode(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private void ensureCapacity(int length) {
+    if (count + length > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + length));
+    }
+  }
+
+}
@@ -0,0 +1,63 @@
+package net.metzweb.tinyserver.response;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * HTTP date formatting and parsing (RFC 1123).
+ * e.g. Sun, 18 Oct 2026 08:49:37 GMT
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+final class HttpDate {
+
+  private static final String PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+  /**
+   * SimpleDateFormat isn't thread-safe, so every thread gets its own.
+   */
+  private static final ThreadLocal<SimpleDateFormat> FORMAT = new ThreadLocal<SimpleDateFormat>() {
+    @Override
+    protected SimpleDateFormat initialValue() {
+      SimpleDateFormat format = new SimpleDateFormat(PATTERN, Locale.US);
+      format.setTimeZone(TimeZone.getTimeZone("GMT"));
+      return format;
+    }
+  };
+
+  private HttpDate() {
+  }
+
+  /**
+   * Format a timestamp.
+   * 
+   * @param  millis Milliseconds since epoch.
+   * @return        The HTTP date.
+   */
+  static String format(long millis) {
+    return FORMAT.get().format(new Date(millis));
+  }
+
+  /**
+   * Parse an HTTP date.
+   * 
+   * @param  date The HTTP date.
+   * @return      Milliseconds since epoch or -1, if it's invalid.
+   */
+  static long parse(String date) {
+    try {
+      return FORMAT.get().parse(date.trim()).getTime();
+    } catch (ParseException ex) {
+      return -1;
+    }
+  }
+
+}
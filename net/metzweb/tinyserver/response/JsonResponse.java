@@ -1,13 +1,15 @@
 package net.metzweb.tinyserver.response;
 
-import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import org.json.simple.JSONValue;
+import net.metzweb.tinyserver.AccessLog;
 
 /**
  * JSON response.
- * Dependency: http://code.google.com/p/json-simple/
+ * The document is streamed to the client, without building it as a String.
  * 
  * @package TinyServer
  * 
@@ -18,6 +20,19 @@ import org.json.simple.JSONValue;
  */
 public class JsonResponse extends ResponseFormat<Map> {
 
+  /**
+   * Pre-encoded envelope: {"status":"200","message":"OK","data":...}
+   */
+  private static final byte[] STATUS = JsonWriter.bytes("{\"status\":\"");
+  private static final byte[] MESSAGE = JsonWriter.bytes("\",\"message\":");
+  private static final byte[] DATA = JsonWriter.bytes(",\"data\":");
+  private static final byte[] END = JsonWriter.bytes("}");
+
+  /**
+   * Pre-encoded status codes, e.g. 200.
+   */
+  private static final Map<STATUS_CODE, byte[]> CODES = codes();
+
   /**
    * Custom constructor that sets MIME type.
    */
@@ -94,23 +109,41 @@ public class JsonResponse extends ResponseFormat<Map> {
   }
 
   /**
-   * Convert Map to write JSON
+   * Stream the JSON envelope and its data.
    * 
    * @param code    The request status code.
    * @param message The request message.
-   * @param data    The request data map (key => value).
+   * @param data    The request data, e.g. a Map (key => value) or List.
    */
   private void writeJson(STATUS_CODE code, String message, Object data) {
-    Map json = new LinkedHashMap();
-    json.put("status", Integer.toString(code.getCode()));
-    json.put("message", message);
-    
-    if (data != null) {
-      json.put("data", data);
+    try (OutputStream body = stream(code.getHeader())) {
+      JsonWriter json = new JsonWriter(body);
+      json.raw(STATUS);
+      json.raw(CODES.get(code));
+      json.raw(MESSAGE);
+      json.value(message);
+      if (data != null) {
+        json.raw(DATA);
+        json.value(data);
+      }
+      json.raw(END);
+      json.flush();
+    } catch (IOException ex) {
+      AccessLog.error("Response format, writer error.");
+    }
+  }
+
+  /**
+   * Encode the status codes of the envelope.
+   * 
+   * @return Status code bytes by STATUS_CODE.
+   */
+  private static Map<STATUS_CODE, byte[]> codes() {
+    Map<STATUS_CODE, byte[]> codes = new EnumMap<>(STATUS_CODE.class);
+    for (STATUS_CODE code : STATUS_CODE.values()) {
+      codes.put(code, JsonWriter.bytes(Integer.toString(code.getCode())));
     }
-    
-    String jsonData = JSONValue.toJSONString(json);
-    write(code.getHeader(), jsonData);
+    return codes;
   }
 
 }
@@ -0,0 +1,324 @@
+package net.metzweb.tinyserver.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Streaming JSON serializer.
+ * Writes Maps, Collections, arrays and primitive values directly as UTF-8 bytes,
+ * without building the document as a String. Objects implementing json-simple's
+ * JSONAware are written as their toJSONString(), if json-simple is on the classpath.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class JsonWriter {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final byte[] NULL = bytes("null");
+  private static final byte[] TRUE = bytes("true");
+  private static final byte[] FALSE = bytes("false");
+  private static final byte[] HEX = bytes("0123456789abcdef");
+
+  /**
+   * toJSONString() of classes implementing org.json.simple.JSONAware, otherwise null.
+   */
+  private static final ClassValue<Method> JSON_AWARE = new ClassValue<Method>() {
+    @Override
+    protected Method computeValue(Class<?> type) {
+      Class<?> jsonAware = jsonAwareInterface(type);
+      if (jsonAware == null) {
+        return null;
+      }
+      try {
+        // called through the public interface, also for non-public classes
+        return jsonAware.getMethod("toJSONString");
+      } catch (NoSuchMethodException ex) {
+        return null;
+      }
+    }
+  };
+
+  private final OutputStream output;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int count;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param output Receives the UTF-8 encoded document.
+   */
+  JsonWriter(OutputStream output) {
+    this.output = output;
+  }
+
+  /**
+   * Write a value.
+   * Unknown objects are written as their string representation.
+   * 
+   * @param  value Map, Iterable, array (also of primitives), String, Number, Boolean, JSONAware or null.
+   * @throws       IOException
+   */
+  void value(Object value) throws IOException {
+    if (value == null) {
+      raw(NULL);
+    } else if (value instanceof String) {
+      string((String) value);
+    } else if (value instanceof Number) {
+      number((Number) value);
+    } else if (value instanceof Boolean) {
+      raw(((Boolean) value) ? TRUE : FALSE);
+    } else if (JSON_AWARE.get(value.getClass()) != null) {
+      jsonAware(value);
+    } else if (value instanceof Map) {
+      map((Map<?, ?>) value);
+    } else if (value instanceof Iterable) {
+      array((Iterable<?>) value);
+    } else if (value.getClass().isArray()) {
+      array(value);
+    } else {
+      string(value.toString());
+    }
+  }
+
+  /**
+   * Write a pre-encoded fragment, e.g. a constant key.
+   * 
+   * @param  bytes UTF-8 encoded JSON.
+   * @throws       IOException
+   */
+  void raw(byte[] bytes) throws IOException {
+    if (bytes.length > buffer.length - count) {
+      flush();
+      if (bytes.length > buffer.length) {
+        output.write(bytes);
+        return;
+      }
+    }
+    System.arraycopy(bytes, 0, buffer, count, bytes.length);
+    count += bytes.length;
+  }
+
+  /**
+   * Write the buffered bytes to the output.
+   * Doesn't flush the output itself.
+   * 
+   * @throws IOException
+   */
+  void flush() throws IOException {
+    if (count > 0) {
+      output.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+
+  private void map(Map<?, ?> map) throws IOException {
+    write('{');
+    boolean first = true;
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      if (!first) {
+        write(',');
+      }
+      first = false;
+      string(String.valueOf(entry.getKey()));
+      write(':');
+      value(entry.getValue());
+    }
+    write('}');
+  }
+
+  private void array(Iterable<?> values) throws IOException {
+    write('[');
+    boolean first = true;
+    for (Object value : values) {
+      if (!first) {
+        write(',');
+      }
+      first = false;
+      value(value);
+    }
+    write(']');
+  }
+
+  /**
+   * Write an array, e.g. Object[] or int[].
+   * 
+   * @param  values The array.
+   * @throws        IOException
+   */
+  private void array(Object values) throws IOException {
+    write('[');
+    int length = Array.getLength(values);
+    for (int i = 0; i < length; i++) {
+      if (i > 0) {
+        write(',');
+      }
+      value(Array.get(values, i));
+    }
+    write(']');
+  }
+
+  /**
+   * Write the JSON of an object implementing JSONAware.
+   * 
+   * @param  value The object.
+   * @throws       IOException
+   */
+  private void jsonAware(Object value) throws IOException {
+    Object json;
+    try {
+      json = JSON_AWARE.get(value.getClass()).invoke(value);
+    } catch (IllegalAccessException | InvocationTargetException ex) {
+      throw new IOException("JSON serialization failed: " + value.getClass().getName(), ex);
+    }
+    if (json == null) {
+      raw(NULL);
+    } else {
+      raw(bytes(json.toString()));
+    }
+  }
+
+  private void number(Number number) throws IOException {
+    if ((number instanceof Double && (((Double) number).isNaN() || ((Double) number).isInfinite()))
+        || (number instanceof Float && (((Float) number).isNaN() || ((Float) number).isInfinite()))) {
+      // not representable in JSON
+      raw(NULL);
+      return;
+    }
+    String text = number.toString();
+    for (int i = 0; i < text.length(); i++) {
+      write(text.charAt(i));
+    }
+  }
+
+  /**
+   * Write an escaped string, encoded as UTF-8.
+   * 
+   * @param  text The string.
+   * @throws      IOException
+   */
+  private void string(String text) throws IOException {
+    write('"');
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c >= 0x20 && c < 0x7F && c != '"' && c != '\\' && c != '/') {
+        write(c);
+        continue;
+      }
+      switch (c) {
+        case '"':
+          escape('"');
+          break;
+        case '\\':
+          escape('\\');
+          break;
+        case '/':
+          escape('/');
+          break;
+        case '\b':
+          escape('b');
+          break;
+        case '\f':
+          escape('f');
+          break;
+        case '\n':
+          escape('n');
+          break;
+        case '\r':
+          escape('r');
+          break;
+        case '\t':
+          escape('t');
+          break;
+        default:
+          if (c < 0x20 || (c >= 0x7F && c <= 0x9F) || (c >= 0x2000 && c <= 0x20FF)) {
+            // control and separator characters
+            unicode(c);
+          } else if (c < 0x800) {
+            write(0xC0 | (c >> 6));
+            write(0x80 | (c & 0x3F));
+          } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, text.charAt(++i));
+            write(0xF0 | (codePoint >> 18));
+            write(0x80 | ((codePoint >> 12) & 0x3F));
+            write(0x80 | ((codePoint >> 6) & 0x3F));
+            write(0x80 | (codePoint & 0x3F));
+          } else if (Character.isSurrogate(c)) {
+            // unpaired surrogate
+            unicode(c);
+          } else {
+            write(0xE0 | (c >> 12));
+            write(0x80 | ((c >> 6) & 0x3F));
+            write(0x80 | (c & 0x3F));
+          }
+          break;
+      }
+    }
+    write('"');
+  }
+
+  private void escape(char c) throws IOException {
+    write('\\');
+    write(c);
+  }
+
+  private void unicode(char c) throws IOException {
+    write('\\');
+    write('u');
+    write(HEX[(c >> 12) & 0xF]);
+    write(HEX[(c >> 8) & 0xF]);
+    write(HEX[(c >> 4) & 0xF]);
+    write(HEX[c & 0xF]);
+  }
+
+  private void write(int b) throws IOException {
+    if (count == buffer.length) {
+      flush();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  /**
+   * Find org.json.simple.JSONAware among the ancestors of a class, without depending on json-simple.
+   * 
+   * @param  type The class.
+   * @return      The interface or null, if the class doesn't implement it.
+   */
+  private static Class<?> jsonAwareInterface(Class<?> type) {
+    if (type == null) {
+      return null;
+    }
+    if (type.getName().equals("org.json.simple.JSONAware")) {
+      return type;
+    }
+    for (Class<?> parent : type.getInterfaces()) {
+      Class<?> jsonAware = jsonAwareInterface(parent);
+      if (jsonAware != null) {
+        return jsonAware;
+      }
+    }
+    return jsonAwareInterface(type.getSuperclass());
+  }
+
+  /**
+   * Encode a constant.
+   * 
+   * @param  text JSON fragment.
+   * @return      UTF-8 bytes.
+   */
+  static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+}
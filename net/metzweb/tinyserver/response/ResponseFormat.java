@@ -3,12 +3,20 @@ package net.metzweb.tinyserver.response;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.metzweb.tinyserver.AccessLog;
+import net.metzweb.tinyserver.Request;
 
 /**
  * Response format marker interface.
+ * Registered instances serve as prototypes: every request writes
+ * to its own copy, created by create().
  * 
  * @package TinyServer
  * 
@@ -17,7 +25,32 @@ import java.io.Writer;
  * @version 1.3
  * @license BSD http://www.opensource.org/licenses/bsd-license.php
  */
-public abstract class ResponseFormat<T> {
+public abstract class ResponseFormat<T> implements ResponseFormatFactory, Cloneable {
+
+  /**
+   * Pre-encoded header fragments.
+   */
+  private static final byte[] CONTENT_LENGTH = HeaderBuffer.encode("Content-Length: ");
+  private static final byte[] CHUNKED = HeaderBuffer.encode("Transfer-Encoding: chunked\r\n");
+  private static final byte[] KEEP_ALIVE = HeaderBuffer.encode("Connection: keep-alive\r\nServer: TinyServer MetzWeb\r\n\r\n");
+  private static final byte[] CLOSE = HeaderBuffer.encode("Connection: close\r\nServer: TinyServer MetzWeb\r\n\r\n");
+
+  /**
+   * Pre-encoded status lines, by STATUS_CODE header.
+   */
+  private static final Map<String, byte[]> STATUS_LINES = new HashMap<>();
+
+  /**
+   * Encoded Content-Type lines, by MIME type.
+   */
+  private static final int MAX_CONTENT_TYPES = 256;
+  private static final ConcurrentHashMap<String, byte[]> CONTENT_TYPE_LINES = new ConcurrentHashMap<>();
+
+  static {
+    for (STATUS_CODE code : STATUS_CODE.values()) {
+      STATUS_LINES.put(code.getHeader(), statusLine(code.getHeader()));
+    }
+  }
 
   /**
    * MIME type.
@@ -27,6 +60,7 @@ public abstract class ResponseFormat<T> {
 
   /**
    * String writer.
+   * Set with the output stream, its encoder is created on first use.
    */
   protected Writer writer;
 
@@ -35,11 +69,49 @@ public abstract class ResponseFormat<T> {
    */
   protected OutputStream output;
 
+  /**
+   * The request, that is answered.
+   */
+  protected Request request;
+
   /**
    * Whether response header already written.
    */
   private boolean headerWritten;
 
+  /**
+   * Status code and body length of the written response.
+   */
+  private int status;
+  private long bytesWritten;
+
+  /**
+   * Additional header lines of the current response.
+   */
+  private List<String> headers = new ArrayList<>();
+
+  /**
+   * Whether the connection stays open after this response.
+   */
+  private boolean keepAlive;
+
+  /**
+   * Streamed body of the current response and its writer or null.
+   */
+  private ResponseStream stream;
+  private Writer streamWriter;
+
+  /**
+   * Cache-Control header value or null.
+   */
+  private volatile String cacheControl = "private, max-age=0";
+  private volatile byte[] cacheControlLine = headerLine("Cache-Control", cacheControl);
+
+  /**
+   * Compression settings or null.
+   */
+  private volatile Compression compression;
+
   /**
    * Custom constructor.
    * 
@@ -54,8 +126,11 @@ public abstract class ResponseFormat<T> {
    */
   protected enum STATUS_CODE {
     SUCCESS(200),
+    PARTIAL_CONTENT(206),
+    NOT_MODIFIED(304),
     FORBIDDEN(403),
     NOT_FOUND(404),
+    RANGE_NOT_SATISFIABLE(416),
     ERROR(500);
     
     private int code;
@@ -70,10 +145,16 @@ public abstract class ResponseFormat<T> {
     
     public String getHeader() {
       switch (this) {
+        case PARTIAL_CONTENT:
+          return "206 Partial Content";
+        case NOT_MODIFIED:
+          return "304 Not Modified";
         case FORBIDDEN:
           return "403 Forbidden";
         case NOT_FOUND:
           return "404 Not Found";
+        case RANGE_NOT_SATISFIABLE:
+          return "416 Range Not Satisfiable";
         case ERROR:
           return "500 Internal Server Error";
         default:
@@ -84,10 +165,16 @@ public abstract class ResponseFormat<T> {
     
     public String getDesc() {
       switch (this) {
+        case PARTIAL_CONTENT:
+          return "Partial content";
+        case NOT_MODIFIED:
+          return "Not modified";
         case FORBIDDEN:
           return "You don't have enough rights to access this resource.";
         case NOT_FOUND:
           return "The requested resource wasn't found.";
+        case RANGE_NOT_SATISFIABLE:
+          return "The requested range isn't available.";
         case ERROR:
           return "An error occured.";
         default:
@@ -156,20 +243,182 @@ public abstract class ResponseFormat<T> {
   }
 
   /**
-   * Set output stream and initialize its writer.
+   * Cache-Control Getter.
    * 
-   * @param writer 
+   * @return Cache-Control header value or null.
    */
-  public void setOutputStream(OutputStream output) {
+  public String getCacheControl() {
+    return cacheControl;
+  }
+
+  /**
+   * Cache-Control Setter.
+   * Applies to all responses of this format, so a route with its own
+   * format instance gets its own caching policy.
+   * 
+   * @param cacheControl Header value, e.g. public, max-age=86400
+   *                     or null to omit the header.
+   */
+  public void setCacheControl(String cacheControl) {
+    this.cacheControl = cacheControl;
+    this.cacheControlLine = (cacheControl != null) ? headerLine("Cache-Control", cacheControl) : null;
+  }
+
+  /**
+   * Compression Getter.
+   * 
+   * @return Compression settings or null, if disabled.
+   */
+  public Compression getCompression() {
+    return compression;
+  }
+
+  /**
+   * Compression Setter.
+   * 
+   * @param compression Compression settings or null to disable compression.
+   */
+  public void setCompression(Compression compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Create a copy of this format for one request.
+   * Configuration (e.g. Cache-Control, compression) is shared,
+   * the response state is reset. Subclasses with mutable
+   * configuration objects override this to copy them.
+   * 
+   * @return New response format object.
+   */
+  @Override
+  public ResponseFormat<T> create() {
     try {
-      this.output = output;
-      this.writer = new PrintWriter(new OutputStreamWriter(output, "UTF-8"));
-      this.headerWritten = false;
-    } catch (UnsupportedEncodingException ex) {
-      ex.printStackTrace();
+      @SuppressWarnings("unchecked")
+      ResponseFormat<T> format = (ResponseFormat<T>) super.clone();
+      format.writer = null;
+      format.output = null;
+      format.request = null;
+      format.headerWritten = false;
+      format.status = 0;
+      format.bytesWritten = 0;
+      format.headers = new ArrayList<>();
+      format.keepAlive = false;
+      format.stream = null;
+      format.streamWriter = null;
+      return format;
+    } catch (CloneNotSupportedException ex) {
+      throw new AssertionError(ex);
     }
   }
 
+  /**
+   * Output stream Setter.
+   * Resets the response state.
+   * 
+   * @param output The connection output.
+   */
+  public void setOutputStream(OutputStream output) {
+    this.output = output;
+    this.writer = new OutputWriter(output);
+    this.headerWritten = false;
+    this.status = 0;
+    this.bytesWritten = 0;
+    this.keepAlive = false;
+    this.headers.clear();
+    this.stream = null;
+    this.streamWriter = null;
+  }
+
+  /**
+   * Text writer of the output.
+   * 
+   * @return UTF-8 writer, flushed by the caller.
+   */
+  protected Writer getWriter() {
+    if (writer == null) {
+      writer = new OutputWriter(output);
+    }
+    return writer;
+  }
+
+  /**
+   * Request Setter.
+   * Set by the request, before the response is written.
+   * 
+   * @param request The request, that is answered.
+   */
+  public void setRequest(Request request) {
+    this.request = request;
+  }
+
+  /**
+   * Add a header to the current response.
+   * Has to be called before the header is written.
+   * 
+   * @param name  Header name, e.g. Accept-Ranges
+   * @param value Header value.
+   */
+  protected void addHeader(String name, String value) {
+    headers.add(name + ": " + value);
+  }
+
+  /**
+   * Keep-alive Setter.
+   * Set by the request, before the response is written.
+   * 
+   * @param keepAlive Whether the client may reuse the connection.
+   */
+  public void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  /**
+   * Whether the written response allows to reuse the connection.
+   * Requires a complete response, that is delimited by its Content-Length.
+   * 
+   * @return Whether the connection stays open.
+   */
+  public boolean isPersistent() {
+    return headerWritten && keepAlive;
+  }
+
+  /**
+   * Whether the response has been started,
+   * by writing its header or opening its stream.
+   * 
+   * @return Whether a different response can't be written anymore.
+   */
+  public boolean isStarted() {
+    return headerWritten || stream != null;
+  }
+
+  /**
+   * Status code Getter.
+   * 
+   * @return Status code of the written response, e.g. 200, or 0 if no header has been written.
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * Body length Getter.
+   * 
+   * @return Number of body bytes written so far, after compression.
+   */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * Count body bytes, that are written without a Content-Length.
+   * 
+   * @param length Number of bytes.
+   */
+  void addBytesWritten(long length) {
+    bytesWritten += length;
+  }
+
   /**
    * Write data string to the open socket.
    * 
@@ -178,30 +427,294 @@ public abstract class ResponseFormat<T> {
    */
   protected void write(String code, String data) {
     try {
-      writeHeader(code);
-      writer.write(data);
-      writer.flush();
+      byte[] body = (data != null) ? data.getBytes(StandardCharsets.UTF_8) : new byte[0];
+      body = encode(body);
+      writeHeader(code, body.length);
+      output.write(body);
+      output.flush();
     } catch (IOException ex) {
-      System.out.println("Response format, writer error.");
+      AccessLog.error("Response format, writer error.");
     }
   }
 
   /**
-   * Write response header.
+   * Compress a body, if the client accepts it and compression is enabled for it.
+   * Adds the according headers.
+   * 
+   * @param  body The uncompressed body.
+   * @return      The body to send.
+   */
+  protected byte[] encode(byte[] body) {
+    String coding = contentCoding(body.length);
+    return (coding != null) ? Compression.compress(body, coding) : body;
+  }
+
+  /**
+   * Choose the content coding of the current response and add the according headers.
+   * 
+   * @param  length Body length in bytes or -1 if unknown.
+   * @return        Content coding or null.
+   */
+  String contentCoding(long length) {
+    Compression compression = this.compression;
+    if (compression == null || !compression.isCompressible(mimeType)) {
+      return null;
+    }
+    addHeader("Vary", "Accept-Encoding");
+    if ((length >= 0 && length < compression.getMinSize()) || request == null) {
+      return null;
+    }
+    String coding = Compression.negotiate(request.header("Accept-Encoding"));
+    if (coding != null) {
+      addHeader("Content-Encoding", coding);
+    }
+    return coding;
+  }
+
+  /**
+   * Stream the body of a successful response.
+   * Bodies, that don't fit into a small buffer, are sent in chunks,
+   * so large generated content doesn't have to be held in memory.
+   * The stream is closed after the route callback, if it's left open.
+   * 
+   * @return The body stream.
+   */
+  public OutputStream stream() {
+    return stream(STATUS_CODE.SUCCESS.getHeader());
+  }
+
+  /**
+   * Stream the body of a response.
+   * 
+   * @param  code The response STATUS_CODE.
+   * @return      The body stream.
+   */
+  protected OutputStream stream(String code) {
+    if (stream == null) {
+      if (headerWritten) {
+        throw new IllegalStateException("Response already written.");
+      }
+      boolean chunkedAllowed = (request != null && request.getProtocol().equals("HTTP/1.1"));
+      stream = new ResponseStream(this, code, chunkedAllowed);
+    }
+    return stream;
+  }
+
+  /**
+   * Stream the body of a successful response as UTF-8 text.
+   * 
+   * @return Writer of the body stream.
+   */
+  public Writer streamWriter() {
+    if (streamWriter == null) {
+      stream();
+      streamWriter = stream.writer();
+    }
+    return streamWriter;
+  }
+
+  /**
+   * Complete a streamed response.
+   * Called after the route callback.
+   */
+  public void finish() {
+    try {
+      if (streamWriter != null) {
+        streamWriter.close();
+      } else if (stream != null) {
+        stream.close();
+      }
+    } catch (IOException ex) {
+      setKeepAlive(false);
+      AccessLog.error("I/O Exception while finishing response.");
+    }
+  }
+
+  /**
+   * Write response header, without Content-Length.
+   * The connection will be closed after the response.
    * 
    * @throws     IOException
    * @param code The response STATUS_CODE.
    */
   protected void writeHeader(String code) throws IOException {
+    writeHeader(code, -1);
+  }
+
+  /**
+   * Write response header.
+   * 
+   * @throws              IOException
+   * @param code          The response STATUS_CODE.
+   * @param contentLength Body length in bytes or -1 if unknown.
+   */
+  protected void writeHeader(String code, long contentLength) throws IOException {
+    writeHeader(code, contentLength, false);
+  }
+
+  /**
+   * Write response header for a body sent with Transfer-Encoding: chunked.
+   * Requires an HTTP/1.1 client.
+   * 
+   * @throws     IOException
+   * @param code The response STATUS_CODE.
+   */
+  protected void writeChunkedHeader(String code) throws IOException {
+    writeHeader(code, -1, true);
+  }
+
+  /**
+   * Write response header.
+   * 
+   * @throws              IOException
+   * @param code          The response STATUS_CODE.
+   * @param contentLength Body length in bytes or -1 if unknown.
+   * @param chunked       Whether the body is chunked.
+   */
+  private void writeHeader(String code, long contentLength, boolean chunked) throws IOException {
     if (!headerWritten) {
-      writer.write("HTTP/1.1 " + code + "\r\n");
-      writer.write("Cache-Control: private, max-age=0\r\n");
-      writer.write("Content-type: " + mimeType + "; charset=utf-8\r\n");
-      writer.write("Connection: keep-alive\r\n");
-      writer.write("Server: TinyServer MetzWeb\r\n\n");
-      writer.flush();
+      // 304 never has a body, so it doesn't need a length to keep the connection
+      boolean bodyless = code.equals(STATUS_CODE.NOT_MODIFIED.getHeader());
+      if (contentLength < 0 && !bodyless && !chunked) {
+        keepAlive = false;
+      }
+      HeaderBuffer header = HeaderBuffer.get();
+      byte[] statusLine = STATUS_LINES.get(code);
+      header.append(statusLine != null ? statusLine : statusLine(code));
+      byte[] cacheControlLine = this.cacheControlLine;
+      if (cacheControlLine != null) {
+        header.append(cacheControlLine);
+      }
+      if (!bodyless) {
+        header.append(contentTypeLine());
+      }
+      if (chunked) {
+        header.append(CHUNKED);
+      } else if (contentLength >= 0) {
+        header.append(CONTENT_LENGTH).append(contentLength).endLine();
+      }
+      for (String line : headers) {
+        header.append(line).endLine();
+      }
+      header.append(keepAlive ? KEEP_ALIVE : CLOSE);
+      // written together with the body, when the output is committed
+      header.writeTo(output);
       headerWritten = true;
+      status = statusCode(code);
+      bytesWritten = Math.max(contentLength, 0);
+    } else {
+      // additional data breaks the announced length
+      keepAlive = false;
+    }
+  }
+
+  /**
+   * Content-Type line of the current MIME type, encoded once per type.
+   * 
+   * @return The encoded line.
+   */
+  private byte[] contentTypeLine() {
+    String mimeType = String.valueOf(this.mimeType);
+    byte[] line = CONTENT_TYPE_LINES.get(mimeType);
+    if (line == null) {
+      if (mimeType.indexOf(';') > 0) {
+        line = headerLine("Content-Type", mimeType);
+      } else {
+        line = headerLine("Content-Type", mimeType + "; charset=utf-8");
+      }
+      if (CONTENT_TYPE_LINES.size() < MAX_CONTENT_TYPES) {
+        CONTENT_TYPE_LINES.put(mimeType, line);
+      }
+    }
+    return line;
+  }
+
+  /**
+   * Encode a header line.
+   * 
+   * @param  name  Header name.
+   * @param  value Header value.
+   * @return       The line incl. line break.
+   */
+  private static byte[] headerLine(String name, String value) {
+    return HeaderBuffer.encode(name + ": " + value + "\r\n");
+  }
+
+  /**
+   * Parse the numeric code of a status.
+   * 
+   * @param  code The response STATUS_CODE, e.g. 200 OK
+   * @return      The code, e.g. 200, or 0 if it's invalid.
+   */
+  private static int statusCode(String code) {
+    if (code.length() < 3) {
+      return 0;
+    }
+    int value = 0;
+    for (int i = 0; i < 3; i++) {
+      char digit = code.charAt(i);
+      if (digit < '0' || digit > '9') {
+        return 0;
+      }
+      value = value * 10 + (digit - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Encode a status line.
+   * 
+   * @param  code The response STATUS_CODE, e.g. 200 OK
+   * @return      The line incl. line break.
+   */
+  private static byte[] statusLine(String code) {
+    return HeaderBuffer.encode("HTTP/1.1 " + code + "\r\n");
+  }
+
+  /**
+   * UTF-8 writer of the output.
+   * Most responses are written as bytes, so the encoder is only created, once the writer is used.
+   */
+  private static class OutputWriter extends Writer {
+
+    private final OutputStream output;
+    private Writer encoder;
+
+    OutputWriter(OutputStream output) {
+      this.output = output;
     }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+      encoder().write(chars, offset, length);
+    }
+
+    @Override
+    public void write(String text, int offset, int length) throws IOException {
+      encoder().write(text, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (encoder != null) {
+        encoder.flush();
+      } else {
+        output.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      encoder().close();
+    }
+
+    private Writer encoder() {
+      if (encoder == null) {
+        encoder = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+      }
+      return encoder;
+    }
+
   }
 
 }
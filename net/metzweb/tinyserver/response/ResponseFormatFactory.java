@@ -0,0 +1,24 @@
+package net.metzweb.tinyserver.response;
+
+/**
+ * Creates the response format of a single request.
+ * Every request gets its own instance, so concurrent responses don't share state.
+ * A ResponseFormat is a factory itself: it creates copies of its configuration.
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+public interface ResponseFormatFactory {
+
+  /**
+   * Create a response format for one request.
+   * 
+   * @return New response format object.
+   */
+  ResponseFormat create();
+
+}
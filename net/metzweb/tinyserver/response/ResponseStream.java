@@ -0,0 +1,331 @@
+package net.metzweb.tinyserver.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streamed response body.
+ * Small bodies are buffered and sent with their Content-Length,
+ * compressed only if they reach the minimum size of the compression.
+ * Once the buffer overflows or the stream is flushed, the content coding is chosen
+ * and the body is sent with Transfer-Encoding: chunked (HTTP/1.0: until the connection is closed).
+ * 
+ * @package TinyServer
+ * 
+ * @author Christian Metz | christian@metzweb.net
+ * @since 18.10.2026
+ * @version 1.3
+ * @license BSD http://www.opensource.org/licenses/bsd-license.php
+ */
+class ResponseStream extends OutputStream {
+
+  /**
+   * Bodies up to this size are sent with a Content-Length,
+   * larger ones in chunks of this size.
+   */
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final byte[] CRLF = {'\r', '\n'};
+  private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+  private final ResponseFormat<?> format;
+  private final String code;
+  private final boolean chunkedAllowed;
+
+  /**
+   * Compresses the body or null.
+   * Its deflater holds native memory, it's ended with the response.
+   */
+  private DeflaterOutputStream encoder;
+  private Deflater deflater;
+
+  /**
+   * Body bytes, uncompressed until the content coding is chosen.
+   */
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int count;
+
+  /**
+   * Whether the content coding has been chosen.
+   */
+  private boolean encoding;
+
+  /**
+   * Whether the header has been written.
+   */
+  private boolean committed;
+  private boolean chunked;
+  private boolean closing;
+  private boolean closed;
+
+  /**
+   * Custom constructor.
+   * 
+   * @param format         The response format, writes the header.
+   * @param code           The response STATUS_CODE.
+   * @param chunkedAllowed Whether the client understands chunked bodies (HTTP/1.1).
+   */
+  ResponseStream(ResponseFormat<?> format, String code, boolean chunkedAllowed) {
+    this.format = format;
+    this.code = code;
+    this.chunkedAllowed = chunkedAllowed;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    if (closed) {
+      throw new IOException("Response stream closed.");
+    }
+    if (!encoding) {
+      if (count + length <= buffer.length) {
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+        return;
+      }
+      // too large for a Content-Length
+      startEncoding();
+    }
+    if (encoder != null) {
+      encoder.write(bytes, offset, length);
+    } else {
+      writeBody(bytes, offset, length);
+    }
+  }
+
+  /**
+   * Choose the content coding of a body with unknown length
+   * and encode what has been buffered so far.
+   * 
+   * @throws IOException
+   */
+  private void startEncoding() throws IOException {
+    encoding = true;
+    String coding = format.contentCoding(-1);
+    if (coding == null) {
+      // the buffered bytes are sent as they are
+      return;
+    }
+    OutputStream body = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        writeBody(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        writeBody(bytes, offset, length);
+      }
+    };
+    // the buffer collects the encoded bytes from now on
+    byte[] buffered = Arrays.copyOf(buffer, count);
+    count = 0;
+    if (coding.equals(Compression.GZIP)) {
+      GzipEncoder gzip = new GzipEncoder(body);
+      encoder = gzip;
+      deflater = gzip.deflater();
+    } else {
+      deflater = new Deflater();
+      encoder = new DeflaterOutputStream(body, deflater, true);
+    }
+    encoder.write(buffered);
+  }
+
+  /**
+   * Send the written data to the client.
+   * Switches to chunked transfer, if the header hasn't been written yet.
+   * 
+   * @throws IOException
+   */
+  @Override
+  public void flush() throws IOException {
+    if (closed || closing) {
+      return;
+    }
+    if (!encoding) {
+      startEncoding();
+    }
+    if (encoder != null) {
+      encoder.flush();
+    }
+    if (!committed) {
+      commitChunked();
+    }
+    writeBuffer();
+    if (format.output instanceof Committable) {
+      ((Committable) format.output).commit();
+    } else {
+      format.output.flush();
+    }
+  }
+
+  /**
+   * Writer, that closes this stream without committing small bodies.
+   * 
+   * @return UTF-8 writer.
+   */
+  Writer writer() {
+    return new OutputStreamWriter(this, StandardCharsets.UTF_8) {
+      @Override
+      public void close() throws IOException {
+        // the writer flushes before closing
+        closing = true;
+        super.close();
+      }
+    };
+  }
+
+  /**
+   * Complete the response.
+   * 
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (!encoding) {
+      // the whole body fit into the buffer, its length decides the coding
+      encoding = true;
+      committed = true;
+      String coding = format.contentCoding(count);
+      if (coding != null) {
+        byte[] body = Compression.compress(Arrays.copyOf(buffer, count), coding);
+        format.writeHeader(code, body.length);
+        format.output.write(body);
+      } else {
+        format.writeHeader(code, count);
+        format.output.write(buffer, 0, count);
+      }
+      count = 0;
+      format.output.flush();
+      return;
+    }
+    if (encoder != null) {
+      try {
+        encoder.finish();
+      } finally {
+        deflater.end();
+      }
+    }
+
+    if (!committed) {
+      // the encoded body fit into the buffer
+      committed = true;
+      format.writeHeader(code, count);
+      format.output.write(buffer, 0, count);
+      count = 0;
+    } else {
+      writeBuffer();
+      if (chunked) {
+        format.output.write(LAST_CHUNK);
+      }
+    }
+    format.output.flush();
+  }
+
+  /**
+   * Collect (encoded) body bytes and send them in chunks.
+   * 
+   * @param  bytes  The data.
+   * @param  offset Offset of the first byte.
+   * @param  length Number of bytes.
+   * @throws        IOException
+   */
+  private void writeBody(byte[] bytes, int offset, int length) throws IOException {
+    if (count + length <= buffer.length) {
+      System.arraycopy(bytes, offset, buffer, count, length);
+      count += length;
+      return;
+    }
+    if (!committed) {
+      commitChunked();
+    }
+    writeBuffer();
+    if (length >= buffer.length) {
+      writeChunk(bytes, offset, length);
+    } else {
+      System.arraycopy(bytes, offset, buffer, 0, length);
+      count = length;
+    }
+  }
+
+  /**
+   * Write the header of a body with unknown length.
+   * 
+   * @throws IOException
+   */
+  private void commitChunked() throws IOException {
+    committed = true;
+    if (chunkedAllowed) {
+      chunked = true;
+      format.writeChunkedHeader(code);
+    } else {
+      // delimited by closing the connection
+      format.writeHeader(code);
+    }
+  }
+
+  /**
+   * Send the buffered bytes.
+   * 
+   * @throws IOException
+   */
+  private void writeBuffer() throws IOException {
+    if (count > 0) {
+      writeChunk(buffer, 0, count);
+      count = 0;
+    }
+  }
+
+  /**
+   * Send bytes, framed as a chunk if chunked.
+   * 
+   * @param  bytes  The data.
+   * @param  offset Offset of the first byte.
+   * @param  length Number of bytes, has to be positive.
+   * @throws        IOException
+   */
+  private void writeChunk(byte[] bytes, int offset, int length) throws IOException {
+    OutputStream output = format.output;
+    if (chunked) {
+      output.write((Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+      output.write(bytes, offset, length);
+      output.write(CRLF);
+    } else {
+      output.write(bytes, offset, length);
+    }
+    format.addBytesWritten(length);
+    // lets the connection pass large bodies on in parts
+    output.flush();
+  }
+
+  /**
+   * Gzip encoder, that hands out its deflater to end it.
+   */
+  private static class GzipEncoder extends GZIPOutputStream {
+
+    GzipEncoder(OutputStream body) throws IOException {
+      super(body, BUFFER_SIZE, true);
+    }
+
+    Deflater deflater() {
+      return def;
+    }
+
+  }
+
+}